@@ -0,0 +1,126 @@
+package com.example.ems.bench;
+import com.example.ems.domain.Actor;
+import com.example.ems.service.AttendanceService;
+import com.example.ems.service.AttendanceSummaryService;
+import com.example.ems.service.JdbcAuditWriter;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ * 打刻の同時実行ベンチマーク（JMHではなく main から起動する）。-Pbenchmarks の test-compile で target/test-classes に入る。
+ *
+ * <pre>
+ * java -cp target/test-classes;target/classes;(依存Jar) com.example.ems.bench.AttendanceContentionBenchmark
+ *   -Dbench.sessions=8,16,32,64  同時セッション数
+ *   -Dbench.days=200             1セッションあたりの打刻日数（出勤+退勤で2打刻/日）
+ *   -Dbench.hotUsers=4           shared シナリオで全セッションが奪い合うユーザー数
+ * </pre>
+ *
+ * distinct: セッションごとに別ユーザー（通常運用）。
+ * shared: 全セッションが同じユーザー/日付に打刻し uq_att を奪い合う（重複打刻の競合）。
+ * 最後に「1ユーザー1日1行」「CLOCK_IN監査 = 行数」を検証する。
+ */
+public class AttendanceContentionBenchmark {
+  public static void main(String[] args) throws Exception {
+    int days = Integer.getInteger("bench.days", 200);
+    int hotUsers = Integer.getInteger("bench.hotUsers", 4);
+    String[] sessionList = System.getProperty("bench.sessions", "8,16,32,64").split(",");
+    System.out.printf("%-8s %8s %10s %12s %10s %10s%n", "scenario", "sessions", "punches", "punches/s", "punched", "rejected");
+    for (String s : sessionList) {
+      int sessions = Integer.parseInt(s.trim());
+      run("distinct", sessions, sessions, days);
+      run("shared", sessions, hotUsers, days);
+    }
+  }
+  private static void run(String scenario, int sessions, int users, int days) throws Exception {
+    Path dir = Files.createTempDirectory("ems-bench");
+    try (HikariDataSource ds = new HikariDataSource()) {
+      ds.setJdbcUrl("jdbc:h2:file:" + dir.resolve("ems").toAbsolutePath() + ";MODE=PostgreSQL");
+      ds.setUsername("sa");
+      ds.setPassword("");
+      ds.setMaximumPoolSize(sessions);
+      BenchDatabase.initSchema(ds);
+      JdbcTemplate jdbc = new JdbcTemplate(ds);
+      List<Actor> actors = seedUsers(jdbc, users);
+      AttendanceService service = new AttendanceService(jdbc, new JdbcAuditWriter(jdbc),
+          new AttendanceSummaryService(jdbc, "09:00", "18:00"));
+      TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+      LocalDate base = LocalDate.of(2030, 1, 1);
+      AtomicLongArray outcomes = new AtomicLongArray(AttendanceService.Outcome.values().length);
+      ExecutorService pool = Executors.newFixedThreadPool(sessions);
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < sessions; t++) {
+        final int thread = t;
+        futures.add(pool.submit(() -> {
+          start.await();
+          for (int d = 0; d < days; d++) {
+            Actor actor = actors.get((thread + d) % actors.size());
+            LocalDate day = base.plusDays(d);
+            AttendanceService.PunchResult in = tx.execute(st -> service.clockIn(actor, day, LocalDateTime.now()));
+            outcomes.incrementAndGet(in.outcome().ordinal());
+            AttendanceService.PunchResult out = tx.execute(st -> service.clockOut(actor, day, LocalDateTime.now()));
+            outcomes.incrementAndGet(out.outcome().ordinal());
+          }
+          return null;
+        }));
+      }
+      long t0 = System.nanoTime();
+      start.countDown();
+      for (Future<?> f : futures) f.get();
+      long elapsed = System.nanoTime() - t0;
+      pool.shutdown();
+      long punches = 2L * sessions * days;
+      long punched = outcomes.get(AttendanceService.Outcome.PUNCHED.ordinal());
+      System.out.printf("%-8s %8d %10d %12.0f %10d %10d%n",
+          scenario, sessions, punches, punches / (elapsed / 1e9), punched, punches - punched);
+      verify(jdbc, outcomes);
+    } finally {
+      BenchDatabase.deleteRecursively(dir);
+    }
+  }
+  private static List<Actor> seedUsers(JdbcTemplate jdbc, int users) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    List<Object[]> batch = new ArrayList<>();
+    for (int i = 0; i < users; i++) {
+      batch.add(new Object[] { "bench" + i, "x", "EMPLOYEE", true, now, now });
+    }
+    jdbc.batchUpdate(
+        "INSERT INTO users (username, password_hash, role, enabled, created_at, updated_at) VALUES (?,?,?,?,?,?)",
+        batch
+    );
+    return jdbc.query(
+        "SELECT id, username, role FROM users WHERE username LIKE 'bench%' ORDER BY id",
+        (rs, rn) -> new Actor(rs.getLong("id"), rs.getString("username"), rs.getString("role"))
+    );
+  }
+  private static void verify(JdbcTemplate jdbc, AtomicLongArray outcomes) {
+    Map<AttendanceService.Outcome, Long> byOutcome = new EnumMap<>(AttendanceService.Outcome.class);
+    for (AttendanceService.Outcome o : AttendanceService.Outcome.values()) {
+      byOutcome.put(o, outcomes.get(o.ordinal()));
+    }
+    Long rows = jdbc.queryForObject("SELECT COUNT(*) FROM attendance_records", Long.class);
+    Long clockInAudits = jdbc.queryForObject("SELECT COUNT(*) FROM audit_logs WHERE action='CLOCK_IN'", Long.class);
+    Long clockOutAudits = jdbc.queryForObject("SELECT COUNT(*) FROM audit_logs WHERE action='CLOCK_OUT'", Long.class);
+    Long openRows = jdbc.queryForObject("SELECT COUNT(*) FROM attendance_records WHERE clock_out IS NULL", Long.class);
+    if (!rows.equals(clockInAudits) || !rows.equals(clockOutAudits) || openRows != 0) {
+      throw new IllegalStateException("invariant broken: rows=" + rows + " clockInAudits=" + clockInAudits
+          + " clockOutAudits=" + clockOutAudits + " openRows=" + openRows + " outcomes=" + byOutcome);
+    }
+  }
+}
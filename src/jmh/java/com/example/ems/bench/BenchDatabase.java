@@ -0,0 +1,234 @@
+package com.example.ems.bench;
+import com.example.ems.domain.Actor;
+import com.example.ems.service.AttendanceService;
+import com.example.ems.service.AttendanceSummaryService;
+import com.example.ems.service.JdbcAuditWriter;
+import com.example.ems.service.LeaveLedgerService;
+import com.example.ems.service.MessageSearchService;
+import com.example.ems.service.MessageService;
+import com.example.ems.service.RequestDecisionService;
+import com.example.ems.service.RequestHistoryService;
+import com.example.ems.service.UserReferenceService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import javax.sql.DataSource;
+/**
+ * JMH 用のシード済みファイルDB（トライアルごとに一時ディレクトリへ作成）。
+ *
+ * users          利用者数
+ * days           勤怠の履歴日数（全員が毎日出退勤した状態）
+ * messages       1人あたりの受信メッセージ数（送信者はランダム）
+ * requests       1人あたりの申請数（一部は PENDING。すべて有給休暇で、承認で消化しきれない残日数を付与済み）
+ * audit          1人あたりの監査ログ件数
+ *
+ * パスワードはすべて PASSWORD を BCrypt(strength=10) でハッシュしたもの。
+ */
+@State(Scope.Benchmark)
+public class BenchDatabase {
+  static final String PASSWORD = "bench-password";
+  /**
+   * メッセージ本文に混ぜる語（検索の当たり具合を散らす）。
+   */
+  static final String[] TOPICS = { "シフト変更", "有給申請", "会議室予約", "健康診断", "勤怠修正", "研修案内" };
+  @Param("500")
+  public int users;
+  @Param("90")
+  public int days;
+  @Param("100")
+  public int messages;
+  @Param("20")
+  public int requests;
+  @Param("200")
+  public int audit;
+  Path dir;
+  HikariDataSource ds;
+  JdbcTemplate jdbc;
+  TransactionTemplate tx;
+  JdbcAuditWriter auditWriter;
+  AttendanceService attendance;
+  UserReferenceService userReferences;
+  MessageService messageService;
+  MessageSearchService messageSearch;
+  RequestHistoryService requestHistory;
+  LeaveLedgerService leaveLedger;
+  RequestDecisionService requestDecisions;
+  List<Actor> actors;
+  /**
+   * 監査/申請などの参照を持たないユーザー（削除可否チェックの「削除できる」側）。
+   */
+  Actor unreferenced;
+  /**
+   * 管理者（申請の承認者）。
+   */
+  Actor admin;
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("ems-jmh");
+    ds = new HikariDataSource();
+    ds.setJdbcUrl("jdbc:h2:file:" + dir.resolve("ems").toAbsolutePath() + ";MODE=PostgreSQL");
+    ds.setUsername("sa");
+    ds.setPassword("");
+    ds.setMaximumPoolSize(8);
+    initSchema(ds);
+    jdbc = new JdbcTemplate(ds);
+    tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+    auditWriter = new JdbcAuditWriter(jdbc);
+    attendance = new AttendanceService(jdbc, auditWriter, new AttendanceSummaryService(jdbc, "09:00", "18:00"));
+    userReferences = new UserReferenceService(jdbc);
+    messageSearch = new MessageSearchService(jdbc, 2000, 500);
+    messageService = new MessageService(jdbc, messageSearch, 1000);
+    requestHistory = new RequestHistoryService(jdbc);
+    leaveLedger = new LeaveLedgerService(jdbc);
+    requestDecisions = new RequestDecisionService(jdbc, leaveLedger);
+    seed();
+  }
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    ds.close();
+    deleteRecursively(dir);
+  }
+  Actor actor(int i) {
+    return actors.get(Math.floorMod(i, actors.size()));
+  }
+  private void seed() {
+    Random rnd = new Random(42);
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    String hash = new BCryptPasswordEncoder(10).encode(PASSWORD);
+    List<Object[]> batch = new ArrayList<>();
+    batch.add(new Object[] { "bench-admin", "bench-admin", hash, "ADMIN", true, now, now });
+    batch.add(new Object[] { "bench-idle", "bench-idle", hash, "EMPLOYEE", true, now, now });
+    for (int i = 0; i < users; i++) {
+      batch.add(new Object[] { "bench" + i, "社員" + i, hash, "EMPLOYEE", true, now, now });
+    }
+    jdbc.batchUpdate(
+        "INSERT INTO users (username, display_name, password_hash, role, enabled, created_at, updated_at) VALUES (?,?,?,?,?,?,?)",
+        batch
+    );
+    admin = loadActor("bench-admin");
+    unreferenced = loadActor("bench-idle");
+    actors = jdbc.query(
+        "SELECT id, username, role FROM users WHERE username LIKE 'bench%' AND username NOT IN ('bench-admin','bench-idle') ORDER BY id",
+        (rs, rn) -> new Actor(rs.getLong("id"), rs.getString("username"), rs.getString("role"))
+    );
+    LocalDate firstDay = LocalDate.now().minusDays(days);
+    Chunked att = new Chunked(
+        "INSERT INTO attendance_records (user_id, work_date, clock_in, clock_out, created_at, updated_at) VALUES (?,?,?,?,?,?)");
+    for (Actor a : actors) {
+      for (int d = 0; d < days; d++) {
+        LocalDate day = firstDay.plusDays(d);
+        Timestamp in = Timestamp.valueOf(day.atTime(8, 30).plusMinutes(rnd.nextInt(60)));
+        Timestamp out = Timestamp.valueOf(day.atTime(17, 30).plusMinutes(rnd.nextInt(60)));
+        att.add(a.id(), Date.valueOf(day), in, out, in, out);
+      }
+    }
+    att.flush();
+    Chunked msg = new Chunked(
+        "INSERT INTO messages (sender_id, receiver_id, body, sent_at, read_at) VALUES (?,?,?,?,?)");
+    for (Actor a : actors) {
+      for (int m = 0; m < messages; m++) {
+        Actor from = actor(rnd.nextInt(actors.size()));
+        Timestamp at = Timestamp.valueOf(firstDay.atStartOfDay().plusMinutes(rnd.nextInt(days * 24 * 60)));
+        msg.add(from.id(), a.id(), "ベンチマーク用メッセージ " + m + " " + TOPICS[rnd.nextInt(TOPICS.length)], at, rnd.nextBoolean() ? at : null);
+      }
+    }
+    msg.flush();
+    jdbc.update(
+        "INSERT INTO message_unread_counter (user_id, unread, updated_at) " +
+        "SELECT receiver_id, COUNT(*), CURRENT_TIMESTAMP FROM messages WHERE read_at IS NULL GROUP BY receiver_id");
+    messageSearch.rebuild();
+    Chunked req = new Chunked(
+        "INSERT INTO application_requests (type, requester_id, status, start_date, end_date, reason, decided_by_id, created_at, updated_at, decided_at) " +
+        "VALUES (?,?,?,?,?,?,?,?,?,?)");
+    String[] statuses = { "PENDING", "APPROVED", "REJECTED" };
+    for (Actor a : actors) {
+      for (int r = 0; r < requests; r++) {
+        String status = statuses[r % statuses.length];
+        // 1人の休暇は日をずらし、承認の計測が期間の重なり（OVERLAP）の経路にならないようにする
+        LocalDate day = firstDay.plusDays(r % Math.max(days, 1));
+        Timestamp created = Timestamp.valueOf(day.atTime(12, 0));
+        boolean decided = !"PENDING".equals(status);
+        req.add("LEAVE", a.id(), status, Date.valueOf(day), Date.valueOf(day), "[有給] ベンチマーク",
+            decided ? admin.id() : null, created, created, decided ? created : null);
+      }
+    }
+    req.flush();
+    // 承認の計測が残日数不足（INSUFFICIENT_LEAVE）の経路にならないよう、失効なしで十分に付与しておく
+    leaveLedger.grantAll(1_000_000, null, "benchmark", admin.id());
+    Chunked aud = new Chunked(
+        "INSERT INTO audit_logs (actor_id, actor_username, actor_role, action, entity_type, entity_id, detail, ip_address, created_at) " +
+        "VALUES (?,?,?,?,?,?,?,?,?)");
+    for (Actor a : actors) {
+      for (int i = 0; i < audit; i++) {
+        Timestamp at = Timestamp.valueOf(firstDay.atStartOfDay().plusMinutes(rnd.nextInt(days * 24 * 60)));
+        aud.add(a.id(), a.username(), a.role(), i % 2 == 0 ? "CLOCK_IN" : "CLOCK_OUT", "attendance_records", a.id() + ":" + i, null, null, at);
+      }
+    }
+    aud.flush();
+  }
+  private Actor loadActor(String username) {
+    return jdbc.queryForObject(
+        "SELECT id, username, role FROM users WHERE username=?",
+        (rs, rn) -> new Actor(rs.getLong("id"), rs.getString("username"), rs.getString("role")),
+        username
+    );
+  }
+  /**
+   * batchUpdate を一定件数ごとに流す。
+   */
+  private final class Chunked {
+    private static final int SIZE = 5000;
+    private final String sql;
+    private final List<Object[]> rows = new ArrayList<>(SIZE);
+    Chunked(String sql) {
+      this.sql = sql;
+    }
+    void add(Object... row) {
+      rows.add(row);
+      if (rows.size() >= SIZE) flush();
+    }
+    void flush() {
+      if (rows.isEmpty()) return;
+      jdbc.batchUpdate(sql, rows);
+      rows.clear();
+    }
+  }
+  /**
+   * application.properties の spring.sql.init.schema-locations と同じスクリプトを順に流す。
+   */
+  static void initSchema(DataSource ds) throws Exception {
+    Properties props = PropertiesLoaderUtils.loadProperties(new ClassPathResource("application.properties"));
+    ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+    for (String location : props.getProperty("spring.sql.init.schema-locations").split(",")) {
+      populator.addScript(new ClassPathResource(location.trim().replace("classpath:", "")));
+    }
+    populator.setSqlScriptEncoding("UTF-8");
+    populator.execute(ds);
+  }
+  static void deleteRecursively(Path dir) throws Exception {
+    try (var paths = Files.walk(dir)) {
+      paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(p -> p.toFile().delete());
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package com.example.ems.bench;
+import com.example.ems.domain.Actor;
+import com.example.ems.service.AsyncAuditSink;
+import com.example.ems.service.AttendanceService;
+import com.example.ems.service.AuditEvent;
+import com.example.ems.service.MessageSearchService;
+import com.example.ems.service.MessageService;
+import com.example.ems.service.RequestDecisionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+/**
+ * CLI のよく通る経路のベンチマーク（ログインは LoginBenchmark）。
+ * 画面系（受信一覧/送信一覧/自分の申請）は EmsConsoleCli と同じSQLと整形を行う。CLI側を変えたらこちらも合わせる。
+ *
+ * <pre>
+ * ./mvnw -Pbenchmarks -DskipTests test-compile exec:exec
+ * ./mvnw -Pbenchmarks -DskipTests test-compile exec:exec -Djmh.args="EmsHotPath -p users=2000 -p messages=500"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmsHotPathBenchmark {
+  static final int DECIDE_BATCH = 50;
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+  }
+  /**
+   * 承認/却下の対象。イテレーションごとに PENDING に戻す。
+   * 1イテレーションの操作数が件数（users × requests / 3）を超えると、超えた分は「処理済み」で弾かれる経路になる。
+   */
+  @State(Scope.Benchmark)
+  public static class PendingRequests {
+    List<Long> ids;
+    @Setup(Level.Iteration)
+    public void reset(BenchDatabase db) {
+      if (ids == null) {
+        ids = db.jdbc.queryForList("SELECT id FROM application_requests WHERE status='PENDING' ORDER BY id", Long.class);
+      }
+      List<Object[]> args = new ArrayList<>(ids.size());
+      for (Long id : ids) args.add(new Object[] { id });
+      db.jdbc.batchUpdate(
+          "UPDATE application_requests SET status='PENDING', decided_by_id=NULL, decided_at=NULL, decision_note=NULL WHERE id=?",
+          args
+      );
+    }
+  }
+  @State(Scope.Benchmark)
+  public static class AsyncAudit {
+    AsyncAuditSink sink;
+    @Setup(Level.Trial)
+    public void start(BenchDatabase db) {
+      sink = new AsyncAuditSink(db.auditWriter, 10000, 200, 200, 20);
+      sink.start();
+    }
+    @TearDown(Level.Trial)
+    public void stop() {
+      sink.stop();
+    }
+  }
+  /**
+   * 履歴の翌日以降の日付に、出勤→退勤を1組打刻する（スレッド数1の前提で日付が重ならない）。
+   */
+  @Benchmark
+  public void clockInOut(BenchDatabase db, Cursor c, Blackhole bh) {
+    int n = c.next++;
+    Actor actor = db.actor(n);
+    LocalDate day = LocalDate.now().plusDays(1 + n / db.actors.size());
+    LocalDateTime in = day.atTime(9, 0);
+    bh.consume(db.tx.execute(st -> db.attendance.clockIn(actor, day, in)));
+    AttendanceService.PunchResult out = db.tx.execute(st -> db.attendance.clockOut(actor, day, in.plusHours(9)));
+    bh.consume(out);
+  }
+  /**
+   * 受信一覧の1ページ目（未読件数の表示を含む）。
+   */
+  @Benchmark
+  public void inbox(BenchDatabase db, Cursor c, Blackhole bh) {
+    long userId = db.actor(c.next++).id();
+    bh.consume(db.messageService.unreadCount(userId));
+    for (MessageService.InboxRow r : db.messageService.inbox(userId, false, null, 20).rows()) {
+      bh.consume("ID:" + r.id()
+          + " / " + (r.readAt() == null ? "未読" : "既読")
+          + " / From:" + r.senderUsername() + "(" + (r.senderDisplayName() == null ? "-" : r.senderDisplayName()) + ")"
+          + " / At:" + Timestamp.valueOf(r.sentAt())
+          + "\n" + r.body());
+    }
+  }
+  @Benchmark
+  public void inboxUnreadOnly(BenchDatabase db, Cursor c, Blackhole bh) {
+    bh.consume(db.messageService.inbox(db.actor(c.next++).id(), true, null, 20));
+  }
+  @Benchmark
+  public void sentList(BenchDatabase db, Cursor c, Blackhole bh) {
+    for (MessageService.SentRow r : db.messageService.sent(db.actor(c.next++).id(), null, 20).rows()) {
+      String to = r.receiverUsername() == null
+          ? "(id=" + r.receiverId() + ")"
+          : r.receiverUsername() + "(" + (r.receiverDisplayName() == null ? "-" : r.receiverDisplayName()) + ")";
+      bh.consume("ID:" + r.id()
+          + " / " + (r.readAt() == null ? "未読" : ("既読@" + Timestamp.valueOf(r.readAt())))
+          + " / To:" + to
+          + " / At:" + Timestamp.valueOf(r.sentAt())
+          + "\n" + r.body());
+    }
+  }
+  /**
+   * 2人の会話の1ページ目（相手は隣の利用者）。
+   */
+  @Benchmark
+  public MessageService.Page<MessageService.ThreadRow> conversation(BenchDatabase db, Cursor c) {
+    int n = c.next++;
+    return db.messageService.thread(db.actor(n).id(), db.actor(n + 1).id(), null, 20);
+  }
+  /**
+   * 本文検索（bigram 索引 + 本文確認）。
+   */
+  @Benchmark
+  public MessageSearchService.Result searchMessages(BenchDatabase db, Cursor c) {
+    int n = c.next++;
+    return db.messageSearch.search(db.actor(n).id(), BenchDatabase.TOPICS[Math.floorMod(n, BenchDatabase.TOPICS.length)], 50);
+  }
+  /**
+   * 申請の承認1件（CLI の単件承認と同じ decideIds。有給の消化を含む）。監査は CLI と同じく AuditSink 側なのでここでは含めない。
+   */
+  @Benchmark
+  public RequestDecisionService.BatchResult decideRequest(BenchDatabase db, PendingRequests pending, Cursor c) {
+    long id = pending.ids.get(Math.floorMod(c.next++, pending.ids.size()));
+    return db.requestDecisions.decideIds(db.admin.id(), List.of(id), true, null);
+  }
+  /**
+   * まとめて承認（ID指定 DECIDE_BATCH 件を1回で）。
+   */
+  @Benchmark
+  public RequestDecisionService.BatchResult decideRequestsBatch(BenchDatabase db, PendingRequests pending, Cursor c) {
+    int from = Math.floorMod(c.next, pending.ids.size());
+    c.next += DECIDE_BATCH;
+    List<Long> ids = pending.ids.subList(from, Math.min(from + DECIDE_BATCH, pending.ids.size()));
+    return db.requestDecisions.decideIds(db.admin.id(), ids, true, null);
+  }
+  /**
+   * 自分の申請状況の1ページ目（件数の集計 + 履歴20件）。
+   */
+  @Benchmark
+  public void showMyRequests(BenchDatabase db, Cursor c, Blackhole bh) {
+    long userId = db.actor(c.next++).id();
+    bh.consume(db.requestHistory.counts(userId));
+    bh.consume(db.requestHistory.page(userId, null, 20));
+  }
+  /**
+   * 履歴のあるユーザー（最初の参照で確定）。
+   */
+  @Benchmark
+  public boolean isDeletableReferenced(BenchDatabase db, Cursor c) {
+    return !db.userReferences.isReferenced(db.actor(c.next++).id());
+  }
+  /**
+   * 履歴のないユーザー（すべての参照列を調べる）。
+   */
+  @Benchmark
+  public boolean isDeletableUnreferenced(BenchDatabase db) {
+    return !db.userReferences.isReferenced(db.unreferenced.id());
+  }
+  @Benchmark
+  public void auditWrite(BenchDatabase db, Cursor c) {
+    Actor actor = db.actor(c.next++);
+    db.auditWriter.write(actor, "BENCH", "users", String.valueOf(actor.id()), null);
+  }
+  /**
+   * キューへの投入だけ（書込みは別スレッド）。キューが詰まると offer のタイムアウト待ちが現れる。
+   */
+  @Benchmark
+  public void auditRecordAsync(BenchDatabase db, AsyncAudit async, Cursor c) {
+    Actor actor = db.actor(c.next++);
+    async.sink.record(AuditEvent.of(actor, "BENCH", "users", String.valueOf(actor.id()), null));
+  }
+}
@@ -0,0 +1,54 @@
+package com.example.ems.bench;
+import com.example.ems.config.PasswordConfig;
+import com.example.ems.service.UserDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import java.util.concurrent.TimeUnit;
+/**
+ * ログイン（ユーザー検索 + BCrypt照合）。照合は本番と同じ PasswordConfig.encoder を使う。
+ * bcryptStrength ごとに全ユーザーのハッシュを作り直し、cached=false では UserDirectory を素通しにする。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginBenchmark {
+  @Param({"4", "10", "12"})
+  public int bcryptStrength;
+  @Param({"true", "false"})
+  public boolean cached;
+  PasswordEncoder encoder;
+  UserDirectory directory;
+  int next;
+  @Setup(Level.Trial)
+  public void setUp(BenchDatabase db) {
+    encoder = PasswordConfig.encoder(bcryptStrength);
+    db.jdbc.update("UPDATE users SET password_hash=?", encoder.encode(BenchDatabase.PASSWORD));
+    directory = new UserDirectory(db.jdbc, cached ? 10_000 : 0, 300_000, 1_000);
+  }
+  @Benchmark
+  public boolean login(BenchDatabase db) {
+    UserDirectory.User u = directory.findByUsername(db.actor(next++).username());
+    return u != null && u.enabled() && encoder.matches(BenchDatabase.PASSWORD, u.passwordHash());
+  }
+  /**
+   * 検索だけ（BCrypt を除いたDB/キャッシュ側のコスト）。
+   */
+  @Benchmark
+  public UserDirectory.User lookup(BenchDatabase db) {
+    return directory.findByUsername(db.actor(next++).username());
+  }
+}
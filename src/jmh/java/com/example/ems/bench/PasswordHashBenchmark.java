@@ -0,0 +1,68 @@
+package com.example.ems.bench;
+import com.example.ems.config.PasswordConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import java.util.concurrent.TimeUnit;
+/**
+ * 強度ごとのパスワード照合時間（DBなし）。ems.password.bcrypt-strength / target-verify-ms を決める材料。
+ *
+ * <pre>
+ * ./mvnw -Pbenchmarks -DskipTests test-compile exec:exec -Djmh.args="PasswordHash"
+ * ./mvnw -Pbenchmarks -DskipTests test-compile exec:exec -Djmh.args="PasswordHash -p strength=10,11,12"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordHashBenchmark {
+  @Param({"4", "8", "10", "12", "14"})
+  public int strength;
+  PasswordEncoder encoder;
+  String hash;
+  /**
+   * 接頭辞なしの旧形式（V1_init.sql の初期管理者と同じ形）。
+   */
+  String legacyHash;
+  @Setup(Level.Trial)
+  public void setUp() {
+    encoder = PasswordConfig.encoder(strength);
+    hash = encoder.encode(BenchDatabase.PASSWORD);
+    legacyHash = hash.substring(hash.indexOf('}') + 1);
+  }
+  /**
+   * ログイン/本人確認1回分の照合。
+   */
+  @Benchmark
+  public boolean verify() {
+    return encoder.matches(BenchDatabase.PASSWORD, hash);
+  }
+  /**
+   * 旧形式の照合（既定の照合器に回る経路）。
+   */
+  @Benchmark
+  public boolean verifyLegacy() {
+    return encoder.matches(BenchDatabase.PASSWORD, legacyHash);
+  }
+  /**
+   * 作り直しが要るかの判定（ログインごとに1回）。
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public boolean upgradeCheck() {
+    return encoder.upgradeEncoding(legacyHash);
+  }
+}
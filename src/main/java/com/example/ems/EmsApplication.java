@@ -7,13 +7,18 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
 import org.springframework.security.crypto.password.PasswordEncoder;
 @SpringBootApplication
 public class EmsApplication {
   public static void main(String[] args) {
     SpringApplication.run(EmsApplication.class, args);
   }
+  /**
+   * cli プロファイルでは JPA を起動しない（初期管理者は V1_init.sql でも作成される）。
+   */
   @Bean
+  @Profile("!cli")
   CommandLineRunner seedInitialAdmin(UserRepository userRepository,
                                      PasswordEncoder passwordEncoder,
                                      AuditLogService auditLogService) {
@@ -1,8 +1,15 @@
 package com.example.ems.cli;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Date;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Map;
@@ -15,26 +22,135 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import com.example.ems.EmsApplication;
 import com.example.ems.cli.ConsoleIO;
+import com.example.ems.domain.Actor;
+import com.example.ems.service.AttendanceService;
+import com.example.ems.service.AttendanceSummaryService;
+import com.example.ems.service.AuditArchiveService;
+import com.example.ems.service.AuditEvent;
+import com.example.ems.service.AuditLogQueryService;
+import com.example.ems.service.AuditSink;
+import com.example.ems.service.DailyGapService;
+import com.example.ems.service.LeaveLedgerService;
+import com.example.ems.service.LeaveScheduleService;
+import com.example.ems.service.MentalAlertService;
+import com.example.ems.service.MentalAnalyticsService;
+import com.example.ems.service.MessageRetentionService;
+import com.example.ems.service.MessageSearchService;
+import com.example.ems.service.MessageService;
+import com.example.ems.service.PunchImportService;
+import com.example.ems.service.RequestDecisionService;
+import com.example.ems.service.RequestHistoryService;
+import com.example.ems.service.UserDirectory;
+import com.example.ems.service.UserReferenceService;
 public class EmsConsoleCli {
+    /**
+     * cli プロファイル（application-cli.properties）で起動する。
+     * Web/JPA/Security を起動せず、Bean は遅延初期化、スキーマ初期化はスクリプトが変わったときだけ行う。
+     */
     public static void main(String[] args) {
+        StartupReport startup = StartupReport.begin();
         try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(EmsApplication.class)
                 .web(WebApplicationType.NONE)
+                .profiles("cli")
                 .run(args)) {
+            startup.contextReady();
             DataSource ds = ctx.getBean(DataSource.class);
             JdbcTemplate jdbc = new JdbcTemplate(ds);
             PasswordEncoder pe = ctx.getBean(PasswordEncoder.class);
+            UserDirectory users = ctx.getBean(UserDirectory.class);
+            UserReferenceService userRefs = ctx.getBean(UserReferenceService.class);
+            AttendanceService attendance = ctx.getBean(AttendanceService.class);
+            AttendanceSummaryService attendanceSummary = ctx.getBean(AttendanceSummaryService.class);
+            PunchImportService punchImport = ctx.getBean(PunchImportService.class);
+            AuditSink auditSink = ctx.getBean(AuditSink.class);
+            AuditLogQueryService auditQuery = ctx.getBean(AuditLogQueryService.class);
+            AuditArchiveService auditArchive = ctx.getBean(AuditArchiveService.class);
+            MessageService messages = ctx.getBean(MessageService.class);
+            MessageSearchService messageSearch = ctx.getBean(MessageSearchService.class);
+            MessageRetentionService messageRetention = ctx.getBean(MessageRetentionService.class);
+            RequestDecisionService requestDecisions = ctx.getBean(RequestDecisionService.class);
+            RequestHistoryService requestHistory = ctx.getBean(RequestHistoryService.class);
+            LeaveLedgerService leaveLedger = ctx.getBean(LeaveLedgerService.class);
+            LeaveScheduleService leaveSchedule = ctx.getBean(LeaveScheduleService.class);
+            MentalAnalyticsService mentalAnalytics = ctx.getBean(MentalAnalyticsService.class);
+            MentalAlertService mentalAlerts = ctx.getBean(MentalAlertService.class);
+            DailyGapService dailyGaps = ctx.getBean(DailyGapService.class);
+            Duration reauthGrace = Duration.ofSeconds(
+                    ctx.getEnvironment().getProperty("ems.cli.reauth-grace-seconds", Long.class, 120L));
             ConsoleIO io = new ConsoleIO();
-            new EmsConsoleCli(io, jdbc, pe).run();
+            EmsConsoleCli cli = new EmsConsoleCli(io, jdbc, pe, users, userRefs, auditSink, auditQuery, auditArchive, attendance, attendanceSummary, punchImport, messages, messageSearch, messageRetention, requestDecisions, requestHistory, leaveLedger, leaveSchedule, mentalAnalytics, mentalAlerts, dailyGaps, reauthGrace);
+            startup.finish(ctx.getEnvironment().getProperty("ems.cli.startup-report"));
+            cli.run();
         }
     }
     private final ConsoleIO io;
     private final JdbcTemplate jdbc;
     private final PasswordEncoder passwordEncoder;
+    private final UserDirectory userDirectory;
+    private final UserReferenceService userReferenceService;
+    private final AuditSink auditSink;
+    private final AuditLogQueryService auditLogQueryService;
+    private final AuditArchiveService auditArchiveService;
+    private final AttendanceService attendanceService;
+    private final AttendanceSummaryService attendanceSummaryService;
+    private final PunchImportService punchImportService;
+    private final MessageService messageService;
+    private final MessageSearchService messageSearchService;
+    private final MessageRetentionService messageRetentionService;
+    private final RequestDecisionService requestDecisionService;
+    private final RequestHistoryService requestHistoryService;
+    private final LeaveLedgerService leaveLedgerService;
+    private final LeaveScheduleService leaveScheduleService;
+    private final MentalAnalyticsService mentalAnalyticsService;
+    private final MentalAlertService mentalAlertService;
+    private final DailyGapService dailyGapService;
+    private final Duration reauthGrace;
     private Session session; 
-    public EmsConsoleCli(ConsoleIO io, JdbcTemplate jdbc, PasswordEncoder passwordEncoder) {
+    private static final int AUDIT_PAGE_SIZE = 50;
+    private static final int INBOX_PAGE_SIZE = 20;
+    private static final int REQUEST_PAGE_SIZE = 20;
+    public EmsConsoleCli(ConsoleIO io, JdbcTemplate jdbc, PasswordEncoder passwordEncoder,
+                         UserDirectory userDirectory,
+                         UserReferenceService userReferenceService,
+                         AuditSink auditSink,
+                         AuditLogQueryService auditLogQueryService,
+                         AuditArchiveService auditArchiveService,
+                         AttendanceService attendanceService,
+                         AttendanceSummaryService attendanceSummaryService,
+                         PunchImportService punchImportService,
+                         MessageService messageService,
+                         MessageSearchService messageSearchService,
+                         MessageRetentionService messageRetentionService,
+                         RequestDecisionService requestDecisionService,
+                         RequestHistoryService requestHistoryService,
+                         LeaveLedgerService leaveLedgerService,
+                         LeaveScheduleService leaveScheduleService,
+                         MentalAnalyticsService mentalAnalyticsService,
+                         MentalAlertService mentalAlertService,
+                         DailyGapService dailyGapService,
+                         Duration reauthGrace) {
         this.io = Objects.requireNonNull(io);
         this.jdbc = Objects.requireNonNull(jdbc);
         this.passwordEncoder = Objects.requireNonNull(passwordEncoder);
+        this.userDirectory = Objects.requireNonNull(userDirectory);
+        this.userReferenceService = Objects.requireNonNull(userReferenceService);
+        this.auditSink = Objects.requireNonNull(auditSink);
+        this.auditLogQueryService = Objects.requireNonNull(auditLogQueryService);
+        this.auditArchiveService = Objects.requireNonNull(auditArchiveService);
+        this.attendanceService = Objects.requireNonNull(attendanceService);
+        this.attendanceSummaryService = Objects.requireNonNull(attendanceSummaryService);
+        this.punchImportService = Objects.requireNonNull(punchImportService);
+        this.messageService = Objects.requireNonNull(messageService);
+        this.messageSearchService = Objects.requireNonNull(messageSearchService);
+        this.messageRetentionService = Objects.requireNonNull(messageRetentionService);
+        this.requestDecisionService = Objects.requireNonNull(requestDecisionService);
+        this.requestHistoryService = Objects.requireNonNull(requestHistoryService);
+        this.leaveLedgerService = Objects.requireNonNull(leaveLedgerService);
+        this.leaveScheduleService = Objects.requireNonNull(leaveScheduleService);
+        this.mentalAnalyticsService = Objects.requireNonNull(mentalAnalyticsService);
+        this.mentalAlertService = Objects.requireNonNull(mentalAlertService);
+        this.dailyGapService = Objects.requireNonNull(dailyGapService);
+        this.reauthGrace = Objects.requireNonNull(reauthGrace);
     }
     private static final class DbUser {
         final long id;
@@ -57,6 +173,11 @@ public class EmsConsoleCli {
         final String username;
         final String displayName;
         final String role;
+        /**
+         * 本人確認に使ったハッシュと有効期限（System.nanoTime）。ハッシュが変われば（パスワード変更/初期化）無効。
+         */
+        private String reauthHash;
+        private long reauthUntil;
         Session(long id, String username, String displayName, String role) {
             this.id = id;
             this.username = username;
@@ -70,6 +191,20 @@ public class EmsConsoleCli {
             if (displayName != null && !displayName.isBlank()) return displayName;
             return username;
         }
+        Actor actor() {
+            return new Actor(id, username, role);
+        }
+        boolean reauthValid(String currentHash) {
+            return reauthHash != null && reauthHash.equals(currentHash) && System.nanoTime() - reauthUntil < 0;
+        }
+        void reauthenticated(String hash, Duration grace) {
+            if (grace.isZero() || grace.isNegative()) return;
+            reauthHash = hash;
+            reauthUntil = System.nanoTime() + grace.toNanos();
+        }
+        void clearReauth() {
+            reauthHash = null;
+        }
     }
     private void run() {
         printBanner();
@@ -132,7 +267,13 @@ public class EmsConsoleCli {
         }
         this.session = new Session(u.id, u.username, u.displayName, u.role);
         audit("LOGIN", "users", String.valueOf(u.id), "username=" + u.username);
+        upgradePasswordHash(u.id, password, u.passwordHash);
         io.println("ログイン成功（権限: " + (session.isAdmin() ? "管理者" : "従業員") + "）");
+        leaveLedgerService.expireDue(LocalDate.now(), session.id);
+        int unread = messageService.unreadCount(session.id);
+        if (unread > 0) {
+            io.println("未読メッセージがあります: " + unread + "件");
+        }
         io.pause("Enterで戻る...");
         if (session.isAdmin()) {
             int pending = countPendingPasswordReset();
@@ -141,6 +282,12 @@ public class EmsConsoleCli {
                 io.println("【通知】未処理のパスワード初期化依頼があります: " + pending + "件");
                 io.pause("Enterで続行...");
             }
+            int alerts = mentalAlertService.openCount();
+            if (alerts > 0) {
+                io.blank();
+                io.println("【通知】未確認のメンタル低スコア通知があります: " + alerts + "件（メンタル閲覧 → 4）");
+                io.pause("Enterで続行...");
+            }
             adminMenu();
         } else {
             employeeMenu();
@@ -157,13 +304,14 @@ public class EmsConsoleCli {
             io.println("4) 申請管理（未処理/詳細/承認/却下）");
             io.println("5) 申請（管理者）");
             io.println("6) メッセージ（受信/送信/既読）");
-            io.println("7) メンタル閲覧（ユーザー指定）");
-            io.println("8) 監査ログ（最新）");
+            io.println("7) メンタル閲覧（ユーザー指定/分布/平均/通知）");
+            io.println("8) 監査ログ（最新/検索）");
             io.println("9) パスワード初期化依頼（未処理/承認/却下）");
             io.println("10) パスワード変更");
             io.println("11) 自分のメンタル記録（今日）");
+            io.println("12) 記録漏れ（メンタル/退勤）とリマインダー");
             io.println("0) ログアウト（戻る）");
-            int sel = io.readIntInRange("選択: ", 0, 11, -1);
+            int sel = io.readIntInRange("選択: ", 0, 12, -1);
             if (sel == 0) return;
             switch (sel) {
                 case 1 -> showSelfInfo();
@@ -172,11 +320,12 @@ public class EmsConsoleCli {
                 case 4 -> requestManagementMenu();
                 case 5 -> createRequestMenu(true);
                 case 6 -> messageMenu();
-                case 7 -> mentalViewByUserMenu();
+                case 7 -> mentalMenu();
                 case 8 -> showAuditLogs();
                 case 9 -> passwordResetAdminMenu();
                 case 10 -> changePasswordMenu();
                 case 11 -> upsertMyMentalToday();
+                case 12 -> dailyGapsMenu();
                 default -> {}
             }
         }
@@ -228,81 +377,150 @@ public class EmsConsoleCli {
             io.println("1) 出勤（打刻）");
             io.println("2) 退勤（打刻）");
             io.println("3) 最近の勤怠を見る");
+            io.println("4) 月次集計（自分）");
+            if (session.isAdmin()) {
+                io.println("5) 月次集計（全員）");
+                io.println("6) 月次集計の再構築");
+                io.println("7) 打刻ファイル取込（CSV）");
+            }
             io.println("0) 戻る");
-            int sel = io.readIntInRange("選択: ", 0, 3, -1);
+            int sel = io.readIntInRange("選択: ", 0, session.isAdmin() ? 7 : 4, -1);
             if (sel == 0) return;
             switch (sel) {
                 case 1 -> clockIn();
                 case 2 -> clockOut();
                 case 3 -> showRecentAttendance();
+                case 4 -> showMyMonthlySummary();
+                case 5 -> showMonthlySummaryAll();
+                case 6 -> rebuildMonthlySummaryMenu();
+                case 7 -> importPunchFileMenu();
                 default -> {}
             }
         }
     }
     private void clockIn() {
-        LocalDate today = LocalDate.now();
-        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
-        Integer count = jdbc.queryForObject(
-                "SELECT COUNT(*) FROM attendance_records WHERE user_id=? AND work_date=?",
-                Integer.class, session.id, Date.valueOf(today)
-        );
-        if (count != null && count > 0) {
-            Timestamp existing = jdbc.queryForObject(
-                    "SELECT clock_in FROM attendance_records WHERE user_id=? AND work_date=?",
-                    Timestamp.class, session.id, Date.valueOf(today)
-            );
-            if (existing != null) {
-                io.println("すでに出勤済みです: " + existing);
-                io.pause();
-                return;
-            }
-            jdbc.update(
-                    "UPDATE attendance_records SET clock_in=?, updated_at=? WHERE user_id=? AND work_date=?",
-                    now, now, session.id, Date.valueOf(today)
-            );
-        } else {
-            jdbc.update(
-                    "INSERT INTO attendance_records (user_id, work_date, clock_in, clock_out, created_at, updated_at) VALUES (?,?,?,?,?,?)",
-                    session.id, Date.valueOf(today), now, null, now, now
-            );
+        AttendanceService.PunchResult r = attendanceService.clockIn(session.actor(), LocalDate.now(), LocalDateTime.now());
+        switch (r.outcome()) {
+            case PUNCHED -> io.println("出勤しました: " + r.at());
+            case ALREADY_CLOCKED_OUT -> io.println("退勤（" + r.at() + "）より後の出勤は打刻できません。勤怠の修正を依頼してください。");
+            default -> io.println("すでに出勤済みです: " + r.at());
         }
-        audit("CLOCK_IN", "attendance_records", session.id + ":" + today, null);
-        io.println("出勤しました: " + now);
         io.pause();
     }
     private void clockOut() {
-        LocalDate today = LocalDate.now();
-        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
-        try {
-            Timestamp clockIn = jdbc.queryForObject(
-                    "SELECT clock_in FROM attendance_records WHERE user_id=? AND work_date=?",
-                    Timestamp.class, session.id, Date.valueOf(today)
-            );
-            if (clockIn == null) {
-                io.println("まだ出勤していません。");
+        AttendanceService.PunchResult r = attendanceService.clockOut(session.actor(), LocalDate.now(), LocalDateTime.now());
+        switch (r.outcome()) {
+            case PUNCHED -> io.println("退勤しました: " + r.at());
+            case ALREADY_PUNCHED -> io.println("すでに退勤済みです: " + r.at());
+            case NOT_CLOCKED_IN -> io.println("まだ出勤していません。");
+            case NO_RECORD -> io.println("今日の勤怠がありません（先に出勤してください）。");
+        }
+        io.pause();
+    }
+    private void showMyMonthlySummary() {
+        io.blank();
+        YearMonth ym = readYearMonth("対象月(yyyy-mm / Enterで今月): ");
+        if (ym == null) return;
+        AttendanceSummaryService.MonthlySummary s = attendanceSummaryService.findForUser(session.id, ym);
+        io.println("【月次集計 " + ym + "】");
+        if (s == null) {
+            io.println("集計がありません。");
+        } else {
+            io.println(formatMonthlySummary(s));
+        }
+        io.pause();
+    }
+    private void showMonthlySummaryAll() {
+        io.blank();
+        YearMonth ym = readYearMonth("対象月(yyyy-mm / Enterで今月): ");
+        if (ym == null) return;
+        List<AttendanceSummaryService.MonthlySummary> rows = attendanceSummaryService.listMonth(ym);
+        io.println("【月次集計（全員） " + ym + "】");
+        if (rows.isEmpty()) io.println("集計がありません。");
+        for (AttendanceSummaryService.MonthlySummary s : rows) {
+            io.println(s.username() + "(" + (s.displayName() == null ? "-" : s.displayName()) + ") / " + formatMonthlySummary(s));
+        }
+        io.pause();
+    }
+    private void rebuildMonthlySummaryMenu() {
+        io.blank();
+        io.println("【月次集計の再構築】attendance_records から作り直します");
+        io.println("1) 月を指定");
+        io.println("2) 全期間");
+        io.println("0) 戻る");
+        int sel = io.readIntInRange("選択: ", 0, 2, 0);
+        if (sel == 0) return;
+        int rows;
+        if (sel == 1) {
+            YearMonth from = readYearMonth("開始月(yyyy-mm / Enterで今月): ");
+            if (from == null) return;
+            YearMonth to = readYearMonth("終了月(yyyy-mm / Enterで今月): ");
+            if (to == null) return;
+            if (to.isBefore(from)) {
+                io.println("終了月が開始月より前です。");
                 io.pause();
                 return;
             }
-            Timestamp clockOut = jdbc.queryForObject(
-                    "SELECT clock_out FROM attendance_records WHERE user_id=? AND work_date=?",
-                    Timestamp.class, session.id, Date.valueOf(today)
-            );
-            if (clockOut != null) {
-                io.println("すでに退勤済みです: " + clockOut);
-                io.pause();
-                return;
+            rows = attendanceSummaryService.rebuild(from, to);
+            audit("REBUILD_ATTENDANCE_SUMMARY", "attendance_monthly_summary", from + "~" + to, "rows=" + rows);
+        } else {
+            rows = attendanceSummaryService.rebuildAll();
+            audit("REBUILD_ATTENDANCE_SUMMARY", "attendance_monthly_summary", "ALL", "rows=" + rows);
+        }
+        io.println("再構築しました: " + rows + "行");
+        io.pause();
+    }
+    private String formatMonthlySummary(AttendanceSummaryService.MonthlySummary s) {
+        return String.format("勤務:%d時間%02d分 / 出勤日数:%d / 遅刻:%d / 早退:%d / 未退勤:%d",
+                s.workedMinutes() / 60, Math.abs(s.workedMinutes() % 60),
+                s.daysPresent(), s.lateCount(), s.earlyLeaveCount(), s.missingClockOut());
+    }
+    private YearMonth readYearMonth(String prompt) {
+        while (true) {
+            String s = io.readLine(prompt);
+            if (s == null) return null;
+            if (s.isBlank()) return YearMonth.now();
+            try {
+                return YearMonth.parse(s.trim());
+            } catch (Exception e) {
+                io.println("年月の形式が不正です。例: 2025-12");
             }
-            jdbc.update(
-                    "UPDATE attendance_records SET clock_out=?, updated_at=? WHERE user_id=? AND work_date=?",
-                    now, now, session.id, Date.valueOf(today)
-            );
-            audit("CLOCK_OUT", "attendance_records", session.id + ":" + today, null);
-            io.println("退勤しました: " + now);
+        }
+    }
+    private void importPunchFileMenu() {
+        io.blank();
+        io.println("【打刻ファイル取込】形式: username,timestamp,IN|OUT[,work_date]");
+        String path = io.readLine("CSVファイルのパス（Enterで戻る）: ");
+        if (path == null || path.isBlank()) return;
+        Path file = Path.of(path.trim());
+        if (!Files.isRegularFile(file)) {
+            io.println("ファイルが見つかりません: " + file);
             io.pause();
-        } catch (EmptyResultDataAccessException e) {
-            io.println("今日の勤怠がありません（先に出勤してください）。");
+            return;
+        }
+        String cs = io.readLine("文字コード（Enterで UTF-8 / 例: MS932）: ");
+        Charset charset;
+        try {
+            charset = (cs == null || cs.isBlank()) ? StandardCharsets.UTF_8 : Charset.forName(cs.trim());
+        } catch (Exception e) {
+            io.println("文字コードが不正です: " + cs);
             io.pause();
+            return;
         }
+        int chunk = io.readIntInRange("チャンク件数（Enterで " + punchImportService.getDefaultChunkSize() + "）: ",
+                1, 1_000_000, punchImportService.getDefaultChunkSize());
+        try {
+            PunchImportService.ImportResult r = punchImportService.importFile(session.actor(), file, charset, chunk);
+            io.println("取込完了: 行=" + r.lines()
+                    + " / 打刻=" + r.punches()
+                    + " / 反映(日単位)=" + r.upserted()
+                    + " / 形式不正=" + r.malformed()
+                    + " / ユーザー不明=" + r.unknownUser());
+            io.println(String.format("所要: %dms（%.0f 行/秒）", r.elapsedMs(), r.rowsPerSecond()));
+        } catch (Exception e) {
+            io.println("取込に失敗しました: " + e.getMessage());
+        }
+        io.pause();
     }
     private void showRecentAttendance() {
         io.blank();
@@ -377,6 +595,7 @@ public class EmsConsoleCli {
                     username, displayName, hash, role, true, now, now
             );
             Long newId = jdbc.queryForObject("SELECT id FROM users WHERE username=?", Long.class, username);
+            userDirectory.invalidate(newId);
             audit("CREATE_USER", "users", String.valueOf(newId), "username=" + username + ", role=" + role);
             io.blank();
             io.println("----- 結果 -----");
@@ -395,6 +614,9 @@ public class EmsConsoleCli {
     private void listUsersMenu() {
     io.blank();
     io.println("【職員一覧】");
+    UserDirectory.Stats cache = userDirectory.stats();
+    io.println("ユーザーキャッシュ: ヒット=" + cache.hits() + " / ミス=" + cache.misses()
+            + " / 追い出し=" + cache.evictions() + " / 無効化=" + cache.invalidations() + " / 件数=" + cache.size());
     List<Map<String, Object>> rows =
             jdbc.queryForList("SELECT id, username, role, enabled FROM users ORDER BY id");
     for (Map<String, Object> row : rows) {
@@ -425,6 +647,7 @@ public class EmsConsoleCli {
         try { id = Long.parseLong(s.trim()); } catch (Exception e) { io.println("数字で入力してください"); io.pause(); return; }
         Timestamp now = Timestamp.valueOf(LocalDateTime.now());
         int updated = jdbc.update("UPDATE users SET enabled=?, updated_at=? WHERE id=?", false, now, id);
+        userDirectory.invalidate(id);
         if (updated == 0) {
             io.println("対象ユーザーが見つかりません。");
         } else {
@@ -444,8 +667,9 @@ public class EmsConsoleCli {
             io.pause();
             return;
         }
-        if (!isDeletableUser(id)) {
+        if (userReferenceService.isReferenced(id)) {
             io.println("削除不可: 勤怠/申請/メッセージ/メンタル/監査などの履歴が存在します。");
+            io.println("参照している表: " + String.join(", ", userReferenceService.referencingTables(id)));
             io.pause();
             return;
         }
@@ -453,6 +677,7 @@ public class EmsConsoleCli {
         int ok = io.readIntInRange("選択: ", 0, 1, 0);
         if (ok == 0) return;
         int deleted = jdbc.update("DELETE FROM users WHERE id=?", id);
+        userDirectory.invalidate(id);
         if (deleted == 0) {
             io.println("対象ユーザーが見つかりません。");
         } else {
@@ -461,40 +686,6 @@ public class EmsConsoleCli {
         }
         io.pause();
     }
-    private boolean isDeletableUser(long userId) {
-    String[] sqls = new String[] {
-            "SELECT COUNT(*) FROM attendance_records WHERE user_id=?",
-            "SELECT COUNT(*) FROM application_requests WHERE requester_id=? OR decided_by_id=?",
-            "SELECT COUNT(*) FROM messages WHERE sender_id=? OR receiver_id=?",
-            "SELECT COUNT(*) FROM mental_checkins WHERE user_id=?",
-            "SELECT COUNT(*) FROM audit_logs WHERE actor_id=?",
-            "SELECT COUNT(*) FROM password_reset_request WHERE target_user_id=? OR requested_by_id=? OR decided_by_id=?"
-    };
-    for (String q : sqls) {
-        int placeholders = countPlaceholders(q);
-        Object[] args;
-        if (placeholders == 1) {
-            args = new Object[] { userId };
-        } else if (placeholders == 2) {
-            args = new Object[] { userId, userId };
-        } else if (placeholders == 3) {
-            args = new Object[] { userId, userId, userId };
-        } else {
-            throw new IllegalStateException("想定外のプレースホルダ数(" + placeholders + "): " + q);
-        }
-        Integer c = jdbc.queryForObject(q, Integer.class, args);
-        int count = (c == null) ? 0 : c;
-        if (count > 0) return false; 
-    }
-    return true; 
-}
-private int countPlaceholders(String sql) {
-    int n = 0;
-    for (int i = 0; i < sql.length(); i++) {
-        if (sql.charAt(i) == '?') n++;
-    }
-    return n;
-}
     private void createRequestMenu(boolean isAdmin) {
     io.blank();
     io.println("=== 【申請（" + (isAdmin ? "管理者" : "従業員") + "）】 ===");
@@ -519,14 +710,58 @@ private int countPlaceholders(String sql) {
     Integer overtime = null;
     String requestedShift = null;
     String reason = null;
+    LeaveLedgerService.Category leaveCategory = null;
     if (sel == 1) {
         type = "LEAVE";
-        String leaveLabel = selectLeaveCategoryLabel();
-        if (leaveLabel == null) return; 
+        leaveCategory = selectLeaveCategory();
+        if (leaveCategory == null) return; 
+        int balance = 0;
+        if (leaveCategory == LeaveLedgerService.Category.PAID) {
+            balance = leaveLedgerService.balance(session.id);
+            io.println("有給の残日数: " + balance + "日");
+        }
         startDate = readSqlDate("開始日(yyyy-mm-dd): ");
         endDate = readSqlDate("終了日(yyyy-mm-dd): ");
+        if (endDate.before(startDate)) {
+            io.println("終了日が開始日より前です。");
+            io.pause();
+            return;
+        }
+        List<LeaveScheduleService.Overlap> overlaps =
+                leaveScheduleService.overlaps(session.id, startDate.toLocalDate(), endDate.toLocalDate());
+        if (!overlaps.isEmpty()) {
+            io.println("期間が重なる休暇申請があります:");
+            for (LeaveScheduleService.Overlap o : overlaps) {
+                io.println("  ID:" + o.id() + " / " + o.startDate() + " ~ " + o.endDate() + " / " + labelRequestStatus(o.status()));
+            }
+            io.pause();
+            return;
+        }
+        if (leaveCategory == LeaveLedgerService.Category.PAID) {
+            int days = LeaveLedgerService.leaveDays(startDate.toLocalDate(), endDate.toLocalDate());
+            if (days > balance) {
+                io.println("有給の残日数が足りません（残 " + balance + "日 / 申請 " + days + "日）。");
+                io.pause();
+                return;
+            }
+        }
         String userReason = io.readLine("理由（任意）: ");
-        reason = buildLeaveReason(leaveLabel, userReason);
+        reason = buildLeaveReason(leaveCategory.label(), userReason);
+        // 入力中に別セッションで重なる申請が作られることがあるので、作成時にロックしてもう一度確かめる
+        LeaveScheduleService.Created created = leaveScheduleService.createLeave(
+                session.id, startDate.toLocalDate(), endDate.toLocalDate(), leaveCategory.name(), reason);
+        if (created.id() == null) {
+            io.println("期間が重なる休暇申請があります:");
+            for (LeaveScheduleService.Overlap o : created.overlaps()) {
+                io.println("  ID:" + o.id() + " / " + o.startDate() + " ~ " + o.endDate() + " / " + labelRequestStatus(o.status()));
+            }
+            io.pause();
+            return;
+        }
+        audit("CREATE_REQUEST", "application_requests", String.valueOf(created.id()), "type=" + type);
+        io.println("申請を作成しました（未処理）。");
+        io.pause();
+        return;
     } else if (sel == 2) {
         type = "OVERTIME";
         targetDate = readSqlDate("対象日(yyyy-mm-dd): ");
@@ -543,17 +778,18 @@ private int countPlaceholders(String sql) {
     }
     Timestamp now = Timestamp.valueOf(LocalDateTime.now());
     jdbc.update(
-            "INSERT INTO application_requests (type, requester_id, status, start_date, end_date, target_date, overtime_minutes, requested_shift, reason, created_at, updated_at) " +
-                    "VALUES (?,?,?,?,?,?,?,?,?,?,?)",
+            "INSERT INTO application_requests (type, requester_id, status, start_date, end_date, target_date, overtime_minutes, requested_shift, reason, leave_category, created_at, updated_at) " +
+                    "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)",
             type, session.id, "PENDING",
             startDate, endDate, targetDate, overtime, requestedShift, reason,
+            leaveCategory == null ? null : leaveCategory.name(),
             now, now
     );
     audit("CREATE_REQUEST", "application_requests", null, "type=" + type);
     io.println("申請を作成しました（未処理）。");
     io.pause();
 }
-private String selectLeaveCategoryLabel() {
+private LeaveLedgerService.Category selectLeaveCategory() {
     io.blank();
     io.println("休暇種別を選択してください:");
     io.println("1) 有給休暇");
@@ -564,10 +800,10 @@ private String selectLeaveCategoryLabel() {
     int sel = io.readIntInRange("選択: ", 0, 4, 0);
     if (sel == 0) return null;
     return switch (sel) {
-        case 1 -> "有給休暇";
-        case 2 -> "特別休暇:忌引き";
-        case 3 -> "特別休暇:結婚";
-        case 4 -> "特別休暇:その他";
+        case 1 -> LeaveLedgerService.Category.PAID;
+        case 2 -> LeaveLedgerService.Category.SPECIAL_BEREAVEMENT;
+        case 3 -> LeaveLedgerService.Category.SPECIAL_MARRIAGE;
+        case 4 -> LeaveLedgerService.Category.SPECIAL_OTHER;
         default -> null;
     };
 }
@@ -589,14 +825,24 @@ private String normalizeBlankToNull(String s) {
             io.println("2) 詳細（依頼ID指定）");
             io.println("3) 承認（依頼ID指定）");
             io.println("4) 却下（依頼ID指定）");
+            io.println("5) まとめて承認/却下（ID一覧/条件）");
+            io.println("6) 有給の付与");
+            io.println("7) 有給の残日数・台帳（ユーザー指定）");
+            io.println("8) 有給の失効処理");
+            io.println("9) 休暇中の人（日付/期間）");
             io.println("0) 戻る");
-            int sel = io.readIntInRange("選択: ", 0, 4, 0);
+            int sel = io.readIntInRange("選択: ", 0, 9, 0);
             if (sel == 0) return;
             switch (sel) {
                 case 1 -> listPendingRequests();
                 case 2 -> showRequestDetail();
                 case 3 -> decideRequest(true);
                 case 4 -> decideRequest(false);
+                case 5 -> decideRequestsBatch();
+                case 6 -> grantPaidLeaveMenu();
+                case 7 -> showLeaveLedgerMenu();
+                case 8 -> expirePaidLeaveMenu();
+                case 9 -> whosOffMenu();
                 default -> {}
             }
         }
@@ -684,116 +930,264 @@ private String normalizeBlankToNull(String s) {
     }
     String note = io.readLine("コメント（任意）: ");
     if (note != null && note.isBlank()) note = null;
-    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
-    int updated = jdbc.update(
-            "UPDATE application_requests " +
-                    "SET status=?, decided_by_id=?, decided_at=?, decision_note=?, updated_at=? " +
-                    "WHERE id=? AND status='PENDING' AND requester_id<>?",
-            approve ? "APPROVED" : "REJECTED",
-            session.id, now, note, now,
-            id, session.id
-    );
-    if (updated == 0) {
-        io.println("更新できません（自分の申請 / すでに処理済み / IDが違う可能性）。");
+    // 有給の消化と同じトランザクションで更新する
+    RequestDecisionService.BatchResult result = requestDecisionService.decideIds(session.id, List.of(id), approve, note);
+    if (result.decided().isEmpty()) {
+        RequestDecisionService.SkipReason reason = result.skipped().isEmpty() ? null : result.skipped().get(0).reason();
+        if (reason == RequestDecisionService.SkipReason.INSUFFICIENT_LEAVE) {
+            io.println("承認できません（申請者の有給の残日数が足りません / 残 " + leaveLedgerService.balance(req.requesterId) + "日）。");
+        } else if (reason == RequestDecisionService.SkipReason.OVERLAP) {
+            io.println("承認できません（申請者の承認済みの休暇と期間が重なります）。");
+        } else {
+            io.println("更新できません（自分の申請 / すでに処理済み / IDが違う可能性）。");
+        }
     } else {
         audit(approve ? "APPROVE_REQUEST" : "REJECT_REQUEST", "application_requests", String.valueOf(id), note);
         io.println(approve ? "承認しました。" : "却下しました。");
     }
     io.pause();
 }
-private void showMyRequests() {
+/**
+ * まとめて決裁。UPDATE 1回・監査1件で、自分の申請は単票と同じく対象外。
+ */
+private void decideRequestsBatch() {
     io.blank();
-    io.println("=== 【自分の申請状況】 ===");
-    Integer pending = jdbc.queryForObject(
-            "SELECT COUNT(*) FROM application_requests WHERE requester_id=? AND status='PENDING'",
-            Integer.class, session.id
-    );
-    Integer approved = jdbc.queryForObject(
-            "SELECT COUNT(*) FROM application_requests WHERE requester_id=? AND status='APPROVED'",
-            Integer.class, session.id
-    );
-    Integer rejected = jdbc.queryForObject(
-            "SELECT COUNT(*) FROM application_requests WHERE requester_id=? AND status='REJECTED'",
-            Integer.class, session.id
-    );
-    io.println("未処理: " + (pending == null ? 0 : pending)
-            + " / 承認: " + (approved == null ? 0 : approved)
-            + " / 却下: " + (rejected == null ? 0 : rejected));
-    io.println("");
-    record MyReqRow(
-            long id,
-            String type,
-            String status,
-            java.sql.Date startDate,
-            java.sql.Date endDate,
-            java.sql.Date targetDate,
-            Integer overtimeMinutes,
-            String requestedShift,
-            String reason,
-            java.sql.Timestamp createdAt,
-            Long decidedById,
-            java.sql.Timestamp decidedAt,
-            String decisionNote
-    ) {}
-    final String sql =
-            "SELECT id, type, status, start_date, end_date, target_date, overtime_minutes, requested_shift, reason, created_at, " +
-            "       decided_by_id, decided_at, decision_note " +
-            "FROM application_requests " +
-            "WHERE requester_id=? " +
-            "ORDER BY created_at DESC, id DESC";
-    java.util.List<MyReqRow> rows = jdbc.query(
-            sql,
-            (rs, rowNum) -> {
-                long tmp = rs.getLong("decided_by_id");
-                Long decidedById = rs.wasNull() ? null : tmp;
-                Integer overtimeMinutes = (Integer) rs.getObject("overtime_minutes");
-                return new MyReqRow(
-                        rs.getLong("id"),
-                        rs.getString("type"),
-                        rs.getString("status"),
-                        rs.getDate("start_date"),
-                        rs.getDate("end_date"),
-                        rs.getDate("target_date"),
-                        overtimeMinutes,
-                        rs.getString("requested_shift"),
-                        rs.getString("reason"),
-                        rs.getTimestamp("created_at"),
-                        decidedById,
-                        rs.getTimestamp("decided_at"),
-                        rs.getString("decision_note")
-                );
-            },
-            session.id
-    );
-    if (rows.isEmpty()) {
-        io.println("申請はありません。");
+    io.println("【まとめて承認/却下】");
+    io.println("1) ID一覧（カンマ区切り）");
+    io.println("2) 条件（種別/申請者/対象日）");
+    io.println("0) 戻る");
+    int mode = io.readIntInRange("選択: ", 0, 2, 0);
+    if (mode == 0) return;
+    List<Long> ids = null;
+    RequestDecisionService.Filter filter = null;
+    if (mode == 1) {
+        ids = new ArrayList<>();
+        try {
+            for (String part : io.readNonEmpty("依頼ID（例: 12,15,20）: ").split("[,\\s]+")) {
+                if (!part.isBlank()) ids.add(Long.parseLong(part.trim()));
+            }
+        } catch (NumberFormatException e) {
+            io.println("IDは数字で入力してください。");
+            io.pause();
+            return;
+        }
+        if (ids.isEmpty()) return;
+    } else {
+        io.println("種別: 1) 休暇 / 2) 残業 / 3) シフト変更 / 0) すべて");
+        int t = io.readIntInRange("選択: ", 0, 3, 0);
+        String type = switch (t) {
+            case 1 -> "LEAVE";
+            case 2 -> "OVERTIME";
+            case 3 -> "SHIFT_CHANGE";
+            default -> null;
+        };
+        Long requesterId = null;
+        String requester = io.readLine("申請者ユーザー名（Enterですべて）: ");
+        if (requester != null && !requester.isBlank()) {
+            DbUser u = findUserByUsername(requester.trim());
+            if (u == null) {
+                io.println("ユーザーが見つかりません。");
+                io.pause();
+                return;
+            }
+            requesterId = u.id;
+        }
+        LocalDate from = readOptionalDate("対象日の開始(yyyy-mm-dd / Enterで指定なし): ");
+        LocalDate to = readOptionalDate("対象日の終了(yyyy-mm-dd / この日を含む): ");
+        filter = new RequestDecisionService.Filter(type, requesterId, from, to);
+        RequestDecisionService.Preview preview = requestDecisionService.preview(session.id, filter);
+        io.println("対象: " + preview.matching() + "件" + (preview.own() > 0 ? "（自分の申請 " + preview.own() + "件は対象外）" : ""));
+        if (preview.matching() == 0) {
+            io.pause();
+            return;
+        }
+    }
+    io.println("1) 承認 / 2) 却下 / 0) 戻る");
+    int decision = io.readIntInRange("選択: ", 0, 2, 0);
+    if (decision == 0) return;
+    boolean approve = decision == 1;
+    String note = normalizeBlankToNull(io.readLine("コメント（任意・全件共通）: "));
+    io.println((approve ? "承認" : "却下") + "しますか？ 1) はい / 0) いいえ");
+    if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+    RequestDecisionService.BatchResult r = (ids != null)
+            ? requestDecisionService.decideIds(session.id, ids, approve, note)
+            : requestDecisionService.decideFilter(session.id, filter, approve, note);
+    io.println((approve ? "承認" : "却下") + ": " + r.decided().size() + "件 / 対象外: " + r.skipped().size() + "件（" + r.elapsedMs() + "ms）");
+    for (RequestDecisionService.Skipped sk : r.skipped()) {
+        String why = switch (sk.reason()) {
+            case NOT_FOUND -> "存在しません";
+            case OWN_REQUEST -> "自分の申請";
+            case NOT_PENDING -> "未処理ではありません（現在: " + sk.status() + "）";
+            case OVERLAP -> "承認済みの休暇と期間が重なります（未処理のまま）";
+            case INSUFFICIENT_LEAVE -> "有給の残日数が足りません（未処理のまま）";
+        };
+        io.println("  ID:" + sk.id() + " " + why);
+    }
+    if (!r.decided().isEmpty()) {
+        String selection = (ids != null) ? "ids=" + ids.size() : filter.describe();
+        audit(approve ? "APPROVE_REQUESTS" : "REJECT_REQUESTS", "application_requests", null,
+                abbreviate(selection + ", decided=" + r.decided().size() + ", skipped=" + r.skipped().size()
+                        + (note == null ? "" : ", note=" + note) + ", ids=" + joinIds(r.decided()), 2000));
+    }
+    io.pause();
+}
+private void grantPaidLeaveMenu() {
+    io.blank();
+    io.println("【有給の付与】");
+    io.println("1) ユーザー指定");
+    io.println("2) 有効な全員（導入時の初期残日数・年次付与）");
+    io.println("0) 戻る");
+    int target = io.readIntInRange("選択: ", 0, 2, 0);
+    if (target == 0) return;
+    if (target == 2) {
+        grantPaidLeaveToAll();
+        return;
+    }
+    DbUser u = findUserByUsername(io.readNonEmpty("ユーザー名: "));
+    if (u == null) {
+        io.println("ユーザーが見つかりません。");
         io.pause();
         return;
     }
-    for (MyReqRow r : rows) {
-        io.println("----------------------------------------");
-        io.println("ID: " + r.id());
-        io.println("種別: " + labelRequestType(r.type()));
-        io.println("対象/期間: " + formatRequestTarget(
-                r.type(), r.startDate(), r.endDate(), r.targetDate(), r.overtimeMinutes(), r.requestedShift()
-        ));
-        io.println("状況: " + labelRequestStatus(r.status()));
-        if (r.reason() != null && !r.reason().isBlank()) {
-            io.println("理由: " + r.reason());
-        }
-        if (r.createdAt() != null) {
-            io.println("申請日: " + r.createdAt());
-        }
-        if (r.status() != null && !"PENDING".equals(r.status())) {
-            io.println("処理者ID: " + (r.decidedById() == null ? "-" : r.decidedById()));
-            io.println("処理日時: " + (r.decidedAt() == null ? "-" : r.decidedAt()));
-            if (r.decisionNote() != null && !r.decisionNote().isBlank()) {
-                io.println("コメント: " + r.decisionNote());
+    int days = io.readIntInRange("付与日数: ", 1, 40, 10);
+    LocalDate defaultExpiry = LocalDate.now().plusYears(2);
+    LocalDate expires = readOptionalDate("失効日(yyyy-mm-dd / Enterで " + defaultExpiry + "): ");
+    if (expires == null) expires = defaultExpiry;
+    String note = normalizeBlankToNull(io.readLine("メモ（任意）: "));
+    long ledgerId = leaveLedgerService.grant(u.id, days, expires, note, session.id);
+    audit("GRANT_PAID_LEAVE", "leave_ledger", String.valueOf(ledgerId),
+            "user=" + u.username + ", days=" + days + ", expires=" + expires);
+    io.println("付与しました。残日数: " + leaveLedgerService.balance(u.id) + "日");
+    io.pause();
+}
+private void grantPaidLeaveToAll() {
+    int days = io.readIntInRange("付与日数: ", 1, 40, 10);
+    LocalDate defaultExpiry = LocalDate.now().plusYears(2);
+    LocalDate expires = readOptionalDate("失効日(yyyy-mm-dd / Enterで " + defaultExpiry + "): ");
+    if (expires == null) expires = defaultExpiry;
+    String note = normalizeBlankToNull(io.readLine("メモ（任意）: "));
+    io.println("有効な全員に " + days + " 日付与します（失効日 " + expires + "）。よろしいですか？ 1) はい / 0) いいえ");
+    if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+    int users = leaveLedgerService.grantAll(days, expires, note, session.id);
+    audit("GRANT_PAID_LEAVE_ALL", "leave_ledger", null,
+            "users=" + users + ", days=" + days + ", expires=" + expires);
+    io.println(users + "人に付与しました。");
+    io.pause();
+}
+private void showLeaveLedgerMenu() {
+    io.blank();
+    DbUser u = findUserByUsername(io.readNonEmpty("ユーザー名: "));
+    if (u == null) {
+        io.println("ユーザーが見つかりません。");
+        io.pause();
+        return;
+    }
+    io.println("【有給台帳】" + u.username + " / 残日数: " + leaveLedgerService.balance(u.id) + "日（最新30件）");
+    for (LeaveLedgerService.Entry e : leaveLedgerService.entries(u.id, 30)) {
+        String kind = switch (e.kind()) {
+            case "GRANT" -> "付与";
+            case "CONSUME" -> "消化";
+            case "EXPIRE" -> "失効";
+            default -> e.kind();
+        };
+        io.println(Timestamp.valueOf(e.createdAt())
+                + " / " + kind + " " + (e.days() > 0 ? "+" : "") + e.days() + "日"
+                + (e.remaining() == null ? "" : " / 未使用 " + e.remaining() + "日")
+                + (e.expiresOn() == null ? "" : " / 失効日 " + e.expiresOn())
+                + (e.requestId() == null ? "" : " / 申請ID " + e.requestId())
+                + (e.note() == null ? "" : " / " + e.note()));
+    }
+    io.pause();
+}
+private void whosOffMenu() {
+    io.blank();
+    io.println("【休暇中の人】");
+    LocalDate from = readOptionalDate("日付/開始日(yyyy-mm-dd / Enterで今日): ");
+    if (from == null) from = LocalDate.now();
+    LocalDate to = readOptionalDate("終了日(yyyy-mm-dd / Enterで同じ日): ");
+    if (to == null || to.isBefore(from)) to = from;
+    io.println("未処理の申請も含めますか？ 1) はい / 0) いいえ");
+    boolean includePending = io.readIntInRange("選択: ", 0, 1, 0) == 1;
+    List<LeaveScheduleService.Absence> rows = leaveScheduleService.whosOff(from, to, includePending);
+    io.println(from + (to.equals(from) ? "" : " ~ " + to) + ": " + rows.size() + "件");
+    for (LeaveScheduleService.Absence a : rows) {
+        String category = a.category() == null ? "-" : LeaveLedgerService.Category.valueOf(a.category()).label();
+        io.println(a.username() + "(" + (a.displayName() == null ? "-" : a.displayName()) + ")"
+                + " / " + a.startDate() + " ~ " + a.endDate()
+                + " / " + category
+                + " / " + labelRequestStatus(a.status())
+                + " / 申請ID " + a.requestId());
+    }
+    io.pause();
+}
+private void expirePaidLeaveMenu() {
+    io.blank();
+    LeaveLedgerService.ExpireResult r = leaveLedgerService.expireDue(LocalDate.now());
+    if (r.grants() > 0) {
+        audit("EXPIRE_PAID_LEAVE", "leave_ledger", null, "grants=" + r.grants() + ", days=" + r.days());
+    }
+    io.println("失効: 付与 " + r.grants() + "件 / " + r.days() + "日");
+    io.pause();
+}
+private static String joinIds(List<Long> ids) {
+    StringBuilder sb = new StringBuilder();
+    for (Long id : ids) {
+        if (sb.length() > 0) sb.append(',');
+        sb.append(id);
+    }
+    return sb.toString();
+}
+private static String abbreviate(String s, int max) {
+    return s.length() <= max ? s : s.substring(0, max - 3) + "...";
+}
+private void showMyRequests() {
+    RequestHistoryService.Counts counts = requestHistoryService.counts(session.id);
+    RequestHistoryService.Cursor cursor = null;
+    int pageNo = 1;
+    while (true) {
+        RequestHistoryService.Page page = requestHistoryService.page(session.id, cursor, REQUEST_PAGE_SIZE);
+        io.blank();
+        io.println("=== 【自分の申請状況】 ===" + (pageNo > 1 ? "（" + pageNo + "ページ目）" : ""));
+        io.println("未処理: " + counts.pending()
+                + " / 承認: " + counts.approved()
+                + " / 却下: " + counts.rejected()
+                + " / 有給の残日数: " + leaveLedgerService.balance(session.id) + "日");
+        io.println("");
+        if (page.rows().isEmpty()) {
+            io.println("申請はありません。");
+            io.pause();
+            return;
+        }
+        for (RequestHistoryService.Row r : page.rows()) {
+            io.println("----------------------------------------");
+            io.println("ID: " + r.id());
+            io.println("種別: " + labelRequestType(r.type()));
+            io.println("対象/期間: " + formatRequestTarget(
+                    r.type(), r.startDate(), r.endDate(), r.targetDate(), r.overtimeMinutes(), r.requestedShift()
+            ));
+            io.println("状況: " + labelRequestStatus(r.status()));
+            if (r.reason() != null && !r.reason().isBlank()) {
+                io.println("理由: " + r.reason());
+            }
+            io.println("申請日: " + Timestamp.valueOf(r.createdAt()));
+            if (r.status() != null && !"PENDING".equals(r.status())) {
+                io.println("処理者ID: " + (r.decidedById() == null ? "-" : r.decidedById()));
+                io.println("処理日時: " + (r.decidedAt() == null ? "-" : Timestamp.valueOf(r.decidedAt())));
+                if (r.decisionNote() != null && !r.decisionNote().isBlank()) {
+                    io.println("コメント: " + r.decisionNote());
+                }
             }
         }
+        io.println("----------------------------------------");
+        if (page.next() == null) {
+            io.pause();
+            return;
+        }
+        io.println("1) 次ページ / 0) 戻る");
+        if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+        cursor = page.next();
+        pageNo++;
     }
-    io.println("----------------------------------------");
-    io.pause();
 }
 private String labelRequestType(String type) {
     if (type == null) return "-";
@@ -815,9 +1209,9 @@ private String labelRequestStatus(String status) {
 }
 private String formatRequestTarget(
         String type,
-        java.sql.Date startDate,
-        java.sql.Date endDate,
-        java.sql.Date targetDate,
+        LocalDate startDate,
+        LocalDate endDate,
+        LocalDate targetDate,
         Integer overtimeMinutes,
         String requestedShift
 ) {
@@ -834,7 +1228,7 @@ private String formatRequestTarget(
     }
     return "-";
 }
-private String safeDate(java.sql.Date d) {
+private String safeDate(LocalDate d) {
     return d == null ? "-" : d.toString();
 }
 private String safeText(String s) {
@@ -844,13 +1238,21 @@ private void messageMenu() {
     while (true) {
         io.blank();
         io.println("=== 【メッセージ】 ===");
-        io.println("1) 受信一覧");
+        io.println("1) 受信一覧（未読 " + messageService.unreadCount(session.id) + "件）");
         io.println("2) 送信一覧");
         io.println("3) 送信");
-        io.println("4) 既読にする（メッセージID指定）");
+        io.println("4) 既読にする（ID/一覧/範囲/送信者/すべて）");
+        io.println("5) 検索");
+        io.println("6) 会話（相手を指定）");
+        if (session.isAdmin()) {
+            io.println("7) 一斉送信（全員/役割/ファイル）");
+            io.println("8) 一斉送信の既読状況");
+            io.println("9) 検索インデックス再構築");
+            io.println("10) 古い既読メッセージの整理（保持 " + messageRetentionService.getRetentionDays() + "日）");
+        }
         io.println("0) 戻る");
 
-        int sel = io.readIntInRange("選択: ", 0, 4, 0);
+        int sel = io.readIntInRange("選択: ", 0, session.isAdmin() ? 10 : 6, 0);
         if (sel == 0) return;
 
         if (sel == 1) {
@@ -859,69 +1261,124 @@ private void messageMenu() {
             listSentMessagesMenu();
         } else if (sel == 3) {
             sendMessage();  
-        } else {
+        } else if (sel == 4) {
             markRead();     
+        } else if (sel == 5) {
+            searchMessagesMenu();
+        } else if (sel == 6) {
+            conversationMenu();
+        } else if (sel == 7) {
+            broadcastMessageMenu();
+        } else if (sel == 8) {
+            showBroadcastReceipts();
+        } else if (sel == 9) {
+            rebuildMessageSearchMenu();
+        } else {
+            messageRetentionMenu();
         }
     }
 }
 private void listSentMessagesMenu() {
+    MessageService.Cursor cursor = null;
+    int pageNo = 1;
+    while (true) {
+        MessageService.Page<MessageService.SentRow> page = messageService.sent(session.id, cursor, INBOX_PAGE_SIZE);
+        io.blank();
+        io.println("【送信一覧】" + pageNo + "ページ目");
+        if (page.rows().isEmpty()) io.println("送信したメッセージはありません。");
+        for (MessageService.SentRow r : page.rows()) {
+            String to = r.receiverUsername() == null
+                    ? "(id=" + r.receiverId() + ")"
+                    : r.receiverUsername() + "(" + (r.receiverDisplayName() == null ? "-" : r.receiverDisplayName()) + ")";
+            String read = (r.readAt() == null) ? "未読" : ("既読@" + Timestamp.valueOf(r.readAt()));
+            io.println("----------------------------------");
+            io.println("ID:" + r.id()
+                    + " / " + read
+                    + " / To:" + to
+                    + " / At:" + Timestamp.valueOf(r.sentAt()));
+            io.println(r.body());
+        }
+        io.println("----------------------------------");
+        if (page.next() == null) {
+            io.pause();
+            return;
+        }
+        io.println("1) 次ページ / 0) 戻る");
+        if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+        cursor = page.next();
+        pageNo++;
+    }
+}
+/**
+ * 相手1人とのやりとりを新しい順に表示する。
+ */
+private void conversationMenu() {
     io.blank();
-    io.println("【送信一覧】");
-    List<String> rows = jdbc.query(
-            "SELECT m.id, ru.username AS receiver, ru.display_name AS receiver_display, " +
-                    "m.body, m.sent_at, m.read_at, m.receiver_id " +
-                    "FROM messages m LEFT JOIN users ru ON m.receiver_id=ru.id " +
-                    "WHERE m.sender_id=? " +
-                    "ORDER BY m.sent_at DESC LIMIT 50",
-            (rs, rn) -> {
-                String receiverUsername = rs.getString("receiver");
-                String receiverDisplay  = rs.getString("receiver_display");
-                long receiverId = rs.getLong("receiver_id");
-                String to;
-                if (receiverUsername == null) {
-                    to = "(id=" + receiverId + ")";
-                } else {
-                    to = receiverUsername + "(" + (receiverDisplay == null ? "-" : receiverDisplay) + ")";
-                }
-                Timestamp readAt = rs.getTimestamp("read_at");
-                String read = (readAt == null) ? "未読" : ("既読@" + readAt);
-                return "ID:" + rs.getLong("id")
-                        + " / " + read
-                        + " / To:" + to
-                        + " / At:" + rs.getTimestamp("sent_at")
-                        + "\n" + rs.getString("body");
-            },
-            session.id
-    );
-    if (rows.isEmpty()) io.println("送信したメッセージはありません。");
-    for (String r : rows) {
+    DbUser other = findUserByUsername(io.readNonEmpty("相手のユーザー名: "));
+    if (other == null) {
+        io.println("ユーザーが見つかりません。");
+        io.pause();
+        return;
+    }
+    MessageService.Cursor cursor = null;
+    int pageNo = 1;
+    while (true) {
+        MessageService.Page<MessageService.ThreadRow> page = messageService.thread(session.id, other.id, cursor, INBOX_PAGE_SIZE);
+        io.blank();
+        io.println("【会話】" + other.username + "(" + (other.displayName == null ? "-" : other.displayName) + ") " + pageNo + "ページ目");
+        if (page.rows().isEmpty()) io.println("やりとりはありません。");
+        for (MessageService.ThreadRow r : page.rows()) {
+            io.println("----------------------------------");
+            io.println("ID:" + r.id()
+                    + " / " + (r.mine() ? "自分 → " + other.username : other.username + " → 自分")
+                    + " / " + (r.readAt() == null ? "未読" : "既読")
+                    + " / At:" + Timestamp.valueOf(r.sentAt()));
+            io.println(r.body());
+        }
         io.println("----------------------------------");
-        io.println(r);
+        if (page.next() == null) {
+            io.pause();
+            return;
+        }
+        io.println("1) 次ページ / 0) 戻る");
+        if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+        cursor = page.next();
+        pageNo++;
     }
-    io.pause();
 }
     private void inbox() {
-        io.blank();
-        List<String> rows = jdbc.query(
-                "SELECT m.id, su.username AS sender, su.display_name AS sender_display, m.body, m.sent_at, m.read_at " +
-                        "FROM messages m JOIN users su ON m.sender_id=su.id WHERE m.receiver_id=? ORDER BY m.sent_at DESC LIMIT 50",
-                (rs, rn) -> {
-                    String from = rs.getString("sender") + "(" + (rs.getString("sender_display") == null ? "-" : rs.getString("sender_display")) + ")";
-                    String read = (rs.getTimestamp("read_at") == null) ? "未読" : "既読";
-                    return "ID:" + rs.getLong("id")
-                            + " / " + read
-                            + " / From:" + from
-                            + " / At:" + rs.getTimestamp("sent_at")
-                            + "\n" + rs.getString("body");
-                },
-                session.id
-        );
-        if (rows.isEmpty()) io.println("受信はありません。");
-        for (String r : rows) {
+        boolean unreadOnly = false;
+        MessageService.Cursor cursor = null;
+        int pageNo = 1;
+        while (true) {
+            MessageService.Page<MessageService.InboxRow> page = messageService.inbox(session.id, unreadOnly, cursor, INBOX_PAGE_SIZE);
+            io.blank();
+            io.println("【受信一覧】" + (unreadOnly ? "未読のみ / " : "") + pageNo + "ページ目（未読 "
+                    + messageService.unreadCount(session.id) + "件）");
+            if (page.rows().isEmpty()) io.println(unreadOnly ? "未読はありません。" : "受信はありません。");
+            for (MessageService.InboxRow r : page.rows()) {
+                io.println("----------------------------------");
+                io.println("ID:" + r.id()
+                        + " / " + (r.readAt() == null ? "未読" : "既読")
+                        + " / From:" + r.senderUsername() + "(" + (r.senderDisplayName() == null ? "-" : r.senderDisplayName()) + ")"
+                        + " / At:" + Timestamp.valueOf(r.sentAt()));
+                io.println(r.body());
+            }
             io.println("----------------------------------");
-            io.println(r);
+            if (page.next() != null) io.println("1) 次ページ");
+            io.println("2) " + (unreadOnly ? "すべて表示" : "未読のみ表示"));
+            io.println("0) 戻る");
+            int sel = io.readIntInRange("選択: ", 0, 2, 0);
+            if (sel == 0) return;
+            if (sel == 1 && page.next() != null) {
+                cursor = page.next();
+                pageNo++;
+            } else if (sel == 2) {
+                unreadOnly = !unreadOnly;
+                cursor = null;
+                pageNo = 1;
+            }
         }
-        io.pause();
     }
     private void sendMessage() {
     io.blank();
@@ -936,31 +1393,176 @@ private void listSentMessagesMenu() {
     if (!requireMyPasswordFor("メッセージ送信")) {
         return;
     }
-    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
-    jdbc.update(
-            "INSERT INTO messages (sender_id, receiver_id, body, sent_at, read_at) VALUES (?,?,?,?,?)",
-            session.id, target.id, body, now, null
-    );
-    audit("SEND_MESSAGE", "messages", null, "to=" + target.username);
+    long messageId = messageService.send(session.id, target.id, body);
+    audit("SEND_MESSAGE", "messages", String.valueOf(messageId), "to=" + target.username);
     io.println("送信しました。");
     io.pause();
 }
+private void searchMessagesMenu() {
+    io.blank();
+    io.println("【メッセージ検索】（送受信したメッセージから。空白区切りはすべて含むもの）");
+    if (messageSearchService.needsRebuild()) {
+        io.println("※検索インデックスが未作成です。管理者に再構築を依頼してください。");
+    }
+    String q = io.readLine("検索語（Enterで戻る）: ");
+    if (q == null || q.isBlank()) return;
+    MessageSearchService.Result r = messageSearchService.search(session.id, q, 50);
+    if (r.hits().isEmpty()) {
+        io.println("見つかりません。");
+    }
+    for (MessageSearchService.Hit h : r.hits()) {
+        String who = h.sent()
+                ? "To:" + (h.receiverUsername() == null ? "-" : h.receiverUsername())
+                : "From:" + (h.senderUsername() == null ? "-" : h.senderUsername());
+        io.println("ID:" + h.id()
+                + " / " + (h.readAt() == null ? "未読" : "既読")
+                + " / " + who
+                + " / At:" + Timestamp.valueOf(h.sentAt())
+                + "\n" + h.body());
+        io.println("----------------------------------");
+    }
+    io.println(r.hits().size() + "件（候補 " + r.candidates() + "件 / " + r.elapsedMs() + "ms"
+            + (r.indexed() ? "" : " / 1文字の語は直近のメッセージのみ") + "）");
+    io.pause();
+}
+private void rebuildMessageSearchMenu() {
+    io.blank();
+    io.println("検索インデックスを作り直しますか？ 1) はい / 0) いいえ");
+    if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+    MessageSearchService.RebuildResult r = messageSearchService.rebuild();
+    audit("REBUILD_MESSAGE_SEARCH", "message_terms", null, "messages=" + r.messages() + ", terms=" + r.terms());
+    io.println("再構築しました: メッセージ=" + r.messages() + " / 索引行=" + r.terms() + "（" + r.elapsedMs() + "ms）");
+    io.pause();
+}
+/**
+ * 整理はバックグラウンドで進む。この画面は開始と進捗の確認だけ。
+ */
+private void messageRetentionMenu() {
+    while (true) {
+        MessageRetentionService.Progress p = messageRetentionService.progress();
+        io.blank();
+        io.println("【古い既読メッセージの整理】保持 " + messageRetentionService.getRetentionDays() + "日（未読は残します）");
+        io.println("状態: " + p.phase() + (p.running() ? "（実行中）" : "")
+                + " / 退避=" + p.archived() + " / 削除=" + p.deleted() + " / ファイル=" + p.files()
+                + " / " + p.bytesWritten() + "bytes / 一斉送信の削除=" + p.broadcastsDeleted() + " / " + p.elapsedMs() + "ms");
+        if (!p.running() && p.fileBytesAfter() >= 0) {
+            io.println("DBファイル: " + p.fileBytesBefore() + " → " + p.fileBytesAfter() + "bytes（差 " + p.reclaimedBytes() + "bytes）");
+            io.println("※空いた領域は再利用されます。ファイル自体は全接続が閉じたときの H2 の圧縮で小さくなります。");
+        }
+        if (p.error() != null) io.println("エラー: " + p.error());
+        io.println("1) 実行 / 2) 状況を更新 / 0) 戻る");
+        int sel = io.readIntInRange("選択: ", 0, 2, 0);
+        if (sel == 0) return;
+        if (sel == 1) {
+            if (messageRetentionService.start()) {
+                audit("MESSAGE_RETENTION", "messages", null, "retentionDays=" + messageRetentionService.getRetentionDays());
+                io.println("開始しました。");
+            } else {
+                io.println("すでに実行中です。");
+            }
+        }
+    }
+}
+/**
+ * 一斉送信は宛先の人数にかかわらず本人確認1回・監査1件。個別の messages には broadcast_id が付く。
+ */
+private void broadcastMessageMenu() {
+    io.blank();
+    io.println("【一斉送信】");
+    io.println("1) 全員");
+    io.println("2) 役割を指定");
+    io.println("3) ユーザー名一覧ファイル（1行1ユーザー名）");
+    io.println("0) 戻る");
+    int sel = io.readIntInRange("選択: ", 0, 3, 0);
+    if (sel == 0) return;
+    MessageService.Target target;
+    if (sel == 1) {
+        target = MessageService.Target.all();
+    } else if (sel == 2) {
+        io.println("1) 従業員 / 2) 管理者");
+        int r = io.readIntInRange("役割: ", 1, 2, 1);
+        target = MessageService.Target.role(r == 2 ? "ADMIN" : "EMPLOYEE");
+    } else {
+        String path = io.readLine("ファイルのパス（Enterで戻る）: ");
+        if (path == null || path.isBlank()) return;
+        Path file = Path.of(path.trim());
+        if (!Files.isRegularFile(file)) {
+            io.println("ファイルが見つかりません: " + file);
+            io.pause();
+            return;
+        }
+        String cs = io.readLine("文字コード（Enterで UTF-8 / 例: MS932）: ");
+        List<String> usernames = new ArrayList<>();
+        try {
+            Charset charset = (cs == null || cs.isBlank()) ? StandardCharsets.UTF_8 : Charset.forName(cs.trim());
+            for (String line : Files.readAllLines(file, charset)) {
+                String u = line.strip();
+                if (!u.isEmpty() && !u.startsWith("#")) usernames.add(u);
+            }
+        } catch (Exception e) {
+            io.println("ファイルを読み込めません: " + e.getMessage());
+            io.pause();
+            return;
+        }
+        if (usernames.isEmpty()) {
+            io.println("ユーザー名がありません。");
+            io.pause();
+            return;
+        }
+        target = MessageService.Target.usernames(usernames, "FILE:" + file.getFileName());
+    }
+    String body = io.readNonEmpty("本文: ");
+    if (!requireMyPasswordFor("一斉送信（" + target.label() + "）")) {
+        return;
+    }
+    MessageService.BroadcastResult r = messageService.broadcast(session.id, target, body);
+    if (!r.unknownUsernames().isEmpty()) {
+        io.println("見つからない/無効なユーザー（" + r.unknownUsernames().size() + "件）: "
+                + String.join(", ", r.unknownUsernames()));
+    }
+    if (r.recipients() == 0) {
+        io.println("送信先がいません。送信しませんでした。");
+        io.pause();
+        return;
+    }
+    audit("BROADCAST_MESSAGE", "message_broadcasts", String.valueOf(r.broadcastId()),
+            "target=" + target.label() + ", recipients=" + r.recipients());
+    io.println("送信しました: " + r.recipients() + "件（" + r.elapsedMs() + "ms）");
+    io.pause();
+}
+private void showBroadcastReceipts() {
+    io.blank();
+    io.println("【一斉送信の既読状況】（最新20件）");
+    List<MessageService.BroadcastReceipt> rows = messageService.broadcasts(session.id, 20);
+    if (rows.isEmpty()) {
+        io.println("一斉送信はありません。");
+    }
+    for (MessageService.BroadcastReceipt b : rows) {
+        io.println("ID:" + b.id()
+                + " / 宛先:" + b.target()
+                + " / 既読:" + b.read() + "/" + b.recipients()
+                + " / At:" + Timestamp.valueOf(b.sentAt())
+                + "\n" + b.body());
+        io.println("----------------------------------");
+    }
+    io.pause();
+}
 private String loadCurrentUserPasswordHash() {
-    try {
-        String v = jdbc.queryForObject("SELECT password FROM users WHERE id=?", String.class, session.id);
-        if (v != null && !v.isBlank()) return v;
-    } catch (Exception ignored) {}
-    try {
-        String v = jdbc.queryForObject("SELECT password_hash FROM users WHERE id=?", String.class, session.id);
-        if (v != null && !v.isBlank()) return v;
-    } catch (Exception ignored) {}
-    try {
-        String v = jdbc.queryForObject("SELECT password_digest FROM users WHERE id=?", String.class, session.id);
-        if (v != null && !v.isBlank()) return v;
-    } catch (Exception ignored) {}
-    return null;
+    UserDirectory.User u = userDirectory.findById(session.id);
+    if (u == null || u.passwordHash() == null || u.passwordHash().isBlank()) return null;
+    return u.passwordHash();
 }
+/**
+ * 直前の本人確認から ems.cli.reauth-grace-seconds 以内で、パスワードも変わっていなければ照合を省く。
+ */
 private boolean requireMyPasswordFor(String purposeLabel) {
+    String hash = loadCurrentUserPasswordHash();
+    if (hash == null) {
+        io.println("パスワード情報を取得できません（ログイン中の利用者が見つからないか、パスワードのハッシュが空です）。");
+        io.pause();
+        return false;
+    }
+    if (session.reauthValid(hash)) return true;
     io.blank();
     io.println("【本人確認】" + purposeLabel);
     io.println("※確認のため、あなたのパスワードを入力してください（表示されます）");
@@ -970,12 +1572,6 @@ private boolean requireMyPasswordFor(String purposeLabel) {
         io.pause();
         return false;
     }
-    String hash = loadCurrentUserPasswordHash();
-    if (hash == null) {
-        io.println("パスワード情報を取得できません（usersテーブルの列名を確認してください）。");
-        io.pause();
-        return false;
-    }
     boolean ok;
     try {
         ok = passwordEncoder.matches(pw, hash);
@@ -985,59 +1581,128 @@ private boolean requireMyPasswordFor(String purposeLabel) {
         return false;
     }
     if (!ok) {
+        session.clearReauth();
         io.println("パスワードが一致しません。送信を中止しました。");
         io.pause();
         return false;
     }
+    session.reauthenticated(hash, reauthGrace);
     return true;
 }
     private void markRead() {
         io.blank();
+        io.println("【既読にする】");
+        io.println("1) メッセージID");
+        io.println("2) ID一覧（カンマ区切り）");
+        io.println("3) ID範囲");
+        io.println("4) 送信者を指定");
+        io.println("5) 未読すべて（" + messageService.unreadCount(session.id) + "件）");
+        io.println("0) 戻る");
+        int sel = io.readIntInRange("選択: ", 0, 5, 0);
+        if (sel == 0) return;
+        if (sel > 1) {
+            markReadAll(sel);
+            return;
+        }
         String s = io.readNonEmpty("既読にするメッセージID: ");
         long id = Long.parseLong(s.trim());
-        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
-        int updated = jdbc.update(
-                "UPDATE messages SET read_at=? WHERE id=? AND receiver_id=?",
-                now, id, session.id
-        );
-        if (updated == 0) {
-            io.println("更新できません（IDが違う/受信者ではない）。");
-        } else {
-            audit("READ_MESSAGE", "messages", String.valueOf(id), null);
-            io.println("既読にしました。");
+        MessageService.ReadOutcome outcome = messageService.markRead(session.id, id);
+        switch (outcome) {
+            case MARKED -> {
+                audit("READ_MESSAGE", "messages", String.valueOf(id), null);
+                io.println("既読にしました。");
+            }
+            case ALREADY_READ -> io.println("すでに既読です。");
+            case NOT_FOUND -> io.println("更新できません（IDが違う/受信者ではない）。");
+        }
+        io.pause();
+    }
+    /**
+     * まとめて既読。件数にかかわらず UPDATE 1回・監査1件（detail に条件と件数）。
+     */
+    private void markReadAll(int sel) {
+        MessageService.ReadSelection selection;
+        try {
+            if (sel == 2) {
+                List<Long> ids = new ArrayList<>();
+                for (String part : io.readNonEmpty("メッセージID（例: 12,15,20）: ").split("[,\\s]+")) {
+                    if (!part.isBlank()) ids.add(Long.parseLong(part.trim()));
+                }
+                selection = MessageService.ReadSelection.ids(ids);
+            } else if (sel == 3) {
+                long from = Long.parseLong(io.readNonEmpty("開始ID: ").trim());
+                long to = Long.parseLong(io.readNonEmpty("終了ID: ").trim());
+                selection = MessageService.ReadSelection.range(from, to);
+            } else if (sel == 4) {
+                DbUser sender = findUserByUsername(io.readNonEmpty("送信者ユーザー名: "));
+                if (sender == null) {
+                    io.println("送信者が見つかりません。");
+                    io.pause();
+                    return;
+                }
+                selection = MessageService.ReadSelection.fromSender(sender.id, sender.username);
+            } else {
+                io.println("未読をすべて既読にしますか？ 1) はい / 0) いいえ");
+                if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+                selection = MessageService.ReadSelection.allUnread();
+            }
+        } catch (NumberFormatException e) {
+            io.println("IDの形式が不正です。");
+            io.pause();
+            return;
+        }
+        int n = messageService.markReadAll(session.id, selection);
+        if (n > 0) {
+            audit("READ_MESSAGES", "messages", null, selection.label() + ", count=" + n);
         }
+        io.println(n + "件を既読にしました。");
         io.pause();
     }
     private void upsertMyMentalToday() {
         io.blank();
         io.println("【今日のメンタル記録】");
-        String sScore = io.readNonEmpty("スコア（例: 1〜10）: ");
-        int score = Integer.parseInt(sScore.trim());
+        int score = io.readIntInRange("スコア（" + MentalAnalyticsService.MIN_SCORE + "〜" + MentalAnalyticsService.MAX_SCORE + "）: ",
+                MentalAnalyticsService.MIN_SCORE, MentalAnalyticsService.MAX_SCORE, -1);
+        if (score < MentalAnalyticsService.MIN_SCORE) {
+            io.println("スコアは" + MentalAnalyticsService.MIN_SCORE + "〜" + MentalAnalyticsService.MAX_SCORE + "で入力してください。");
+            io.pause();
+            return;
+        }
         String comment = io.readLine("コメント（任意）: ");
         if (comment != null && comment.isBlank()) comment = null;
-        Date today = Date.valueOf(LocalDate.now());
-        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
-        Integer exists = jdbc.queryForObject(
-                "SELECT COUNT(*) FROM mental_checkins WHERE user_id=? AND check_date=?",
-                Integer.class, session.id, today
-        );
-        if (exists != null && exists > 0) {
-            jdbc.update(
-                    "UPDATE mental_checkins SET score=?, comment=?, updated_at=? WHERE user_id=? AND check_date=?",
-                    score, comment, now, session.id, today
-            );
+        LocalDate today = LocalDate.now();
+        MentalAnalyticsService.Outcome outcome = mentalAnalyticsService.checkIn(session.id, today, score, comment);
+        if (outcome == MentalAnalyticsService.Outcome.UPDATED) {
             audit("UPDATE_MENTAL", "mental_checkins", session.id + ":" + today, null);
             io.println("更新しました。");
         } else {
-            jdbc.update(
-                    "INSERT INTO mental_checkins (user_id, check_date, score, comment, created_at, updated_at) VALUES (?,?,?,?,?,?)",
-                    session.id, today, score, comment, now, now
-            );
             audit("CREATE_MENTAL", "mental_checkins", session.id + ":" + today, null);
             io.println("記録しました。");
         }
         io.pause();
     }
+    private void mentalMenu() {
+        while (true) {
+            io.blank();
+            io.println("【メンタル閲覧】");
+            io.println("1) ユーザー指定（直近30件 + 7/30/90日平均）");
+            io.println("2) 全体のスコア分布（期間指定）");
+            io.println("3) 平均の低い順");
+            io.println("4) 低スコア通知（未確認: " + mentalAlertService.openCount() + "件）");
+            io.println("5) 通知ルール");
+            io.println("0) 戻る");
+            int sel = io.readIntInRange("選択: ", 0, 5, -1);
+            if (sel == 0) return;
+            switch (sel) {
+                case 1 -> mentalViewByUserMenu();
+                case 2 -> mentalDistributionMenu();
+                case 3 -> mentalLowestMenu();
+                case 4 -> mentalAlertsMenu();
+                case 5 -> mentalAlertRulesMenu();
+                default -> {}
+            }
+        }
+    }
     private void mentalViewByUserMenu() {
         io.blank();
         String u = io.readNonEmpty("閲覧するユーザー名: ");
@@ -1053,25 +1718,317 @@ private boolean requireMyPasswordFor(String purposeLabel) {
                 target.id
         );
         io.println("【" + target.username + "(" + (target.displayName == null ? "-" : target.displayName) + ") のメンタル】");
+        MentalAnalyticsService.Rolling r = mentalAnalyticsService.rolling(target.id, LocalDate.now());
+        if (r != null) {
+            io.println(formatRollingAverages(r) + " / 最終記録 " + r.lastCheckDate());
+        }
         if (rows.isEmpty()) io.println("記録がありません。");
-        for (String r : rows) io.println(r);
+        for (String row : rows) io.println(row);
         io.pause();
     }
+    private void mentalDistributionMenu() {
+        io.blank();
+        LocalDate to = readOptionalDate("終了日(yyyy-mm-dd / Enterで今日): ");
+        if (to == null) to = LocalDate.now();
+        LocalDate from = readOptionalDate("開始日(yyyy-mm-dd / Enterで30日前): ");
+        if (from == null || from.isAfter(to)) from = to.minusDays(29);
+        MentalAnalyticsService.Distribution d = mentalAnalyticsService.distribution(from, to);
+        io.println("【スコア分布】" + d.from() + " ~ " + d.to() + " / " + d.total() + "件"
+                + (d.average() == null ? "" : " / 平均 " + String.format("%.2f", d.average())));
+        long max = 0;
+        for (long n : d.counts()) max = Math.max(max, n);
+        for (int i = 0; i < d.counts().length; i++) {
+            long n = d.counts()[i];
+            int bar = max == 0 ? 0 : (int) Math.round(n * 40.0 / max);
+            io.println(String.format("%2d: %6d %s", i + MentalAnalyticsService.MIN_SCORE, n, "#".repeat(bar)));
+        }
+        io.pause();
+    }
+    private void mentalLowestMenu() {
+        io.blank();
+        List<MentalAnalyticsService.Rolling> rows = mentalAnalyticsService.rollingAll(LocalDate.now());
+        io.println("【平均の低い順（直近90日に記録のある人: " + rows.size() + "人）】");
+        int shown = 0;
+        for (MentalAnalyticsService.Rolling r : rows) {
+            if (shown++ >= 30) break;
+            io.println(r.username() + "(" + (r.displayName() == null ? "-" : r.displayName()) + ")"
+                    + " / " + formatRollingAverages(r)
+                    + " / 最終記録 " + r.lastCheckDate());
+        }
+        io.pause();
+    }
+    private void dailyGapsMenu() {
+        io.blank();
+        io.println("【記録漏れ】");
+        LocalDate date = readOptionalDate("対象日(yyyy-mm-dd / Enterで今日): ");
+        if (date == null) date = LocalDate.now();
+        int unreminded = 0;
+        for (DailyGapService.Kind kind : DailyGapService.Kind.values()) {
+            List<DailyGapService.Gap> gaps = dailyGapService.find(kind, date);
+            int reminded = 0;
+            for (DailyGapService.Gap g : gaps) if (g.reminded()) reminded++;
+            unreminded += gaps.size() - reminded;
+            io.println("■ " + kind.label() + ": " + gaps.size() + "人（リマインダー送信済み " + reminded + "人）");
+            int shown = 0;
+            for (DailyGapService.Gap g : gaps) {
+                if (shown++ >= 30) {
+                    io.println("  ...ほか " + (gaps.size() - 30) + "人");
+                    break;
+                }
+                io.println("  " + g.username() + "(" + (g.displayName() == null ? "-" : g.displayName()) + ")"
+                        + (g.reminded() ? " / 送信済み" : ""));
+            }
+        }
+        if (unreminded == 0) {
+            io.pause();
+            return;
+        }
+        io.println("未送信の " + unreminded + " 人にリマインダーを送りますか？ 1) はい / 0) いいえ");
+        if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+        for (DailyGapService.Kind kind : DailyGapService.Kind.values()) {
+            DailyGapService.RemindResult r = dailyGapService.remind(kind, date);
+            if (r.reminded() > 0) {
+                audit("SEND_GAP_REMINDERS", "message_broadcasts", String.valueOf(r.broadcastId()),
+                        "kind=" + kind + ", date=" + date + ", recipients=" + r.reminded());
+            }
+            io.println(kind.label() + ": " + r.reminded() + "人に送信しました。");
+        }
+        io.pause();
+    }
+    private void mentalAlertsMenu() {
+        io.blank();
+        List<MentalAlertService.Alert> rows = mentalAlertService.open(50);
+        io.println("【低スコア通知（未確認・古い順）】");
+        if (rows.isEmpty()) {
+            io.println("未確認の通知はありません。");
+            io.pause();
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        for (MentalAlertService.Alert a : rows) {
+            ids.add(a.id());
+            io.println("ID:" + a.id()
+                    + " / " + a.username() + "(" + (a.displayName() == null ? "-" : a.displayName()) + ")"
+                    + " / " + a.checkDate()
+                    + " / " + a.detail()
+                    + " / ルール " + a.ruleId());
+        }
+        io.println("表示した " + rows.size() + " 件を確認済みにしますか？ 1) はい / 0) いいえ");
+        if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+        int n = mentalAlertService.acknowledge(ids, session.id);
+        if (n > 0) {
+            audit("ACK_MENTAL_ALERTS", "mental_alerts", null, "count=" + n + ", ids=" + abbreviate(joinIds(ids), 200));
+        }
+        io.println(n + "件を確認済みにしました。");
+        io.pause();
+    }
+    private void mentalAlertRulesMenu() {
+        while (true) {
+            io.blank();
+            io.println("【通知ルール】");
+            for (MentalAlertService.Rule r : mentalAlertService.rules()) {
+                io.println("ID:" + r.id() + " / " + (r.enabled() ? "有効" : "無効") + " / " + r.describe());
+            }
+            io.println("1) 追加");
+            io.println("2) 有効/無効の切替");
+            io.println("0) 戻る");
+            int sel = io.readIntInRange("選択: ", 0, 2, -1);
+            if (sel == 0) return;
+            if (sel == 1) {
+                MentalAlertService.Kind[] kinds = MentalAlertService.Kind.values();
+                for (int i = 0; i < kinds.length; i++) io.println((i + 1) + ") " + kinds[i].label());
+                int k = io.readIntInRange("種類: ", 1, kinds.length, -1);
+                if (k < 1) continue;
+                MentalAlertService.Kind kind = kinds[k - 1];
+                int threshold = io.readIntInRange(kind == MentalAlertService.Kind.DROP_FROM_MEAN ? "低下幅: " : "スコアの上限: ",
+                        1, MentalAnalyticsService.MAX_SCORE, -1);
+                if (threshold < 1) continue;
+                int days = 1;
+                if (kind == MentalAlertService.Kind.DROP_FROM_MEAN) {
+                    days = io.readIntInRange("前14日の最低記録件数（Enterで5）: ", 1, MentalAlertService.WINDOW - 1, 5);
+                } else if (kind == MentalAlertService.Kind.LOW_STREAK) {
+                    days = io.readIntInRange("連続日数（2〜" + MentalAlertService.WINDOW + "）: ", 2, MentalAlertService.WINDOW, -1);
+                    if (days < 2) continue;
+                }
+                long id = mentalAlertService.addRule(kind, threshold, days, session.id);
+                audit("CREATE_MENTAL_ALERT_RULE", "mental_alert_rules", String.valueOf(id),
+                        "kind=" + kind + ", threshold=" + threshold + ", days=" + days);
+                io.println("追加しました（ID:" + id + "）。");
+            } else {
+                long id = io.readIntInRange("ルールID: ", 1, Integer.MAX_VALUE, -1);
+                if (id < 1) continue;
+                io.println("1) 有効にする / 0) 無効にする");
+                boolean enabled = io.readIntInRange("選択: ", 0, 1, 0) == 1;
+                if (mentalAlertService.setEnabled(id, enabled)) {
+                    audit(enabled ? "ENABLE_MENTAL_ALERT_RULE" : "DISABLE_MENTAL_ALERT_RULE", "mental_alert_rules", String.valueOf(id), null);
+                    io.println("更新しました。");
+                } else {
+                    io.println("見つかりません。");
+                }
+            }
+            io.pause();
+        }
+    }
+    private static String formatRollingAverages(MentalAnalyticsService.Rolling r) {
+        return "7日 " + formatAverage(r.avg7())
+                + " / 30日 " + formatAverage(r.avg30())
+                + " / 90日 " + formatAverage(r.avg90()) + "（" + r.checkins90() + "件）";
+    }
+    private static String formatAverage(Double avg) {
+        return avg == null ? "-" : String.format("%.2f", avg);
+    }
     private void showAuditLogs() {
         io.blank();
-        List<String> rows = jdbc.query(
-                "SELECT created_at, actor_username, actor_role, action, entity_type, entity_id, detail " +
-                        "FROM audit_logs ORDER BY created_at DESC LIMIT 50",
-                (rs, rn) -> rs.getTimestamp("created_at")
-                        + " / " + rs.getString("actor_username")
-                        + " / " + rs.getString("actor_role")
-                        + " / " + rs.getString("action")
-                        + " / " + rs.getString("entity_type")
-                        + " / " + rs.getString("entity_id")
-                        + " / " + rs.getString("detail")
+        auditSink.flush();
+        AuditSink.Stats stats = auditSink.stats();
+        io.println("監査書込: 受付=" + stats.accepted() + " / 書込=" + stats.written()
+                + " / 破棄=" + stats.dropped() + " / 失敗=" + stats.failed() + " / 待ち=" + stats.queued());
+        io.println("1) 最新から表示");
+        io.println("2) 条件を指定して検索");
+        io.println("3) アーカイブを検索");
+        io.println("4) アーカイブ一覧/検証");
+        io.println("5) 保持期間(" + auditArchiveService.getRetentionDays() + "日)を過ぎたログをアーカイブ");
+        io.println("0) 戻る");
+        int sel = io.readIntInRange("選択: ", 0, 5, 0);
+        if (sel == 0) return;
+        switch (sel) {
+            case 1, 2 -> {
+                AuditLogQueryService.Filter filter = (sel == 2) ? readAuditFilter() : AuditLogQueryService.Filter.none();
+                if (filter == null) return;
+                browseAuditLogs(filter);
+            }
+            case 3 -> {
+                AuditLogQueryService.Filter filter = readAuditFilter();
+                if (filter == null) return;
+                browseArchivedAuditLogs(filter);
+            }
+            case 4 -> showAuditArchives();
+            case 5 -> archiveAuditLogsMenu();
+            default -> {}
+        }
+    }
+    private AuditLogQueryService.Filter readAuditFilter() {
+        io.blank();
+        io.println("【検索条件】（Enterで条件なし）");
+        Long actorId = null;
+        String actor = io.readLine("操作者ユーザー名: ");
+        if (actor != null && !actor.isBlank()) {
+            DbUser u = findUserByUsername(actor.trim());
+            if (u == null) {
+                io.println("ユーザーが見つかりません。");
+                io.pause();
+                return null;
+            }
+            actorId = u.id;
+        }
+        String action = normalizeBlankToNull(io.readLine("操作（例: LOGIN）: "));
+        String entityType = normalizeBlankToNull(io.readLine("対象（例: users）: "));
+        String entityId = normalizeBlankToNull(io.readLine("対象ID: "));
+        LocalDate from = readOptionalDate("開始日(yyyy-mm-dd): ");
+        LocalDate to = readOptionalDate("終了日(yyyy-mm-dd / この日を含む): ");
+        return new AuditLogQueryService.Filter(
+                actorId,
+                action == null ? null : action.toUpperCase(),
+                entityType,
+                entityId,
+                from == null ? null : from.atStartOfDay(),
+                to == null ? null : to.plusDays(1).atStartOfDay()
         );
-        if (rows.isEmpty()) io.println("監査ログがありません。");
-        for (String r : rows) io.println(r);
+    }
+    private void browseAuditLogs(AuditLogQueryService.Filter filter) {
+        AuditLogQueryService.Cursor cursor = null;
+        int pageNo = 1;
+        while (true) {
+            AuditLogQueryService.Page page = auditLogQueryService.page(filter, cursor, AUDIT_PAGE_SIZE);
+            io.blank();
+            io.println("【監査ログ】" + pageNo + "ページ目");
+            if (page.rows().isEmpty()) io.println("監査ログがありません。");
+            for (AuditLogQueryService.Row r : page.rows()) {
+                io.println(Timestamp.valueOf(r.createdAt())
+                        + " / " + r.actorUsername()
+                        + " / " + r.actorRole()
+                        + " / " + r.action()
+                        + " / " + r.entityType()
+                        + " / " + r.entityId()
+                        + " / " + r.detail());
+            }
+            if (page.next() == null) {
+                io.pause();
+                return;
+            }
+            io.println("1) 次ページ");
+            io.println("0) 戻る");
+            int sel = io.readIntInRange("選択: ", 0, 1, 0);
+            if (sel == 0) return;
+            cursor = page.next();
+            pageNo++;
+        }
+    }
+    private void browseArchivedAuditLogs(AuditLogQueryService.Filter filter) {
+        io.blank();
+        io.println("【監査ログ（アーカイブ / 古い順）】");
+        int[] count = {0};
+        boolean[] more = {true};
+        try {
+            auditArchiveService.scan(filter, r -> {
+                io.println(Timestamp.valueOf(r.createdAt())
+                        + " / " + r.actorUsername()
+                        + " / " + r.actorRole()
+                        + " / " + r.action()
+                        + " / " + r.entityType()
+                        + " / " + r.entityId()
+                        + " / " + r.detail());
+                if (++count[0] % AUDIT_PAGE_SIZE != 0) return true;
+                io.println("1) 次ページ");
+                io.println("0) 戻る");
+                more[0] = io.readIntInRange("選択: ", 0, 1, 0) == 1;
+                return more[0];
+            });
+        } catch (RuntimeException e) {
+            io.println("アーカイブの読込に失敗しました: " + e.getMessage());
+            io.pause();
+            return;
+        }
+        if (!more[0]) return;
+        if (count[0] == 0) io.println("該当するログがありません。");
+        io.pause();
+    }
+    private void showAuditArchives() {
+        io.blank();
+        io.println("【監査ログアーカイブ】");
+        List<AuditArchiveService.MonthInfo> months = auditArchiveService.months();
+        if (months.isEmpty()) io.println("アーカイブはありません。");
+        for (AuditArchiveService.MonthInfo m : months) {
+            io.println(m.month() + " / セグメント:" + m.segments() + " / 件数:" + m.rows() + " / " + m.bytes() + "bytes");
+        }
+        if (!months.isEmpty()) {
+            List<String> problems = auditArchiveService.verify();
+            if (problems.isEmpty()) {
+                io.println("検証: OK");
+            } else {
+                io.println("検証: NG");
+                for (String p : problems) io.println("  " + p);
+            }
+        }
+        io.pause();
+    }
+    private void archiveAuditLogsMenu() {
+        io.blank();
+        io.println("保持期間(" + auditArchiveService.getRetentionDays() + "日)を過ぎた監査ログをアーカイブへ移し、DBから削除します。");
+        io.println("実行しますか？ 1) はい / 0) いいえ");
+        if (io.readIntInRange("選択: ", 0, 1, 0) != 1) return;
+        AuditArchiveService.ArchiveResult r;
+        try {
+            r = auditArchiveService.archiveExpired();
+        } catch (RuntimeException e) {
+            io.println("アーカイブに失敗しました: " + e.getMessage());
+            io.pause();
+            return;
+        }
+        io.println("完了: セグメント=" + r.segments() + " / 退避=" + r.archivedRows() + " / 削除=" + r.deletedRows()
+                + " / " + r.bytesWritten() + "bytes / " + r.elapsedMs() + "ms");
+        audit("ARCHIVE_AUDIT_LOGS", "audit_logs", null,
+                "segments=" + r.segments() + ", archived=" + r.archivedRows() + ", deleted=" + r.deletedRows());
         io.pause();
     }
     private void passwordResetRequestBeforeLogin() {
@@ -1165,6 +2122,7 @@ private boolean requireMyPasswordFor(String purposeLabel) {
             String newPlain = "pp" + (target.displayName != null && !target.displayName.isBlank() ? target.displayName : target.username);
             String newHash = passwordEncoder.encode(newPlain);
             jdbc.update("UPDATE users SET password_hash=?, updated_at=? WHERE id=?", newHash, now, target.id);
+            userDirectory.invalidate(target.id);
             jdbc.update(
                     "UPDATE password_reset_request SET status=?, decided_by_id=?, decided_at=?, decided_ip=?, decision_note=? WHERE id=?",
                     "APPROVED", session.id, now, null, note, reqId
@@ -1203,6 +2161,8 @@ private boolean requireMyPasswordFor(String purposeLabel) {
             io.pause();
             return;
         }
+        // 新しいパスワードの確認で中断しても、現在のハッシュは今の方式に揃えておく
+        upgradePasswordHash(u.id, current, u.passwordHash);
         String next = io.readNonEmpty("新しいパスワード（表示されます）: ");
         String next2 = io.readNonEmpty("新しいパスワード（確認）: ");
         if (!next.equals(next2)) {
@@ -1213,45 +2173,36 @@ private boolean requireMyPasswordFor(String purposeLabel) {
         Timestamp now = Timestamp.valueOf(LocalDateTime.now());
         String hash = passwordEncoder.encode(next);
         jdbc.update("UPDATE users SET password_hash=?, updated_at=? WHERE id=?", hash, now, session.id);
+        userDirectory.invalidate(session.id);
+        session.clearReauth();
         audit("CHANGE_PASSWORD", "users", String.valueOf(session.id), null);
         io.println("変更しました。");
         io.pause();
     }
-    private DbUser findUserByUsername(String username) {
-        try {
-            return jdbc.queryForObject(
-                    "SELECT id, username, display_name, password_hash, role, enabled FROM users WHERE username=?",
-                    (rs, rn) -> new DbUser(
-                            rs.getLong("id"),
-                            rs.getString("username"),
-                            rs.getString("display_name"),
-                            rs.getString("password_hash"),
-                            rs.getString("role"),
-                            rs.getBoolean("enabled")
-                    ),
-                    username
-            );
-        } catch (EmptyResultDataAccessException e) {
-            return null;
+    /**
+     * 照合に成功した直後に呼ぶ。古い方式/弱い強度のハッシュなら今の PasswordEncoder で作り直す。
+     * その間に別の経路でパスワードが変わっていれば（password_hash が一致しなければ）何もしない。
+     */
+    private void upgradePasswordHash(long userId, String rawPassword, String currentHash) {
+        if (!passwordEncoder.upgradeEncoding(currentHash)) return;
+        int n = jdbc.update(
+                "UPDATE users SET password_hash=?, updated_at=? WHERE id=? AND password_hash=?",
+                passwordEncoder.encode(rawPassword), Timestamp.valueOf(LocalDateTime.now()), userId, currentHash
+        );
+        if (n > 0) {
+            userDirectory.invalidate(userId);
+            audit("REHASH_PASSWORD", "users", String.valueOf(userId), null);
         }
     }
+    private DbUser findUserByUsername(String username) {
+        return toDbUser(userDirectory.findByUsername(username));
+    }
     private DbUser findUserById(long id) {
-        try {
-            return jdbc.queryForObject(
-                    "SELECT id, username, display_name, password_hash, role, enabled FROM users WHERE id=?",
-                    (rs, rn) -> new DbUser(
-                            rs.getLong("id"),
-                            rs.getString("username"),
-                            rs.getString("display_name"),
-                            rs.getString("password_hash"),
-                            rs.getString("role"),
-                            rs.getBoolean("enabled")
-                    ),
-                    id
-            );
-        } catch (EmptyResultDataAccessException e) {
-            return null;
-        }
+        return toDbUser(userDirectory.findById(id));
+    }
+    private static DbUser toDbUser(UserDirectory.User u) {
+        if (u == null) return null;
+        return new DbUser(u.id(), u.username(), u.displayName(), u.passwordHash(), u.role(), u.enabled());
     }
     private Date readSqlDate(String prompt) {
         while (true) {
@@ -1264,23 +2215,18 @@ private boolean requireMyPasswordFor(String purposeLabel) {
             }
         }
     }
-    private void audit(String action, String entityType, String entityId, String detail) {
-        try {
-            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
-            jdbc.update(
-                    "INSERT INTO audit_logs (actor_id, actor_username, actor_role, action, entity_type, entity_id, detail, ip_address, created_at) " +
-                            "VALUES (?,?,?,?,?,?,?,?,?)",
-                    session == null ? null : session.id,
-                    session == null ? null : session.username,
-                    session == null ? null : session.role,
-                    action,
-                    entityType,
-                    entityId,
-                    detail,
-                    null,
-                    now
-            );
-        } catch (Exception ignored) {
+    private LocalDate readOptionalDate(String prompt) {
+        while (true) {
+            String s = io.readLine(prompt);
+            if (s == null || s.isBlank()) return null;
+            try {
+                return LocalDate.parse(s.trim());
+            } catch (Exception e) {
+                io.println("日付形式が不正です。例: 2025-12-28");
+            }
         }
     }
+    private void audit(String action, String entityType, String entityId, String detail) {
+        auditSink.record(AuditEvent.of(session == null ? null : session.actor(), action, entityType, entityId, detail));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.example.ems.cli;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * CLI の起動時間（JVM起動→main、main→コンテキスト起動完了、合計）を計測する。
+ * ems.cli.startup-report にCSVのパスを指定すると1起動1行で追記する（起動時間の劣化の追跡用）。
+ */
+final class StartupReport {
+    private static final Logger log = LoggerFactory.getLogger(StartupReport.class);
+    private final long jvmToMainMs;
+    private final long mainStarted;
+    private long contextMs;
+    private StartupReport(long jvmToMainMs, long mainStarted) {
+        this.jvmToMainMs = jvmToMainMs;
+        this.mainStarted = mainStarted;
+    }
+    static StartupReport begin() {
+        long now = System.nanoTime();
+        return new StartupReport(ManagementFactory.getRuntimeMXBean().getUptime(), now);
+    }
+    void contextReady() {
+        contextMs = (System.nanoTime() - mainStarted) / 1_000_000;
+    }
+    /**
+     * 最初のメニューを出す直前に呼ぶ。
+     */
+    void finish(String csvPath) {
+        long totalMs = jvmToMainMs + (System.nanoTime() - mainStarted) / 1_000_000;
+        boolean cds = usesSharedArchive();
+        log.info("startup: jvm->main={}ms context={}ms total={}ms cds={}", jvmToMainMs, contextMs, totalMs, cds);
+        if (csvPath == null || csvPath.isBlank()) return;
+        Path path = Path.of(csvPath);
+        try {
+            if (path.getParent() != null) Files.createDirectories(path.getParent());
+            String line = LocalDateTime.now() + "," + jvmToMainMs + "," + contextMs + "," + totalMs + "," + cds + System.lineSeparator();
+            if (!Files.exists(path)) {
+                line = "recorded_at,jvm_to_main_ms,context_ms,total_ms,cds" + System.lineSeparator() + line;
+            }
+            Files.writeString(path, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("startup report not written: {}", e.toString());
+        }
+    }
+    private static boolean usesSharedArchive() {
+        RuntimeMXBean rt = ManagementFactory.getRuntimeMXBean();
+        for (String arg : rt.getInputArguments()) {
+            if (arg.startsWith("-XX:SharedArchiveFile")) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.ems.config;
+import com.example.ems.service.AsyncAuditSink;
+import com.example.ems.service.AuditSink;
+import com.example.ems.service.JdbcAuditWriter;
+import com.example.ems.service.SyncAuditSink;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+@Configuration
+public class AuditConfig {
+    @Bean
+    @ConditionalOnProperty(name = "ems.audit.mode", havingValue = "async", matchIfMissing = true)
+    public AsyncAuditSink asyncAuditSink(JdbcAuditWriter writer,
+                                         @Value("${ems.audit.queue-capacity:10000}") int capacity,
+                                         @Value("${ems.audit.batch-size:200}") int batchSize,
+                                         @Value("${ems.audit.flush-interval-ms:200}") long flushIntervalMs,
+                                         @Value("${ems.audit.offer-timeout-ms:20}") long offerTimeoutMs) {
+        return new AsyncAuditSink(writer, capacity, batchSize, flushIntervalMs, offerTimeoutMs);
+    }
+    @Bean
+    @ConditionalOnProperty(name = "ems.audit.mode", havingValue = "sync")
+    public AuditSink syncAuditSink(JdbcAuditWriter writer) {
+        return new SyncAuditSink(writer);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.ems.config;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+/**
+ * cli プロファイル（EmsConsoleCli の起動構成）専用の設定。
+ * Web/JPA/Security/spring.sql.init は application-cli.properties で外している。
+ */
+@Configuration
+@Profile("cli")
+public class CliConfig {
+    /**
+     * 遅延初期化の対象外にして、コンテキスト起動中（CLIがDBを触る前）に実行させる。
+     */
+    @Bean
+    @Lazy(false)
+    public SchemaVersionInitializer schemaVersionInitializer(DataSource dataSource, ResourceLoader resourceLoader,
+                                                             @Value("${spring.sql.init.schema-locations}") String[] locations) {
+        List<Resource> scripts = new ArrayList<>();
+        for (String location : locations) {
+            scripts.add(resourceLoader.getResource(location.trim()));
+        }
+        return new SchemaVersionInitializer(dataSource, scripts);
+    }
+}
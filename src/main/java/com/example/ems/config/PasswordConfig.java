@@ -1,12 +1,78 @@
 package com.example.ems.config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import java.util.HashMap;
+import java.util.Map;
+/**
+ * パスワードのハッシュ方式。
+ *
+ * 新しいハッシュは "{bcrypt}" 付きで ems.password.bcrypt-strength の強度で作る。
+ * 接頭辞のない既存ハッシュ（V1_init.sql の初期管理者など）は BCrypt として照合し、
+ * upgradeEncoding が true を返すので、ログイン時に作り直される（EmsConsoleCli.loginFlow）。
+ * ems.password.bcrypt-strength=auto なら起動時に ems.password.target-verify-ms 以内に収まる最大の強度を測って使う。
+ */
 @Configuration
 public class PasswordConfig {
+    private static final Logger log = LoggerFactory.getLogger(PasswordConfig.class);
+    static final String BCRYPT = "bcrypt";
+    /**
+     * 自動調整でもこれより下げない（Spring Security の既定値）。
+     */
+    static final int MIN_STRENGTH = 10;
+    static final int MAX_STRENGTH = 16;
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${ems.password.bcrypt-strength:10}") String strength,
+                                           @Value("${ems.password.target-verify-ms:250}") long targetVerifyMs) {
+        int s = "auto".equalsIgnoreCase(strength.trim())
+                ? calibrate(targetVerifyMs)
+                : Integer.parseInt(strength.trim());
+        return encoder(s);
     }
-}
\ No newline at end of file
+    /**
+     * strength の BCrypt を既定にした DelegatingPasswordEncoder。
+     */
+    public static PasswordEncoder encoder(int strength) {
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(strength);
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put(BCRYPT, bcrypt);
+        DelegatingPasswordEncoder delegating = new DelegatingPasswordEncoder(BCRYPT, encoders);
+        delegating.setDefaultPasswordEncoderForMatches(bcrypt);
+        return delegating;
+    }
+    /**
+     * 照合1回が targetVerifyMs 以内に収まる最大の強度（MIN_STRENGTH 未満にはしない）。
+     * 強度を1上げると時間はほぼ倍になるので、次の強度が目標を超えると見込めた時点で止める（一番重い計測を省く）。
+     */
+    public static int calibrate(long targetVerifyMs) {
+        int chosen = MIN_STRENGTH;
+        for (int s = MIN_STRENGTH; s <= MAX_STRENGTH; s++) {
+            long ms = verifyMillis(s);
+            log.info("bcrypt calibration: strength={} verify={}ms", s, ms);
+            if (ms > targetVerifyMs) break;
+            chosen = s;
+            if (ms * 2 > targetVerifyMs) break;
+        }
+        log.info("bcrypt calibration: target={}ms strength={}", targetVerifyMs, chosen);
+        return chosen;
+    }
+    /**
+     * 照合1回の時間（2回の最小値。ハッシュ作成を暖機を兼ねて先に1回行う）。
+     */
+    static long verifyMillis(int strength) {
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(strength);
+        String hash = bcrypt.encode("calibration");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2; i++) {
+            long started = System.nanoTime();
+            bcrypt.matches("calibration", hash);
+            best = Math.min(best, System.nanoTime() - started);
+        }
+        return best / 1_000_000;
+    }
+}
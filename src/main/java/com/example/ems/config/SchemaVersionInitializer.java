@@ -0,0 +1,75 @@
+package com.example.ems.config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.CRC32;
+import javax.sql.DataSource;
+/**
+ * cli プロファイル用のスキーマ初期化（spring.sql.init の代わり）。
+ * スキーマスクリプトの内容のチェックサムを ems_schema_version に記録しておき、
+ * 初回とスクリプトが追加・変更されたときだけスクリプトを流す。
+ * スクリプトはどれも IF NOT EXISTS なので、複数のCLIが同時に流しても問題ない。
+ */
+public class SchemaVersionInitializer implements InitializingBean {
+    private static final Logger log = LoggerFactory.getLogger(SchemaVersionInitializer.class);
+    private final DataSource dataSource;
+    private final List<Resource> scripts;
+    public SchemaVersionInitializer(DataSource dataSource, List<Resource> scripts) {
+        this.dataSource = dataSource;
+        this.scripts = scripts;
+    }
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        String checksum = checksum();
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        String applied;
+        try {
+            List<String> rows = jdbc.queryForList("SELECT checksum FROM ems_schema_version WHERE id=1", String.class);
+            applied = rows.isEmpty() ? null : rows.get(0);
+        } catch (DataAccessException e) {
+            // 初回（表がまだない）
+            applied = null;
+        }
+        if (checksum.equals(applied)) {
+            log.debug("schema is up to date: {}", checksum);
+            return;
+        }
+        long started = System.nanoTime();
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(scripts.toArray(new Resource[0]));
+        populator.setSqlScriptEncoding(StandardCharsets.UTF_8.name());
+        populator.execute(dataSource);
+        jdbc.update(
+                "MERGE INTO ems_schema_version t " +
+                "USING (SELECT 1 AS id, CAST(? AS VARCHAR(32)) AS checksum, CAST(? AS TIMESTAMP) AS applied_at) s " +
+                "ON t.id=s.id " +
+                "WHEN MATCHED THEN UPDATE SET checksum=s.checksum, applied_at=s.applied_at " +
+                "WHEN NOT MATCHED THEN INSERT (id, checksum, applied_at) VALUES (s.id, s.checksum, s.applied_at)",
+                checksum, Timestamp.valueOf(LocalDateTime.now())
+        );
+        log.info("schema scripts applied: {} -> {} ({}ms)", applied, checksum, (System.nanoTime() - started) / 1_000_000);
+    }
+    private String checksum() throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[8192];
+        for (Resource r : scripts) {
+            crc.update(String.valueOf(r.getFilename()).getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = r.getInputStream()) {
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    crc.update(buf, 0, n);
+                }
+            }
+        }
+        return scripts.size() + "-" + Long.toHexString(crc.getValue());
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.ems.domain;
+/**
+ * 監査ログに記録する操作者（ログイン中ユーザー）。
+ * CLIのセッションやサービス層の間で受け渡すための軽量な値。
+ */
+public record Actor(Long id, String username, String role) {
+  public boolean isAdmin() {
+    return "ADMIN".equalsIgnoreCase(role);
+  }
+}
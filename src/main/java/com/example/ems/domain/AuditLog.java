@@ -7,7 +7,7 @@ public class AuditLog {
   @Id
   @GeneratedValue(strategy = GenerationType.IDENTITY)
   private Long id;
-  @ManyToOne
+  @ManyToOne(fetch = FetchType.LAZY)
   @JoinColumn(name = "actor_id")
   private UserAccount actor;
   @Column(name = "actor_username", length = 50)
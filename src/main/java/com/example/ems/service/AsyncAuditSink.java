@@ -0,0 +1,189 @@
+package com.example.ems.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * 監査イベントを有界キューに積み、バックグラウンドスレッドが batchUpdate でまとめて書き込む実装
+ * （ems.audit.mode=async、既定）。
+ *
+ * <ul>
+ *   <li>バッチは batchSize 件に達するか、先頭を取り出してから flushIntervalMs 経過した時点で書き込む。</li>
+ *   <li>キューが満杯のまま offerTimeoutMs 待っても空かなければ破棄し、dropped を数える。</li>
+ *   <li>バッチ書込みに失敗したら1件ずつ再試行し、それでも失敗した件数を failed に数える。</li>
+ *   <li>flush はキューの残りを書き込み、フラッシャーが取り出し済みで書込み中のバッチも終わるまで待つ。</li>
+ *   <li>コンテキスト終了時（SmartLifecycle#stop）に残りをすべて書き込んでから止まる。
+ *       停止後に届いたイベントは呼び出しスレッドで同期書込みする。</li>
+ * </ul>
+ * H2 はI/O中のスレッド割り込みでファイルチャネルを閉じてしまうため、フラッシャーは割り込まずフラグで止める。
+ */
+public class AsyncAuditSink implements AuditSink, SmartLifecycle {
+  private static final Logger log = LoggerFactory.getLogger(AsyncAuditSink.class);
+  private final JdbcAuditWriter writer;
+  private final BlockingQueue<AuditEvent> queue;
+  private final int batchSize;
+  private final long flushIntervalMs;
+  private final long offerTimeoutMs;
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final Object drainLock = new Object();
+  /**
+   * キューに入れてからまだ書込み（または失敗）が終わっていない件数。flush はこれが0になるまで待つ。
+   */
+  private final AtomicLong inFlight = new AtomicLong();
+  private final Object idle = new Object();
+  private volatile boolean running;
+  private Thread flusher;
+  public AsyncAuditSink(JdbcAuditWriter writer, int capacity, int batchSize, long flushIntervalMs, long offerTimeoutMs) {
+    this.writer = writer;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batchSize = batchSize;
+    this.flushIntervalMs = flushIntervalMs;
+    this.offerTimeoutMs = offerTimeoutMs;
+  }
+  @Override
+  public void record(AuditEvent event) {
+    accepted.incrementAndGet();
+    if (!running) {
+      writeBatch(List.of(event));
+      return;
+    }
+    boolean queued;
+    inFlight.incrementAndGet();
+    try {
+      queued = queue.offer(event, offerTimeoutMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      queued = false;
+    }
+    if (!queued) {
+      done(1);
+      dropped.incrementAndGet();
+      log.warn("audit queue full ({} queued), dropped: {}", queue.size(), event);
+      return;
+    }
+    if (!running) {
+      // stop() の最終ドレインと入れ違いになった場合に取り残さない
+      drainAll();
+    }
+  }
+  @Override
+  public void flush() {
+    drainAll();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs + 5_000);
+    synchronized (idle) {
+      while (inFlight.get() > 0) {
+        long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (wait <= 0) {
+          log.warn("audit flush timed out ({} events still in flight)", inFlight.get());
+          return;
+        }
+        try {
+          idle.wait(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+  @Override
+  public Stats stats() {
+    return new Stats(accepted.get(), written.get(), dropped.get(), failed.get(), queue.size());
+  }
+  @Override
+  public void start() {
+    running = true;
+    flusher = new Thread(this::flushLoop, "audit-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+  @Override
+  public void stop() {
+    running = false;
+    Thread t = flusher;
+    if (t != null) {
+      try {
+        t.join(flushIntervalMs * 10 + 5_000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    drainAll();
+    Stats s = stats();
+    log.info("audit sink stopped: accepted={} written={} dropped={} failed={}", s.accepted(), s.written(), s.dropped(), s.failed());
+  }
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+  private void flushLoop() {
+    List<AuditEvent> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        AuditEvent first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) continue;
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          long wait = deadline - System.nanoTime();
+          if (batch.size() >= batchSize || wait <= 0) break;
+          AuditEvent next = queue.poll(wait, TimeUnit.NANOSECONDS);
+          if (next == null) break;
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      }
+      if (!batch.isEmpty()) {
+        writeBatch(batch);
+        done(batch.size());
+        batch.clear();
+      }
+    }
+  }
+  private void drainAll() {
+    synchronized (drainLock) {
+      List<AuditEvent> batch = new ArrayList<>(batchSize);
+      while (queue.drainTo(batch, batchSize) > 0) {
+        writeBatch(batch);
+        done(batch.size());
+        batch.clear();
+      }
+    }
+  }
+  private void done(int events) {
+    if (inFlight.addAndGet(-events) <= 0) {
+      synchronized (idle) {
+        idle.notifyAll();
+      }
+    }
+  }
+  private void writeBatch(List<AuditEvent> batch) {
+    try {
+      writer.writeBatch(batch);
+      written.addAndGet(batch.size());
+      return;
+    } catch (RuntimeException e) {
+      log.warn("audit batch write failed ({} events), retrying one by one", batch.size(), e);
+    }
+    for (AuditEvent event : batch) {
+      try {
+        writer.write(event);
+        written.incrementAndGet();
+      } catch (RuntimeException e) {
+        failed.incrementAndGet();
+        log.error("audit write failed: {}", event, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package com.example.ems.service;
+import com.example.ems.domain.Actor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+/**
+ * 出勤/退勤の打刻。
+ * 1打刻 = 条件付きMERGE/UPDATE 1文 + 月次集計の加算 + 監査INSERT 1文 を同一トランザクションで実行し、
+ * 「打刻済み/未出勤」は更新件数から判定する（事前のSELECTは行わない）。
+ * 取込で退勤だけが入った日（clock_in NULL）への出勤打刻は、退勤より前なら埋めて1日分の集計をまとめて足し、
+ * 退勤より後なら ALREADY_CLOCKED_OUT として何も変えない。
+ */
+@Service
+public class AttendanceService {
+  public enum Outcome {
+    PUNCHED,
+    ALREADY_PUNCHED,
+    NOT_CLOCKED_IN,
+    NO_RECORD,
+    ALREADY_CLOCKED_OUT
+  }
+  /**
+   * 打刻結果。PUNCHED のときは今回の打刻時刻、ALREADY_PUNCHED のときは既存の打刻時刻、
+   * ALREADY_CLOCKED_OUT のときは既存の退勤時刻。
+   */
+  public record PunchResult(Outcome outcome, Timestamp at) {
+    public boolean punched() {
+      return outcome == Outcome.PUNCHED;
+    }
+  }
+  /**
+   * 更新/作成できた行の clock_out を同じ往復で受け取る（取込で退勤だけ入った日の判定に使う）。
+   */
+  private static final String CLOCK_IN_SQL =
+      "SELECT clock_out FROM FINAL TABLE (" +
+      "MERGE INTO attendance_records a " +
+      "USING (SELECT CAST(? AS BIGINT) AS user_id, CAST(? AS DATE) AS work_date, CAST(? AS TIMESTAMP) AS ts) s " +
+      "ON a.user_id = s.user_id AND a.work_date = s.work_date " +
+      "WHEN MATCHED AND a.clock_in IS NULL AND (a.clock_out IS NULL OR a.clock_out >= s.ts) " +
+      "THEN UPDATE SET clock_in = s.ts, updated_at = s.ts " +
+      "WHEN NOT MATCHED THEN INSERT (user_id, work_date, clock_in, clock_out, created_at, updated_at) " +
+      "VALUES (s.user_id, s.work_date, s.ts, NULL, s.ts, s.ts))";
+  /**
+   * 更新できた行の clock_in を同じ往復で受け取る（月次集計の勤務分の計算に使う）。
+   */
+  private static final String CLOCK_OUT_SQL =
+      "SELECT clock_in FROM FINAL TABLE (" +
+      "UPDATE attendance_records SET clock_out=?, updated_at=? " +
+      "WHERE user_id=? AND work_date=? AND clock_in IS NOT NULL AND clock_out IS NULL)";
+  private final JdbcTemplate jdbc;
+  private final JdbcAuditWriter auditWriter;
+  private final AttendanceSummaryService summaryService;
+  public AttendanceService(JdbcTemplate jdbc, JdbcAuditWriter auditWriter, AttendanceSummaryService summaryService) {
+    this.jdbc = jdbc;
+    this.auditWriter = auditWriter;
+    this.summaryService = summaryService;
+  }
+  @Transactional
+  public PunchResult clockIn(Actor actor, LocalDate workDate, LocalDateTime at) {
+    Timestamp now = Timestamp.valueOf(at);
+    List<Timestamp> updated;
+    try {
+      updated = jdbc.query(CLOCK_IN_SQL, (rs, rn) -> rs.getTimestamp("clock_out"), actor.id(), Date.valueOf(workDate), now);
+    } catch (DuplicateKeyException e) {
+      // 同時打刻で別セッションが先に uq_att を確保した
+      updated = List.of();
+    }
+    if (updated.isEmpty()) {
+      return explainClockInMiss(actor.id(), workDate);
+    }
+    Timestamp clockOut = updated.get(0);
+    if (clockOut == null) {
+      summaryService.applyClockIn(actor.id(), workDate, at);
+    } else {
+      summaryService.applyDay(actor.id(), workDate, at, clockOut.toLocalDateTime());
+    }
+    auditWriter.write(actor, "CLOCK_IN", "attendance_records", actor.id() + ":" + workDate, null);
+    return new PunchResult(Outcome.PUNCHED, now);
+  }
+  @Transactional
+  public PunchResult clockOut(Actor actor, LocalDate workDate, LocalDateTime at) {
+    Timestamp now = Timestamp.valueOf(at);
+    List<Timestamp> updated = jdbc.query(
+        CLOCK_OUT_SQL,
+        (rs, rn) -> rs.getTimestamp("clock_in"),
+        now, now, actor.id(), Date.valueOf(workDate)
+    );
+    if (updated.isEmpty()) {
+      return explainClockOutMiss(actor.id(), workDate);
+    }
+    summaryService.applyClockOut(actor.id(), workDate, updated.get(0).toLocalDateTime(), at);
+    auditWriter.write(actor, "CLOCK_OUT", "attendance_records", actor.id() + ":" + workDate, null);
+    return new PunchResult(Outcome.PUNCHED, now);
+  }
+  /**
+   * 退勤UPDATEが0件だった場合だけ理由を調べる（成功時の往復は増やさない）。
+   */
+  private PunchResult explainClockOutMiss(long userId, LocalDate workDate) {
+    List<Timestamp[]> rows = jdbc.query(
+        "SELECT clock_in, clock_out FROM attendance_records WHERE user_id=? AND work_date=?",
+        (rs, rn) -> new Timestamp[] { rs.getTimestamp("clock_in"), rs.getTimestamp("clock_out") },
+        userId, Date.valueOf(workDate)
+    );
+    if (rows.isEmpty()) return new PunchResult(Outcome.NO_RECORD, null);
+    Timestamp[] row = rows.get(0);
+    if (row[0] == null) return new PunchResult(Outcome.NOT_CLOCKED_IN, null);
+    return new PunchResult(Outcome.ALREADY_PUNCHED, row[1]);
+  }
+  /**
+   * 出勤MERGEが0件だった場合だけ理由を調べる。出勤済み、または退勤だけの行で打刻が退勤より後。
+   */
+  private PunchResult explainClockInMiss(long userId, LocalDate workDate) {
+    List<Timestamp[]> rows = jdbc.query(
+        "SELECT clock_in, clock_out FROM attendance_records WHERE user_id=? AND work_date=?",
+        (rs, rn) -> new Timestamp[] { rs.getTimestamp("clock_in"), rs.getTimestamp("clock_out") },
+        userId, Date.valueOf(workDate)
+    );
+    if (rows.isEmpty()) return new PunchResult(Outcome.ALREADY_PUNCHED, null);
+    Timestamp[] row = rows.get(0);
+    if (row[0] == null && row[1] != null) return new PunchResult(Outcome.ALREADY_CLOCKED_OUT, row[1]);
+    return new PunchResult(Outcome.ALREADY_PUNCHED, row[0]);
+  }
+}
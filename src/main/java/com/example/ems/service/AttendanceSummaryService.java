@@ -0,0 +1,171 @@
+package com.example.ems.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+/**
+ * attendance_monthly_summary（ユーザー×年月の勤怠集計）の維持。
+ * 打刻と同じトランザクションで差分を加算するので、月次レポートは打刻行を走査しない。
+ * 取込や手修正の後は rebuild で attendance_records から作り直す。
+ */
+@Service
+public class AttendanceSummaryService {
+  public record MonthlySummary(
+      long userId,
+      String username,
+      String displayName,
+      String yearMonth,
+      long workedMinutes,
+      int daysPresent,
+      int lateCount,
+      int earlyLeaveCount,
+      int missingClockOut
+  ) {}
+  private static final String ADD_SQL =
+      "MERGE INTO attendance_monthly_summary t " +
+      "USING (SELECT CAST(? AS BIGINT) AS user_id, CAST(? AS CHAR(7)) AS year_month, CAST(? AS BIGINT) AS worked, " +
+      "CAST(? AS INT) AS present, CAST(? AS INT) AS late, CAST(? AS INT) AS early, CAST(? AS INT) AS missing, " +
+      "CAST(? AS TIMESTAMP) AS ts) s " +
+      "ON t.user_id = s.user_id AND t.year_month = s.year_month " +
+      "WHEN MATCHED THEN UPDATE SET worked_minutes = t.worked_minutes + s.worked, days_present = t.days_present + s.present, " +
+      "late_count = t.late_count + s.late, early_leave_count = t.early_leave_count + s.early, " +
+      "missing_clock_out = t.missing_clock_out + s.missing, updated_at = s.ts " +
+      "WHEN NOT MATCHED THEN INSERT (user_id, year_month, worked_minutes, days_present, late_count, early_leave_count, missing_clock_out, updated_at) " +
+      "VALUES (s.user_id, s.year_month, s.worked, s.present, s.late, s.early, s.missing, s.ts)";
+  private static final String REBUILD_SQL =
+      "INSERT INTO attendance_monthly_summary " +
+      "(user_id, year_month, worked_minutes, days_present, late_count, early_leave_count, missing_clock_out, updated_at) " +
+      "SELECT user_id, FORMATDATETIME(work_date, 'yyyy-MM'), " +
+      "COALESCE(SUM(CASE WHEN clock_in IS NOT NULL AND clock_out IS NOT NULL " +
+      "  THEN CAST(FLOOR((EXTRACT(EPOCH FROM clock_out) - EXTRACT(EPOCH FROM clock_in)) / 60) AS BIGINT) END), 0), " +
+      "COUNT(clock_in), " +
+      "SUM(CASE WHEN clock_in > DATEADD('MINUTE', ?, CAST(work_date AS TIMESTAMP)) THEN 1 ELSE 0 END), " +
+      "SUM(CASE WHEN clock_in IS NOT NULL AND clock_out < DATEADD('MINUTE', ?, CAST(work_date AS TIMESTAMP)) THEN 1 ELSE 0 END), " +
+      "SUM(CASE WHEN clock_in IS NOT NULL AND clock_out IS NULL THEN 1 ELSE 0 END), " +
+      "? " +
+      "FROM attendance_records WHERE work_date >= ? AND work_date < ? " +
+      "GROUP BY user_id, FORMATDATETIME(work_date, 'yyyy-MM')";
+  private final JdbcTemplate jdbc;
+  private final LocalTime workStart;
+  private final LocalTime workEnd;
+  public AttendanceSummaryService(JdbcTemplate jdbc,
+                                  @Value("${ems.attendance.work-start:09:00}") String workStart,
+                                  @Value("${ems.attendance.work-end:18:00}") String workEnd) {
+    this.jdbc = jdbc;
+    this.workStart = LocalTime.parse(workStart);
+    this.workEnd = LocalTime.parse(workEnd);
+  }
+  /**
+   * 出勤打刻の差分（出勤日数+1 / 未退勤+1 / 遅刻判定）。呼び出し元のトランザクションで実行する。
+   */
+  public void applyClockIn(long userId, LocalDate workDate, LocalDateTime clockIn) {
+    int late = clockIn.isAfter(workDate.atTime(workStart)) ? 1 : 0;
+    add(userId, YearMonth.from(workDate), 0, 1, late, 0, 1);
+  }
+  /**
+   * 退勤だけの行（取込）に出勤を打刻したときの差分。1日分（出勤日数+1 / 遅刻 / 勤務分 / 早退）をまとめて足し、
+   * 未退勤は増やさない（rebuild と同じ値になる）。呼び出し元のトランザクションで実行する。
+   */
+  public void applyDay(long userId, LocalDate workDate, LocalDateTime clockIn, LocalDateTime clockOut) {
+    long minutes = ChronoUnit.MINUTES.between(clockIn, clockOut);
+    int late = clockIn.isAfter(workDate.atTime(workStart)) ? 1 : 0;
+    int early = clockOut.isBefore(workDate.atTime(workEnd)) ? 1 : 0;
+    add(userId, YearMonth.from(workDate), minutes, 1, late, early, 0);
+  }
+  /**
+   * 退勤打刻の差分（勤務分 / 未退勤-1 / 早退判定）。呼び出し元のトランザクションで実行する。
+   */
+  public void applyClockOut(long userId, LocalDate workDate, LocalDateTime clockIn, LocalDateTime clockOut) {
+    long minutes = ChronoUnit.MINUTES.between(clockIn, clockOut);
+    int early = clockOut.isBefore(workDate.atTime(workEnd)) ? 1 : 0;
+    add(userId, YearMonth.from(workDate), minutes, 0, 0, early, -1);
+  }
+  private void add(long userId, YearMonth ym, long worked, int present, int late, int early, int missing) {
+    Object[] args = { userId, ym.toString(), worked, present, late, early, missing, Timestamp.valueOf(LocalDateTime.now()) };
+    try {
+      jdbc.update(ADD_SQL, args);
+    } catch (DuplicateKeyException e) {
+      // 月初の行を別セッションが同時に作成した。2回目は MATCHED 側で加算される
+      jdbc.update(ADD_SQL, args);
+    }
+  }
+  /**
+   * [from, to] の月を attendance_records から作り直す。戻り値は作成した集計行数。
+   */
+  @Transactional
+  public int rebuild(YearMonth from, YearMonth to) {
+    LocalDate start = from.atDay(1);
+    LocalDate endExclusive = to.plusMonths(1).atDay(1);
+    jdbc.update("DELETE FROM attendance_monthly_summary WHERE year_month >= ? AND year_month <= ?",
+        from.toString(), to.toString());
+    return jdbc.update(REBUILD_SQL,
+        workStart.toSecondOfDay() / 60,
+        workEnd.toSecondOfDay() / 60,
+        Timestamp.valueOf(LocalDateTime.now()),
+        Date.valueOf(start),
+        Date.valueOf(endExclusive));
+  }
+  @Transactional
+  public int rebuildMonths(Collection<YearMonth> months) {
+    int rows = 0;
+    for (YearMonth ym : new TreeSet<>(months)) {
+      rows += rebuild(ym, ym);
+    }
+    return rows;
+  }
+  @Transactional
+  public int rebuildAll() {
+    jdbc.update("DELETE FROM attendance_monthly_summary");
+    Date min = jdbc.queryForObject("SELECT MIN(work_date) FROM attendance_records", Date.class);
+    Date max = jdbc.queryForObject("SELECT MAX(work_date) FROM attendance_records", Date.class);
+    if (min == null || max == null) return 0;
+    return rebuild(YearMonth.from(min.toLocalDate()), YearMonth.from(max.toLocalDate()));
+  }
+  public List<MonthlySummary> listMonth(YearMonth ym) {
+    return jdbc.query(
+        "SELECT s.user_id, u.username, u.display_name, s.year_month, s.worked_minutes, s.days_present, " +
+        "s.late_count, s.early_leave_count, s.missing_clock_out " +
+        "FROM attendance_monthly_summary s JOIN users u ON s.user_id = u.id " +
+        "WHERE s.year_month = ? ORDER BY s.user_id",
+        (rs, rn) -> mapSummary(rs),
+        ym.toString()
+    );
+  }
+  public MonthlySummary findForUser(long userId, YearMonth ym) {
+    List<MonthlySummary> rows = jdbc.query(
+        "SELECT s.user_id, u.username, u.display_name, s.year_month, s.worked_minutes, s.days_present, " +
+        "s.late_count, s.early_leave_count, s.missing_clock_out " +
+        "FROM attendance_monthly_summary s JOIN users u ON s.user_id = u.id " +
+        "WHERE s.user_id = ? AND s.year_month = ?",
+        (rs, rn) -> mapSummary(rs),
+        userId, ym.toString()
+    );
+    return rows.isEmpty() ? null : rows.get(0);
+  }
+  private static MonthlySummary mapSummary(ResultSet rs) throws SQLException {
+    return new MonthlySummary(
+        rs.getLong("user_id"),
+        rs.getString("username"),
+        rs.getString("display_name"),
+        rs.getString("year_month"),
+        rs.getLong("worked_minutes"),
+        rs.getInt("days_present"),
+        rs.getInt("late_count"),
+        rs.getInt("early_leave_count"),
+        rs.getInt("missing_clock_out")
+    );
+  }
+}
@@ -0,0 +1,224 @@
+package com.example.ems.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+/**
+ * 保持期間を過ぎた audit_logs を月単位の圧縮セグメント（AuditSegment）へ退避し、DBから削除する。
+ *
+ * 1か月の中で、既存セグメントが網羅済みの範囲 [月初, coveredTo) はDBから削除するだけ、
+ * 残り [coveredTo, min(月末, cutoff)) を新しいセグメントに書いてから削除する。
+ * セグメント作成後・削除前に落ちても、次回は削除だけが行われ二重に退避されない。
+ * 削除は deleteChunk 件ずつ分けて行い、AUTO_SERVER で共有するDBのロックを長く持たない。
+ */
+@Service
+public class AuditArchiveService {
+  private static final Logger log = LoggerFactory.getLogger(AuditArchiveService.class);
+  public record ArchiveResult(int segments, long archivedRows, long deletedRows, long bytesWritten, long elapsedMs) {}
+  public record MonthInfo(YearMonth month, int segments, long rows, long bytes) {}
+  private record Stored(Path seg, AuditSegment.Index index) {}
+  private final JdbcTemplate jdbc;
+  private final Path dir;
+  private final int retentionDays;
+  private final int blockRows;
+  private final int deleteChunk;
+  public AuditArchiveService(JdbcTemplate jdbc,
+                             @Value("${ems.audit.archive.dir:./data/audit-archive}") String dir,
+                             @Value("${ems.audit.archive.retention-days:180}") int retentionDays,
+                             @Value("${ems.audit.archive.block-rows:1000}") int blockRows,
+                             @Value("${ems.audit.archive.delete-chunk:1000}") int deleteChunk) {
+    this.jdbc = jdbc;
+    this.dir = Path.of(dir);
+    this.retentionDays = retentionDays;
+    this.blockRows = blockRows;
+    this.deleteChunk = deleteChunk;
+  }
+  public int getRetentionDays() {
+    return retentionDays;
+  }
+  public ArchiveResult archiveExpired() {
+    return archive(LocalDateTime.now().minusDays(retentionDays).toLocalDate().atStartOfDay());
+  }
+  /**
+   * created_at &lt; cutoff の行を退避する。
+   */
+  public synchronized ArchiveResult archive(LocalDateTime cutoff) {
+    long started = System.nanoTime();
+    Timestamp oldest = jdbc.queryForObject("SELECT MIN(created_at) FROM audit_logs", Timestamp.class);
+    if (oldest == null || !oldest.toLocalDateTime().isBefore(cutoff)) {
+      return new ArchiveResult(0, 0, 0, 0, 0);
+    }
+    try {
+      Files.createDirectories(dir);
+      int segments = 0;
+      long archived = 0;
+      long deleted = 0;
+      long bytes = 0;
+      Map<YearMonth, List<Stored>> existing = loadIndexes();
+      for (YearMonth ym = YearMonth.from(oldest.toLocalDateTime()); !ym.atDay(1).atStartOfDay().isAfter(cutoff); ym = ym.plusMonths(1)) {
+        LocalDateTime monthStart = ym.atDay(1).atStartOfDay();
+        LocalDateTime monthEnd = ym.plusMonths(1).atDay(1).atStartOfDay();
+        LocalDateTime rangeEnd = monthEnd.isBefore(cutoff) ? monthEnd : cutoff;
+        List<Stored> stored = existing.getOrDefault(ym, List.of());
+        LocalDateTime coveredTo = monthStart;
+        for (Stored st : stored) {
+          if (st.index().to().isAfter(coveredTo)) coveredTo = st.index().to();
+        }
+        if (coveredTo.isAfter(monthStart)) {
+          deleted += deleteRange(monthStart, coveredTo.isBefore(rangeEnd) ? coveredTo : rangeEnd);
+        }
+        if (!coveredTo.isBefore(rangeEnd)) continue;
+        AuditSegment.Index written = writeSegment(ym, stored.size() + 1, coveredTo, rangeEnd);
+        if (written == null) continue;
+        segments++;
+        archived += written.rows();
+        bytes += written.bytes();
+        deleted += deleteRange(coveredTo, rangeEnd);
+      }
+      long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+      log.info("audit archive: cutoff={} segments={} archived={} deleted={} bytes={} elapsedMs={}",
+          cutoff, segments, archived, deleted, bytes, elapsedMs);
+      return new ArchiveResult(segments, archived, deleted, bytes, elapsedMs);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+  private AuditSegment.Index writeSegment(YearMonth ym, int seq, LocalDateTime from, LocalDateTime to) throws IOException {
+    Path seg = AuditSegment.segPath(dir, ym, seq);
+    try (AuditSegment.SegmentWriter writer = new AuditSegment.SegmentWriter(seg, blockRows)) {
+      IOException[] failure = new IOException[1];
+      jdbc.query(
+          "SELECT id, created_at, actor_id, actor_username, actor_role, action, entity_type, entity_id, detail " +
+          "FROM audit_logs WHERE created_at >= ? AND created_at < ? ORDER BY created_at, id",
+          (RowCallbackHandler) rs -> {
+            if (failure[0] != null) return;
+            long tmp = rs.getLong("actor_id");
+            Long actorId = rs.wasNull() ? null : tmp;
+            try {
+              writer.append(new AuditLogQueryService.Row(
+                  rs.getLong("id"),
+                  rs.getTimestamp("created_at").toLocalDateTime(),
+                  actorId,
+                  rs.getString("actor_username"),
+                  rs.getString("actor_role"),
+                  rs.getString("action"),
+                  rs.getString("entity_type"),
+                  rs.getString("entity_id"),
+                  rs.getString("detail")));
+            } catch (IOException e) {
+              failure[0] = e;
+            }
+          },
+          Timestamp.valueOf(from), Timestamp.valueOf(to)
+      );
+      if (failure[0] != null) throw failure[0];
+      if (writer.rows() == 0) return null;
+      return writer.finish(ym, from, to);
+    }
+  }
+  private long deleteRange(LocalDateTime from, LocalDateTime to) {
+    long total = 0;
+    while (true) {
+      int n = jdbc.update(
+          "DELETE FROM audit_logs WHERE created_at >= ? AND created_at < ? FETCH FIRST " + deleteChunk + " ROWS ONLY",
+          Timestamp.valueOf(from), Timestamp.valueOf(to));
+      total += n;
+      if (n < deleteChunk) return total;
+    }
+  }
+  /**
+   * アーカイブ済みの行を created_at 昇順で visitor に渡す。visitor が false を返したら打ち切る。
+   * filter の from/to に重ならない月・ブロックは読まない。
+   */
+  public void scan(AuditLogQueryService.Filter filter, Predicate<AuditLogQueryService.Row> visitor) {
+    Predicate<AuditLogQueryService.Row> matching = row ->
+        (filter.actorId() == null || filter.actorId().equals(row.actorId()))
+            && (filter.action() == null || filter.action().equals(row.action()))
+            && (filter.entityType() == null || filter.entityType().equals(row.entityType()))
+            && (filter.entityId() == null || filter.entityId().equals(row.entityId()));
+    try {
+      for (Map.Entry<YearMonth, List<Stored>> e : loadIndexes().entrySet()) {
+        YearMonth ym = e.getKey();
+        if (filter.to() != null && !ym.atDay(1).atStartOfDay().isBefore(filter.to())) break;
+        if (filter.from() != null && !ym.plusMonths(1).atDay(1).atStartOfDay().isAfter(filter.from())) continue;
+        for (Stored st : e.getValue()) {
+          boolean more = AuditSegment.scan(st.seg(), st.index(), filter.from(), filter.to(),
+              row -> !matching.test(row) || visitor.test(row));
+          if (!more) return;
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+  public List<MonthInfo> months() {
+    List<MonthInfo> result = new ArrayList<>();
+    for (Map.Entry<YearMonth, List<Stored>> e : loadIndexes().entrySet()) {
+      long rows = 0;
+      long bytes = 0;
+      for (Stored st : e.getValue()) {
+        rows += st.index().rows();
+        bytes += st.index().bytes();
+      }
+      result.add(new MonthInfo(e.getKey(), e.getValue().size(), rows, bytes));
+    }
+    return result;
+  }
+  /**
+   * 全セグメントのチェックサムを検証し、問題の一覧を返す（空なら正常）。
+   */
+  public List<String> verify() {
+    List<String> problems = new ArrayList<>();
+    for (List<Stored> list : loadIndexes().values()) {
+      for (Stored st : list) {
+        try {
+          String problem = Files.exists(st.seg()) ? AuditSegment.verify(st.seg(), st.index()) : st.seg().getFileName() + ": missing";
+          if (problem != null) problems.add(problem);
+        } catch (IOException ex) {
+          problems.add(st.seg().getFileName() + ": " + ex.getMessage());
+        }
+      }
+    }
+    return problems;
+  }
+  /**
+   * 月ごとのセグメント索引（連番順）。.idx のないセグメントは書込み途中なので無視する。
+   */
+  private Map<YearMonth, List<Stored>> loadIndexes() {
+    Map<YearMonth, List<Stored>> result = new TreeMap<>();
+    if (!Files.isDirectory(dir)) return result;
+    List<Path> idxFiles = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "audit-*.idx")) {
+      ds.forEach(idxFiles::add);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    idxFiles.sort(null);
+    for (Path p : idxFiles) {
+      try {
+        AuditSegment.Index idx = AuditSegment.readIndex(p);
+        result.computeIfAbsent(Objects.requireNonNull(idx.month(), "month"), k -> new ArrayList<>())
+            .add(new Stored(AuditSegment.segPathForIndex(p), idx));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return result;
+  }
+}
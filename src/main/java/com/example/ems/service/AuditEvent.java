@@ -0,0 +1,31 @@
+package com.example.ems.service;
+import com.example.ems.domain.Actor;
+import java.time.LocalDateTime;
+/**
+ * audit_logs の1行分。created_at は記録を依頼した時点で確定させる（書込みが遅れても時刻はずれない）。
+ */
+public record AuditEvent(
+    Long actorId,
+    String actorUsername,
+    String actorRole,
+    String action,
+    String entityType,
+    String entityId,
+    String detail,
+    String ipAddress,
+    LocalDateTime createdAt
+) {
+  public static AuditEvent of(Actor actor, String action, String entityType, String entityId, String detail) {
+    return new AuditEvent(
+        actor == null ? null : actor.id(),
+        actor == null ? null : actor.username(),
+        actor == null ? null : actor.role(),
+        action,
+        entityType,
+        entityId,
+        detail,
+        null,
+        LocalDateTime.now()
+    );
+  }
+}
@@ -0,0 +1,119 @@
+package com.example.ems.service;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * 監査ログの検索（新しい順）。
+ * 必要な列だけを射影し（users との結合なし）、(created_at, id) のシーク方式でページングするため、
+ * 何ページ目でも1ページ目と同じコストで読める。
+ * 絞り込み条件ごとの複合インデックスは V3_audit_indexes.sql を参照。
+ */
+@Service
+public class AuditLogQueryService {
+  /**
+   * 絞り込み条件。null の項目は条件にしない。時間範囲は [from, to)。
+   */
+  public record Filter(
+      Long actorId,
+      String action,
+      String entityType,
+      String entityId,
+      LocalDateTime from,
+      LocalDateTime to
+  ) {
+    public static Filter none() {
+      return new Filter(null, null, null, null, null, null);
+    }
+  }
+  public record Row(
+      long id,
+      LocalDateTime createdAt,
+      Long actorId,
+      String actorUsername,
+      String actorRole,
+      String action,
+      String entityType,
+      String entityId,
+      String detail
+  ) {}
+  /**
+   * 次ページの開始位置（直前ページ最後の行）。
+   */
+  public record Cursor(LocalDateTime createdAt, long id) {}
+  /**
+   * next が null なら最終ページ。
+   */
+  public record Page(List<Row> rows, Cursor next) {}
+  private final JdbcTemplate jdbc;
+  public AuditLogQueryService(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+  public Page page(Filter filter, Cursor after, int size) {
+    StringBuilder sql = new StringBuilder(
+        "SELECT id, created_at, actor_id, actor_username, actor_role, action, entity_type, entity_id, detail " +
+        "FROM audit_logs WHERE 1=1");
+    List<Object> args = new ArrayList<>();
+    if (filter.actorId() != null) {
+      sql.append(" AND actor_id=?");
+      args.add(filter.actorId());
+    }
+    if (filter.action() != null) {
+      sql.append(" AND action=?");
+      args.add(filter.action());
+    }
+    if (filter.entityType() != null) {
+      sql.append(" AND entity_type=?");
+      args.add(filter.entityType());
+    }
+    if (filter.entityId() != null) {
+      sql.append(" AND entity_id=?");
+      args.add(filter.entityId());
+    }
+    if (filter.from() != null) {
+      sql.append(" AND created_at>=?");
+      args.add(Timestamp.valueOf(filter.from()));
+    }
+    if (filter.to() != null) {
+      sql.append(" AND created_at<?");
+      args.add(Timestamp.valueOf(filter.to()));
+    }
+    if (after != null) {
+      // 先頭列の範囲条件を単独で出しておくとインデックスの範囲走査になる
+      Timestamp at = Timestamp.valueOf(after.createdAt());
+      sql.append(" AND created_at<=? AND (created_at<? OR id<?)");
+      args.add(at);
+      args.add(at);
+      args.add(after.id());
+    }
+    sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+    args.add(size + 1);
+    List<Row> rows = jdbc.query(
+        sql.toString(),
+        (rs, rn) -> {
+          long tmp = rs.getLong("actor_id");
+          Long actorId = rs.wasNull() ? null : tmp;
+          return new Row(
+              rs.getLong("id"),
+              rs.getTimestamp("created_at").toLocalDateTime(),
+              actorId,
+              rs.getString("actor_username"),
+              rs.getString("actor_role"),
+              rs.getString("action"),
+              rs.getString("entity_type"),
+              rs.getString("entity_id"),
+              rs.getString("detail")
+          );
+        },
+        args.toArray()
+    );
+    if (rows.size() <= size) {
+      return new Page(rows, null);
+    }
+    List<Row> pageRows = new ArrayList<>(rows.subList(0, size));
+    Row last = pageRows.get(size - 1);
+    return new Page(pageRows, new Cursor(last.createdAt(), last.id()));
+  }
+}
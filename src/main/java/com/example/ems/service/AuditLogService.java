@@ -4,32 +4,29 @@ import com.example.ems.domain.UserAccount;
 import com.example.ems.repository.AuditLogRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
 import java.util.List;
 @Service
 public class AuditLogService {
   private final AuditLogRepository auditLogRepository;
-  public AuditLogService(AuditLogRepository auditLogRepository) {
+  private final AuditSink auditSink;
+  public AuditLogService(AuditLogRepository auditLogRepository, AuditSink auditSink) {
     this.auditLogRepository = auditLogRepository;
+    this.auditSink = auditSink;
   }
-  @Transactional
   public void log(UserAccount actor, String action, String entityType, String entityId, String detail, String ipAddress) {
-    AuditLog log = new AuditLog();
-    if (actor != null) {
-      log.setActor(actor);
-      log.setActorUsername(actor.getUsername());
-      log.setActorRole(actor.getRole().name());
-    } else {
-      log.setActorUsername("SYSTEM");
-      log.setActorRole("SYSTEM");
-    }
-    log.setAction(action);
-    log.setEntityType(entityType);
-    log.setEntityId(entityId);
-    log.setDetail(detail);
-    log.setIpAddress(ipAddress);
-    auditLogRepository.save(log);
+    auditSink.record(new AuditEvent(
+        actor == null ? null : actor.getId(),
+        actor == null ? "SYSTEM" : actor.getUsername(),
+        actor == null ? "SYSTEM" : actor.getRole().name(),
+        action,
+        entityType,
+        entityId,
+        detail,
+        ipAddress,
+        LocalDateTime.now()
+    ));
   }
-  @Transactional
   public void logSystem(String action, String entityType, String entityId, String detail) {
     log(null, action, entityType, entityId, detail, null);
   }
@@ -37,4 +34,4 @@ public class AuditLogService {
   public List<AuditLog> recent() {
     return auditLogRepository.findTop200ByOrderByCreatedAtDesc();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,269 @@
+package com.example.ems.service;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+/**
+ * 監査ログのアーカイブセグメント。
+ *
+ * <pre>
+ * audit-YYYY-MM-NNNN.seg  gzipブロックの連結（1ブロック = 最大 blockRows 行、1行1レコードのTSV）
+ * audit-YYYY-MM-NNNN.idx  疎インデックス（ブロックごとの位置/行数/created_at範囲/CRC32）と全体CRC32
+ * </pre>
+ * セグメントは一度書いたら変更しない（追記はセグメントの追加で行う）。
+ * .idx は .seg を書き終えてから作るので、.idx があるセグメントだけが有効。
+ */
+final class AuditSegment {
+  static final String FORMAT = "ems-audit-segment-1";
+  record Block(long offset, int length, int rows, LocalDateTime first, LocalDateTime last, long crc32) {}
+  /**
+   * from/to はこのセグメントが網羅する created_at の範囲 [from, to)。
+   */
+  record Index(YearMonth month, LocalDateTime from, LocalDateTime to, long rows, long bytes, long crc32, List<Block> blocks) {}
+  private AuditSegment() {}
+  static Path segPath(Path dir, YearMonth month, int seq) {
+    return dir.resolve(String.format("audit-%s-%04d.seg", month, seq));
+  }
+  static Path idxPath(Path seg) {
+    String name = seg.getFileName().toString();
+    return seg.resolveSibling(name.substring(0, name.length() - ".seg".length()) + ".idx");
+  }
+  static Path segPathForIndex(Path idx) {
+    String name = idx.getFileName().toString();
+    return idx.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".seg");
+  }
+  static final class SegmentWriter implements Closeable {
+    private final Path target;
+    private final Path tmp;
+    private final OutputStream out;
+    private final int blockRows;
+    private final List<Block> blocks = new ArrayList<>();
+    private final CRC32 fileCrc = new CRC32();
+    private ByteArrayOutputStream buffer;
+    private Writer block;
+    private int blockCount;
+    private LocalDateTime blockFirst;
+    private LocalDateTime blockLast;
+    private long offset;
+    private long rows;
+    SegmentWriter(Path target, int blockRows) throws IOException {
+      this.target = target;
+      this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+      this.out = Files.newOutputStream(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      this.blockRows = blockRows;
+    }
+    void append(AuditLogQueryService.Row row) throws IOException {
+      if (block == null) {
+        buffer = new ByteArrayOutputStream();
+        block = new OutputStreamWriter(new GZIPOutputStream(buffer), StandardCharsets.UTF_8);
+        blockFirst = row.createdAt();
+      }
+      block.write(encode(row));
+      block.write('\n');
+      blockLast = row.createdAt();
+      blockCount++;
+      rows++;
+      if (blockCount >= blockRows) {
+        closeBlock();
+      }
+    }
+    long rows() {
+      return rows;
+    }
+    private void closeBlock() throws IOException {
+      if (block == null) return;
+      block.close();
+      byte[] bytes = buffer.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      fileCrc.update(bytes);
+      out.write(bytes);
+      blocks.add(new Block(offset, bytes.length, blockCount, blockFirst, blockLast, crc.getValue()));
+      offset += bytes.length;
+      block = null;
+      buffer = null;
+      blockCount = 0;
+    }
+    /**
+     * .seg を確定させ、続けて .idx を書く。
+     */
+    Index finish(YearMonth month, LocalDateTime from, LocalDateTime to) throws IOException {
+      closeBlock();
+      out.flush();
+      out.close();
+      try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        ch.force(true);
+      }
+      Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+      Index index = new Index(month, from, to, rows, offset, fileCrc.getValue(), List.copyOf(blocks));
+      writeIndex(idxPath(target), index);
+      return index;
+    }
+    @Override
+    public void close() throws IOException {
+      out.close();
+      Files.deleteIfExists(tmp);
+    }
+  }
+  static void writeIndex(Path idx, Index index) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("format=").append(FORMAT).append('\n');
+    sb.append("month=").append(index.month()).append('\n');
+    sb.append("from=").append(index.from()).append('\n');
+    sb.append("to=").append(index.to()).append('\n');
+    sb.append("rows=").append(index.rows()).append('\n');
+    sb.append("bytes=").append(index.bytes()).append('\n');
+    sb.append("crc32=").append(index.crc32()).append('\n');
+    for (Block b : index.blocks()) {
+      sb.append("block=").append(b.offset()).append(',').append(b.length()).append(',').append(b.rows())
+          .append(',').append(b.first()).append(',').append(b.last()).append(',').append(b.crc32()).append('\n');
+    }
+    Path tmp = idx.resolveSibling(idx.getFileName() + ".tmp");
+    Files.writeString(tmp, sb.toString(), StandardCharsets.UTF_8);
+    Files.move(tmp, idx, StandardCopyOption.ATOMIC_MOVE);
+  }
+  static Index readIndex(Path idx) throws IOException {
+    YearMonth month = null;
+    LocalDateTime from = null;
+    LocalDateTime to = null;
+    long rows = 0;
+    long bytes = 0;
+    long crc = 0;
+    List<Block> blocks = new ArrayList<>();
+    for (String line : Files.readAllLines(idx, StandardCharsets.UTF_8)) {
+      int eq = line.indexOf('=');
+      if (eq < 0) continue;
+      String key = line.substring(0, eq);
+      String value = line.substring(eq + 1);
+      switch (key) {
+        case "format" -> {
+          if (!FORMAT.equals(value)) throw new IOException("unsupported segment format: " + value + " (" + idx + ")");
+        }
+        case "month" -> month = YearMonth.parse(value);
+        case "from" -> from = LocalDateTime.parse(value);
+        case "to" -> to = LocalDateTime.parse(value);
+        case "rows" -> rows = Long.parseLong(value);
+        case "bytes" -> bytes = Long.parseLong(value);
+        case "crc32" -> crc = Long.parseLong(value);
+        case "block" -> {
+          String[] f = value.split(",");
+          blocks.add(new Block(Long.parseLong(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+              LocalDateTime.parse(f[3]), LocalDateTime.parse(f[4]), Long.parseLong(f[5])));
+        }
+        default -> {}
+      }
+    }
+    return new Index(month, from, to, rows, bytes, crc, List.copyOf(blocks));
+  }
+  /**
+   * [from, to) と重なるブロックだけを展開して visitor に渡す。visitor が false を返したら打ち切り、false を返す。
+   * from/to が null の場合は無制限。
+   */
+  static boolean scan(Path seg, Index index, LocalDateTime from, LocalDateTime to,
+                      Predicate<AuditLogQueryService.Row> visitor) throws IOException {
+    try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.READ)) {
+      for (Block b : index.blocks()) {
+        if (from != null && b.last().isBefore(from)) continue;
+        if (to != null && !b.first().isBefore(to)) break;
+        byte[] bytes = readBlock(ch, b);
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8))) {
+          String line;
+          while ((line = r.readLine()) != null) {
+            AuditLogQueryService.Row row = decode(line);
+            if (from != null && row.createdAt().isBefore(from)) continue;
+            if (to != null && !row.createdAt().isBefore(to)) return true;
+            if (!visitor.test(row)) return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+  /**
+   * 全体CRC32とブロックごとのCRC32を検証する。問題がなければ null、あればその内容。
+   */
+  static String verify(Path seg, Index index) throws IOException {
+    if (Files.size(seg) != index.bytes()) {
+      return seg.getFileName() + ": size mismatch (" + Files.size(seg) + " != " + index.bytes() + ")";
+    }
+    CRC32 file = new CRC32();
+    try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.READ)) {
+      for (Block b : index.blocks()) {
+        byte[] bytes;
+        try {
+          bytes = readBlock(ch, b);
+        } catch (IOException e) {
+          return seg.getFileName() + ": " + e.getMessage();
+        }
+        file.update(bytes);
+      }
+    }
+    if (file.getValue() != index.crc32()) {
+      return seg.getFileName() + ": checksum mismatch";
+    }
+    return null;
+  }
+  private static byte[] readBlock(FileChannel ch, Block b) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(b.length());
+    long pos = b.offset();
+    while (buf.hasRemaining()) {
+      int n = ch.read(buf, pos);
+      if (n < 0) throw new IOException("unexpected end of segment at " + pos);
+      pos += n;
+    }
+    byte[] bytes = buf.array();
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    if (crc.getValue() != b.crc32()) {
+      throw new IOException("block checksum mismatch at offset " + b.offset());
+    }
+    return bytes;
+  }
+  static String encode(AuditLogQueryService.Row r) {
+    return String.join("\t",
+        String.valueOf(r.id()),
+        r.createdAt().toString(),
+        TsvCodec.escape(r.actorId() == null ? null : String.valueOf(r.actorId())),
+        TsvCodec.escape(r.actorUsername()),
+        TsvCodec.escape(r.actorRole()),
+        TsvCodec.escape(r.action()),
+        TsvCodec.escape(r.entityType()),
+        TsvCodec.escape(r.entityId()),
+        TsvCodec.escape(r.detail()));
+  }
+  static AuditLogQueryService.Row decode(String line) {
+    String[] f = line.split("\t", -1);
+    String actorId = TsvCodec.unescape(f[2]);
+    return new AuditLogQueryService.Row(
+        Long.parseLong(f[0]),
+        LocalDateTime.parse(f[1]),
+        actorId == null ? null : Long.valueOf(actorId),
+        TsvCodec.unescape(f[3]),
+        TsvCodec.unescape(f[4]),
+        TsvCodec.unescape(f[5]),
+        TsvCodec.unescape(f[6]),
+        TsvCodec.unescape(f[7]),
+        TsvCodec.unescape(f[8]));
+  }
+}
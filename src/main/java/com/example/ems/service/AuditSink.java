@@ -0,0 +1,13 @@
+package com.example.ems.service;
+/**
+ * 監査イベントの書込み先。実装は ems.audit.mode で切り替える（AuditConfig）。
+ */
+public interface AuditSink {
+  record Stats(long accepted, long written, long dropped, long failed, int queued) {}
+  void record(AuditEvent event);
+  /**
+   * 受付済みのイベントを書き込み終えるまで待つ（監査ログ画面の表示前など）。
+   */
+  void flush();
+  Stats stats();
+}
@@ -0,0 +1,130 @@
+package com.example.ems.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+/**
+ * 日ごとの記録漏れ（メンタル記録なし / 退勤打刻なし）の検出とリマインダー。
+ *
+ * 有効な利用者を起点に uq_mental / uq_att を1人1回引く1文で検出する。
+ * リマインダーは検出と同じ条件の INSERT ... SELECT で gap_reminders に送信済みとして記録し、
+ * その利用者だけに一斉送信する。gap_reminders に残っている人は再実行で除かれる。
+ * 送信者は ems.gaps.sender の利用者。既定の ems-system は V16 で作られ、別の名前を設定して
+ * まだいなければ初回の送信時に同じ形（無効 + 照合できないハッシュ '!'）で作る。
+ */
+@Service
+public class DailyGapService {
+  public enum Kind {
+    MENTAL_CHECKIN("メンタル記録なし",
+        "FROM users u WHERE u.enabled=TRUE " +
+        "AND NOT EXISTS (SELECT 1 FROM mental_checkins m WHERE m.user_id=u.id AND m.check_date=?)"),
+    CLOCK_OUT("退勤打刻なし",
+        "FROM users u JOIN attendance_records a ON a.user_id=u.id AND a.work_date=? " +
+        "WHERE u.enabled=TRUE AND a.clock_in IS NOT NULL AND a.clock_out IS NULL");
+    private final String label;
+    private final String from;
+    Kind(String label, String from) {
+      this.label = label;
+      this.from = from;
+    }
+    public String label() {
+      return label;
+    }
+    String body(LocalDate date) {
+      return switch (this) {
+        case MENTAL_CHECKIN -> "【リマインダー】" + date + " のメンタル記録がまだありません。メニューの「自分のメンタル記録（今日）」から記録してください。";
+        case CLOCK_OUT -> "【リマインダー】" + date + " の退勤打刻がありません。打刻漏れの場合は勤怠の修正を申請してください。";
+      };
+    }
+  }
+  public record Gap(long userId, String username, String displayName, boolean reminded) {}
+  /**
+   * broadcastId は送信しなかった（対象0人）とき 0。
+   */
+  public record RemindResult(Kind kind, int reminded, long broadcastId) {}
+  private final JdbcTemplate jdbc;
+  private final MessageService messages;
+  private final String senderUsername;
+  private volatile Long senderId;
+  public DailyGapService(JdbcTemplate jdbc, MessageService messages,
+                         @Value("${ems.gaps.sender:ems-system}") String senderUsername) {
+    this.jdbc = jdbc;
+    this.messages = messages;
+    this.senderUsername = senderUsername;
+  }
+  /**
+   * date の記録漏れ（ユーザー名順）。reminded はその日の同じ種類のリマインダーが送信済みか。
+   */
+  public List<Gap> find(Kind kind, LocalDate date) {
+    Date day = Date.valueOf(date);
+    return jdbc.query(
+        "SELECT u.id, u.username, u.display_name, " +
+        "EXISTS (SELECT 1 FROM gap_reminders r WHERE r.kind=? AND r.gap_date=? AND r.user_id=u.id) AS reminded " +
+        kind.from + " ORDER BY u.username",
+        (rs, rn) -> new Gap(rs.getLong("id"), rs.getString("username"), rs.getString("display_name"), rs.getBoolean("reminded")),
+        kind.name(), day, day
+    );
+  }
+  /**
+   * まだリマインダーを送っていない記録漏れの利用者に送る。何度実行しても1人1回。
+   */
+  @Transactional
+  public RemindResult remind(Kind kind, LocalDate date) {
+    List<Long> userIds;
+    try {
+      userIds = claim(kind, date);
+    } catch (DuplicateKeyException e) {
+      // 同時に実行された別セッションが先に記録した。その分を除いてもう一度
+      userIds = claim(kind, date);
+    }
+    if (userIds.isEmpty()) return new RemindResult(kind, 0, 0);
+    MessageService.BroadcastResult sent = messages.broadcast(
+        senderId(), MessageService.Target.userIds(userIds, "GAP:" + kind + ":" + date), kind.body(date));
+    return new RemindResult(kind, sent.recipients(), sent.broadcastId());
+  }
+  private List<Long> claim(Kind kind, LocalDate date) {
+    Date day = Date.valueOf(date);
+    return jdbc.queryForList(
+        "SELECT user_id FROM FINAL TABLE (" +
+        "INSERT INTO gap_reminders (kind, gap_date, user_id, created_at) " +
+        "SELECT CAST(? AS VARCHAR(20)), CAST(? AS DATE), u.id, CAST(? AS TIMESTAMP) " + kind.from +
+        " AND NOT EXISTS (SELECT 1 FROM gap_reminders r WHERE r.kind=? AND r.gap_date=? AND r.user_id=u.id))",
+        Long.class,
+        kind.name(), day, Timestamp.valueOf(LocalDateTime.now()), day, kind.name(), day
+    );
+  }
+  private long senderId() {
+    Long id = senderId;
+    if (id == null) {
+      id = findSender();
+      if (id == null) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try {
+          jdbc.update(
+              "INSERT INTO users (username, display_name, password_hash, role, enabled, created_at, updated_at) " +
+              "VALUES (?, 'システム', '!', 'EMPLOYEE', FALSE, ?, ?)",
+              senderUsername, now, now
+          );
+        } catch (DuplicateKeyException e) {
+          // 別セッションが同時に作成した
+        }
+        id = findSender();
+      }
+      if (id == null) {
+        throw new IllegalStateException("reminder sender not found: ems.gaps.sender=" + senderUsername);
+      }
+      senderId = id;
+    }
+    return id;
+  }
+  private Long findSender() {
+    List<Long> ids = jdbc.queryForList("SELECT id FROM users WHERE username=?", Long.class, senderUsername);
+    return ids.isEmpty() ? null : ids.get(0);
+  }
+}
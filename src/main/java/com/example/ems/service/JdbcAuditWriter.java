@@ -0,0 +1,49 @@
+package com.example.ems.service;
+import com.example.ems.domain.Actor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * audit_logs への同期INSERT。
+ * 呼び出し元のトランザクションに参加するため、業務更新と監査行を同一コミットにできる。
+ * 業務と同一コミットである必要がない監査は AuditSink 経由で書く。
+ */
+@Component
+public class JdbcAuditWriter {
+  static final String INSERT_SQL =
+      "INSERT INTO audit_logs (actor_id, actor_username, actor_role, action, entity_type, entity_id, detail, ip_address, created_at) " +
+      "VALUES (?,?,?,?,?,?,?,?,?)";
+  private final JdbcTemplate jdbc;
+  public JdbcAuditWriter(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+  public void write(Actor actor, String action, String entityType, String entityId, String detail) {
+    write(AuditEvent.of(actor, action, entityType, entityId, detail));
+  }
+  public void write(AuditEvent event) {
+    jdbc.update(INSERT_SQL, toArgs(event));
+  }
+  public void writeBatch(List<AuditEvent> events) {
+    if (events.isEmpty()) return;
+    List<Object[]> args = new ArrayList<>(events.size());
+    for (AuditEvent e : events) {
+      args.add(toArgs(e));
+    }
+    jdbc.batchUpdate(INSERT_SQL, args);
+  }
+  private static Object[] toArgs(AuditEvent e) {
+    return new Object[] {
+        e.actorId(),
+        e.actorUsername(),
+        e.actorRole(),
+        e.action(),
+        e.entityType(),
+        e.entityId(),
+        e.detail(),
+        e.ipAddress(),
+        Timestamp.valueOf(e.createdAt())
+    };
+  }
+}
@@ -0,0 +1,209 @@
+package com.example.ems.service;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * 有給休暇の台帳（leave_ledger）と残日数（leave_balance）。
+ * 残日数は利用者ごとの1行で、付与/消化/失効と同じトランザクションで増減する（参照は主キーの1点読み）。
+ * 消化と失効は失効日の近い GRANT の remaining から順に引く。
+ */
+@Service
+public class LeaveLedgerService {
+  public enum Category {
+    PAID("有給休暇"),
+    SPECIAL_BEREAVEMENT("特別休暇:忌引き"),
+    SPECIAL_MARRIAGE("特別休暇:結婚"),
+    SPECIAL_OTHER("特別休暇:その他");
+    private final String label;
+    Category(String label) {
+      this.label = label;
+    }
+    public String label() {
+      return label;
+    }
+  }
+  public record Entry(
+      long id,
+      String kind,
+      int days,
+      Integer remaining,
+      LocalDate expiresOn,
+      Long requestId,
+      String note,
+      LocalDateTime createdAt
+  ) {}
+  public record ExpireResult(int grants, long days) {}
+  private static final String ADD_BALANCE_SQL =
+      "MERGE INTO leave_balance t " +
+      "USING (SELECT CAST(? AS BIGINT) AS user_id, CAST(? AS INT) AS delta, CAST(? AS TIMESTAMP) AS ts) s " +
+      "ON t.user_id = s.user_id " +
+      "WHEN MATCHED THEN UPDATE SET paid_days = t.paid_days + s.delta, updated_at = s.ts " +
+      "WHEN NOT MATCHED THEN INSERT (user_id, paid_days, updated_at) VALUES (s.user_id, s.delta, s.ts)";
+  private final JdbcTemplate jdbc;
+  public LeaveLedgerService(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+  /**
+   * 期間の日数（開始日・終了日を含む暦日）。
+   */
+  public static int leaveDays(LocalDate start, LocalDate end) {
+    return (int) ChronoUnit.DAYS.between(start, end) + 1;
+  }
+  public int balance(long userId) {
+    List<Integer> rows = jdbc.queryForList("SELECT paid_days FROM leave_balance WHERE user_id=?", Integer.class, userId);
+    return rows.isEmpty() ? 0 : rows.get(0);
+  }
+  /**
+   * 付与。expiresOn が null なら失効しない。戻り値は台帳のID。
+   */
+  @Transactional
+  public long grant(long userId, int days, LocalDate expiresOn, String note, long grantedById) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    Long id = jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO leave_ledger (user_id, kind, days, remaining, expires_on, note, created_by_id, created_at) " +
+        "VALUES (?,'GRANT',?,?,?,?,?,?))",
+        Long.class, userId, days, days, expiresOn == null ? null : Date.valueOf(expiresOn), note, grantedById, now
+    );
+    try {
+      jdbc.update(ADD_BALANCE_SQL, userId, days, now);
+    } catch (DuplicateKeyException e) {
+      // 初回の残日数行を別セッションが同時に作成した。2回目は MATCHED 側で加算される
+      jdbc.update(ADD_BALANCE_SQL, userId, days, now);
+    }
+    return id;
+  }
+  /**
+   * 有効な利用者全員への一括付与（導入時の初期残日数の登録、年次付与）。付与した人数を返す。
+   */
+  @Transactional
+  public int grantAll(int days, LocalDate expiresOn, String note, long grantedById) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    List<Long> users = jdbc.queryForList(
+        "SELECT user_id FROM FINAL TABLE (INSERT INTO leave_ledger (user_id, kind, days, remaining, expires_on, note, created_by_id, created_at) " +
+        "SELECT id, 'GRANT', ?, ?, ?, ?, ?, ? FROM users WHERE enabled=TRUE)",
+        Long.class, days, days, expiresOn == null ? null : Date.valueOf(expiresOn), note, grantedById, now
+    );
+    List<Object[]> balances = new ArrayList<>(users.size());
+    for (Long userId : users) balances.add(new Object[] { userId, days, now });
+    jdbc.batchUpdate(ADD_BALANCE_SQL, balances);
+    return users.size();
+  }
+  /**
+   * 申請の承認による消化（呼び出し側のトランザクション内で使う）。残日数が足りなければ何も変えずに false。
+   */
+  public boolean consume(long userId, long requestId, int days, long decidedById) {
+    LocalDate today = LocalDate.now();
+    expire(today, userId);
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    int updated = jdbc.update(
+        "UPDATE leave_balance SET paid_days=paid_days-?, updated_at=? WHERE user_id=? AND paid_days>=?",
+        days, now, userId, days
+    );
+    if (updated == 0) return false;
+    List<long[]> grants = jdbc.query(
+        "SELECT id, remaining FROM leave_ledger WHERE user_id=? AND kind='GRANT' AND remaining>0 " +
+        "ORDER BY expires_on NULLS LAST, id FOR UPDATE",
+        (rs, rn) -> new long[] { rs.getLong("id"), rs.getLong("remaining") },
+        userId
+    );
+    int left = days;
+    List<Object[]> take = new ArrayList<>();
+    for (long[] g : grants) {
+      if (left == 0) break;
+      int used = (int) Math.min(left, g[1]);
+      take.add(new Object[] { used, g[0] });
+      left -= used;
+    }
+    if (!take.isEmpty()) {
+      jdbc.batchUpdate("UPDATE leave_ledger SET remaining=remaining-? WHERE id=?", take);
+    }
+    jdbc.update(
+        "INSERT INTO leave_ledger (user_id, kind, days, request_id, created_by_id, created_at) VALUES (?,'CONSUME',?,?,?,?)",
+        userId, -days, requestId, decidedById, now
+    );
+    return true;
+  }
+  /**
+   * 失効日を過ぎた GRANT の remaining を失効させる（全利用者）。
+   */
+  @Transactional
+  public ExpireResult expireDue(LocalDate today) {
+    return expire(today, null);
+  }
+  /**
+   * 1人分の失効（ログイン時。残日数の表示を失効済みの状態にしておく）。
+   */
+  @Transactional
+  public ExpireResult expireDue(LocalDate today, long userId) {
+    return expire(today, userId);
+  }
+  /**
+   * 新しい順の台帳。
+   */
+  public List<Entry> entries(long userId, int limit) {
+    return jdbc.query(
+        "SELECT id, kind, days, remaining, expires_on, request_id, note, created_at FROM leave_ledger " +
+        "WHERE user_id=? ORDER BY created_at DESC, id DESC LIMIT ?",
+        (rs, rn) -> {
+          Date expires = rs.getDate("expires_on");
+          long req = rs.getLong("request_id");
+          Long requestId = rs.wasNull() ? null : req;
+          return new Entry(
+              rs.getLong("id"),
+              rs.getString("kind"),
+              rs.getInt("days"),
+              (Integer) rs.getObject("remaining"),
+              expires == null ? null : expires.toLocalDate(),
+              requestId,
+              rs.getString("note"),
+              rs.getTimestamp("created_at").toLocalDateTime()
+          );
+        },
+        userId, limit
+    );
+  }
+  private ExpireResult expire(LocalDate today, Long userId) {
+    List<Object> args = new ArrayList<>();
+    args.add(Date.valueOf(today));
+    String sql = "SELECT id, user_id, remaining FROM leave_ledger WHERE kind='GRANT' AND expires_on<? AND remaining>0";
+    if (userId != null) {
+      sql += " AND user_id=?";
+      args.add(userId);
+    }
+    List<long[]> due = jdbc.query(sql + " FOR UPDATE",
+        (rs, rn) -> new long[] { rs.getLong("id"), rs.getLong("user_id"), rs.getLong("remaining") },
+        args.toArray());
+    if (due.isEmpty()) return new ExpireResult(0, 0);
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    List<Object[]> ledger = new ArrayList<>(due.size());
+    List<Object[]> grants = new ArrayList<>(due.size());
+    Map<Long, Long> perUser = new LinkedHashMap<>();
+    long days = 0;
+    for (long[] d : due) {
+      ledger.add(new Object[] { d[1], -d[2], d[0], now });
+      grants.add(new Object[] { d[0] });
+      perUser.merge(d[1], d[2], Long::sum);
+      days += d[2];
+    }
+    jdbc.batchUpdate(
+        "INSERT INTO leave_ledger (user_id, kind, days, note, created_at) VALUES (?,'EXPIRE',?,CONCAT('grant=', CAST(? AS VARCHAR)),?)",
+        ledger);
+    jdbc.batchUpdate("UPDATE leave_ledger SET remaining=0 WHERE id=?", grants);
+    List<Object[]> balances = new ArrayList<>(perUser.size());
+    for (Map.Entry<Long, Long> e : perUser.entrySet()) {
+      balances.add(new Object[] { e.getValue(), now, e.getKey() });
+    }
+    jdbc.batchUpdate("UPDATE leave_balance SET paid_days=paid_days-?, updated_at=? WHERE user_id=?", balances);
+    return new ExpireResult(due.size(), days);
+  }
+}
@@ -0,0 +1,97 @@
+package com.example.ems.service;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+/**
+ * 休暇期間の重なり。2つの期間 [s1,e1] と [s2,e2] は e1&gt;=s2 かつ s1&lt;=e2 のとき重なる。
+ * 索引は end_date を start_date より前に置く（idx_req_leave_user / idx_req_leave_period）。
+ * end_date&gt;=開始 の範囲だけを読むので、終わった過去の休暇は件数に関係なく読まない。
+ * 休暇の作成と承認は申請者の users 行をロックしてから重なりを確かめ、同じ人の同時の作成/承認と直列にする。
+ */
+@Service
+public class LeaveScheduleService {
+  public record Overlap(long id, LocalDate startDate, LocalDate endDate, String status, String category) {}
+  public record Absence(
+      long requestId,
+      long userId,
+      String username,
+      String displayName,
+      LocalDate startDate,
+      LocalDate endDate,
+      String status,
+      String category
+  ) {}
+  /**
+   * 重なる休暇があれば作成せず、id は null で overlaps に重なった申請が入る。
+   */
+  public record Created(Long id, List<Overlap> overlaps) {}
+  private final JdbcTemplate jdbc;
+  public LeaveScheduleService(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+  /**
+   * 本人の未処理/承認済みの休暇のうち、[start, end] と重なるもの。
+   */
+  public List<Overlap> overlaps(long userId, LocalDate start, LocalDate end) {
+    return jdbc.query(
+        "SELECT id, start_date, end_date, status, leave_category FROM application_requests " +
+        "WHERE requester_id=? AND end_date>=? AND start_date<=? AND type='LEAVE' AND status IN ('PENDING','APPROVED') " +
+        "ORDER BY start_date, id",
+        (rs, rn) -> new Overlap(
+            rs.getLong("id"),
+            rs.getDate("start_date").toLocalDate(),
+            rs.getDate("end_date").toLocalDate(),
+            rs.getString("status"),
+            rs.getString("leave_category")
+        ),
+        userId, Date.valueOf(start), Date.valueOf(end)
+    );
+  }
+  /**
+   * 休暇申請（未処理）を作る。重なりの確認と INSERT の間に同じ人の申請が割り込まないよう、
+   * 申請者の users 行を FOR UPDATE で押さえてから確かめる（まだない行はロックできないため）。
+   */
+  @Transactional
+  public Created createLeave(long userId, LocalDate start, LocalDate end, String category, String reason) {
+    jdbc.queryForList("SELECT id FROM users WHERE id=? FOR UPDATE", Long.class, userId);
+    List<Overlap> overlaps = overlaps(userId, start, end);
+    if (!overlaps.isEmpty()) return new Created(null, overlaps);
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    Long id = jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO application_requests " +
+        "(type, requester_id, status, start_date, end_date, reason, leave_category, created_at, updated_at) " +
+        "VALUES ('LEAVE',?,'PENDING',?,?,?,?,?,?))",
+        Long.class,
+        userId, Date.valueOf(start), Date.valueOf(end), reason, category, now, now
+    );
+    return new Created(id, List.of());
+  }
+  /**
+   * [from, to] に休暇がかかっている人。includePending なら未処理の申請も含める。
+   */
+  public List<Absence> whosOff(LocalDate from, LocalDate to, boolean includePending) {
+    return jdbc.query(
+        "SELECT r.id, r.requester_id, u.username, u.display_name, r.start_date, r.end_date, r.status, r.leave_category " +
+        "FROM application_requests r JOIN users u ON r.requester_id=u.id " +
+        "WHERE r.type='LEAVE' AND r.end_date>=? AND r.start_date<=? " +
+        (includePending ? "AND r.status IN ('PENDING','APPROVED') " : "AND r.status='APPROVED' ") +
+        "ORDER BY r.start_date, u.username, r.id",
+        (rs, rn) -> new Absence(
+            rs.getLong("id"),
+            rs.getLong("requester_id"),
+            rs.getString("username"),
+            rs.getString("display_name"),
+            rs.getDate("start_date").toLocalDate(),
+            rs.getDate("end_date").toLocalDate(),
+            rs.getString("status"),
+            rs.getString("leave_category")
+        ),
+        Date.valueOf(from), Date.valueOf(to)
+    );
+  }
+}
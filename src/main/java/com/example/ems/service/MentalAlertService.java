@@ -0,0 +1,258 @@
+package com.example.ems.service;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+/**
+ * メンタル記録の低スコア通知。
+ *
+ * 記録のたびに mental_user_state（直近15日のスコア）を1行だけ読み書きしてルールを評価し、
+ * 当たったものを mental_alerts に積む。管理者はログイン時に未確認の件数を見る。
+ */
+@Service
+public class MentalAlertService {
+  /**
+   * 状態に持つ日数（当日 + 前14日）。
+   */
+  public static final int WINDOW = 15;
+  public enum Kind {
+    /** 当日のスコアが threshold 以下。days は使わない */
+    SCORE_AT_MOST("スコアが閾値以下"),
+    /** 前14日の平均から threshold 以上下がった。前14日の記録が days 件未満なら評価しない */
+    DROP_FROM_MEAN("14日平均からの低下"),
+    /** threshold 以下の日が days 日続いた（記録のない日で途切れる） */
+    LOW_STREAK("低スコアの連続");
+    private final String label;
+    Kind(String label) {
+      this.label = label;
+    }
+    public String label() {
+      return label;
+    }
+  }
+  public record Rule(long id, Kind kind, int threshold, int days, boolean enabled) {
+    public String describe() {
+      return switch (kind) {
+        case SCORE_AT_MOST -> "スコア " + threshold + " 以下";
+        case DROP_FROM_MEAN -> "14日平均から " + threshold + " 以上低下（前14日に " + days + " 件以上）";
+        case LOW_STREAK -> "スコア " + threshold + " 以下が " + days + " 日連続";
+      };
+    }
+  }
+  public record Alert(
+      long id,
+      long userId,
+      String username,
+      String displayName,
+      long ruleId,
+      LocalDate checkDate,
+      int score,
+      String detail,
+      LocalDateTime createdAt
+  ) {}
+  private static final String STATE_SQL =
+      "MERGE INTO mental_user_state t " +
+      "USING (SELECT CAST(? AS BIGINT) AS user_id, CAST(? AS DATE) AS window_end, CAST(? AS VARCHAR(15)) AS scores, CAST(? AS TIMESTAMP) AS updated_at) s " +
+      "ON t.user_id = s.user_id " +
+      "WHEN MATCHED THEN UPDATE SET window_end = s.window_end, scores = s.scores, updated_at = s.updated_at " +
+      "WHEN NOT MATCHED THEN INSERT (user_id, window_end, scores, updated_at) VALUES (s.user_id, s.window_end, s.scores, s.updated_at)";
+  private final JdbcTemplate jdbc;
+  public MentalAlertService(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+  /**
+   * 記録の登録/更新の直後に同じトランザクションで呼ぶ。積んだ通知の件数を返す。
+   * 当日より前の日付の記録は状態だけ直し、評価はしない。
+   */
+  @Transactional
+  public int onCheckIn(long userId, LocalDate date, int score) {
+    List<Object[]> current = jdbc.query(
+        "SELECT window_end, scores FROM mental_user_state WHERE user_id=? FOR UPDATE",
+        (rs, rn) -> new Object[] { rs.getDate("window_end").toLocalDate(), rs.getString("scores") },
+        userId
+    );
+    String scores;
+    LocalDate end;
+    if (current.isEmpty()) {
+      // 初回だけ直近の記録から作る（mental_checkins の一意索引で最大15行）
+      end = date;
+      scores = seed(userId, date);
+    } else {
+      end = (LocalDate) current.get(0)[0];
+      scores = (String) current.get(0)[1];
+      if (date.isAfter(end)) {
+        scores = shift(scores, ChronoUnit.DAYS.between(end, date));
+        end = date;
+      }
+    }
+    long offset = ChronoUnit.DAYS.between(date, end);
+    if (offset >= WINDOW) return 0;
+    scores = put(scores, WINDOW - 1 - (int) offset, score);
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    try {
+      jdbc.update(STATE_SQL, userId, Date.valueOf(end), scores, now);
+    } catch (DuplicateKeyException e) {
+      // 初回の行を別セッションが同時に作成した
+      return onCheckIn(userId, date, score);
+    }
+    if (offset != 0) return 0;
+    int raised = 0;
+    for (Rule rule : enabledRules()) {
+      String detail = evaluate(rule, scores);
+      if (detail == null) continue;
+      try {
+        raised += jdbc.update(
+            "INSERT INTO mental_alerts (user_id, rule_id, check_date, score, detail, created_at) VALUES (?,?,?,?,?,?)",
+            userId, rule.id(), Date.valueOf(date), score, detail, now
+        );
+      } catch (DuplicateKeyException e) {
+        // 同じ日の上書きで同じルールに再度当たった
+      }
+    }
+    return raised;
+  }
+  /**
+   * 当たれば通知の本文、当たらなければ null。scores は古い順の WINDOW 文字で、末尾が当日。
+   */
+  static String evaluate(Rule rule, String scores) {
+    int today = score(scores, WINDOW - 1);
+    if (today == 0) return null;
+    switch (rule.kind()) {
+      case SCORE_AT_MOST -> {
+        return today <= rule.threshold() ? "スコア " + today : null;
+      }
+      case DROP_FROM_MEAN -> {
+        int sum = 0;
+        int n = 0;
+        for (int i = 0; i < WINDOW - 1; i++) {
+          int s = score(scores, i);
+          if (s == 0) continue;
+          sum += s;
+          n++;
+        }
+        if (n == 0 || n < rule.days()) return null;
+        double mean = (double) sum / n;
+        return mean - today >= rule.threshold()
+            ? String.format("スコア %d / 14日平均 %.1f（%d件）", today, mean, n)
+            : null;
+      }
+      case LOW_STREAK -> {
+        int streak = 0;
+        for (int i = WINDOW - 1; i >= 0; i--) {
+          int s = score(scores, i);
+          if (s == 0 || s > rule.threshold()) break;
+          streak++;
+        }
+        return streak >= Math.min(rule.days(), WINDOW) ? "スコア " + rule.threshold() + " 以下が " + streak + " 日連続" : null;
+      }
+      default -> {
+        return null;
+      }
+    }
+  }
+  public int openCount() {
+    Integer c = jdbc.queryForObject("SELECT COUNT(*) FROM mental_alerts WHERE acknowledged_at IS NULL", Integer.class);
+    return c == null ? 0 : c;
+  }
+  /**
+   * 未確認の通知（古い順）。
+   */
+  public List<Alert> open(int limit) {
+    return jdbc.query(
+        "SELECT a.id, a.user_id, u.username, u.display_name, a.rule_id, a.check_date, a.score, a.detail, a.created_at " +
+        "FROM mental_alerts a JOIN users u ON a.user_id=u.id " +
+        "WHERE a.acknowledged_at IS NULL ORDER BY a.created_at, a.id LIMIT ?",
+        (rs, rn) -> new Alert(
+            rs.getLong("id"),
+            rs.getLong("user_id"),
+            rs.getString("username"),
+            rs.getString("display_name"),
+            rs.getLong("rule_id"),
+            rs.getDate("check_date").toLocalDate(),
+            rs.getInt("score"),
+            rs.getString("detail"),
+            rs.getTimestamp("created_at").toLocalDateTime()
+        ),
+        limit
+    );
+  }
+  /**
+   * 確認済みにした件数を返す（既に確認済みのものは数えない）。
+   */
+  public int acknowledge(List<Long> ids, long adminId) {
+    if (ids.isEmpty()) return 0;
+    return jdbc.update(
+        "UPDATE mental_alerts SET acknowledged_by_id=?, acknowledged_at=? WHERE id = ANY(?) AND acknowledged_at IS NULL",
+        adminId, Timestamp.valueOf(LocalDateTime.now()), ids.toArray(new Long[0])
+    );
+  }
+  public List<Rule> rules() {
+    return jdbc.query("SELECT id, kind, threshold, days, enabled FROM mental_alert_rules ORDER BY id", (rs, rn) -> rule(rs));
+  }
+  public long addRule(Kind kind, int threshold, int days, long adminId) {
+    return jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO mental_alert_rules (kind, threshold, days, enabled, created_by_id, created_at) VALUES (?,?,?,TRUE,?,?))",
+        Long.class,
+        kind.name(), threshold, Math.max(1, Math.min(days, WINDOW)), adminId, Timestamp.valueOf(LocalDateTime.now())
+    );
+  }
+  /**
+   * 過去の通知が参照するため、ルールは削除せず無効にする。
+   */
+  public boolean setEnabled(long ruleId, boolean enabled) {
+    return jdbc.update("UPDATE mental_alert_rules SET enabled=? WHERE id=?", enabled, ruleId) > 0;
+  }
+  private List<Rule> enabledRules() {
+    return jdbc.query("SELECT id, kind, threshold, days, enabled FROM mental_alert_rules WHERE enabled=TRUE ORDER BY id", (rs, rn) -> rule(rs));
+  }
+  private String seed(long userId, LocalDate date) {
+    StringBuilder sb = new StringBuilder("0".repeat(WINDOW));
+    jdbc.query(
+        "SELECT check_date, score FROM mental_checkins WHERE user_id=? AND check_date>? AND check_date<=?",
+        (RowCallbackHandler) rs -> {
+          int i = WINDOW - 1 - (int) ChronoUnit.DAYS.between(rs.getDate("check_date").toLocalDate(), date);
+          sb.setCharAt(i, encode(rs.getInt("score")));
+        },
+        userId, Date.valueOf(date.minusDays(WINDOW)), Date.valueOf(date)
+    );
+    return sb.toString();
+  }
+  /**
+   * days 日進める（古い側を捨て、新しい側を「記録なし」で埋める）。
+   */
+  static String shift(String scores, long days) {
+    if (days >= WINDOW) return "0".repeat(WINDOW);
+    int d = (int) days;
+    return scores.substring(d) + "0".repeat(d);
+  }
+  static String put(String scores, int index, int score) {
+    StringBuilder sb = new StringBuilder(scores);
+    sb.setCharAt(index, encode(score));
+    return sb.toString();
+  }
+  /**
+   * 0 は記録なし。
+   */
+  static int score(String scores, int index) {
+    return Character.digit(scores.charAt(index), Character.MAX_RADIX);
+  }
+  private static char encode(int score) {
+    return Character.forDigit(score, Character.MAX_RADIX);
+  }
+  private static Rule rule(java.sql.ResultSet rs) throws java.sql.SQLException {
+    return new Rule(
+        rs.getLong("id"),
+        Kind.valueOf(rs.getString("kind")),
+        rs.getInt("threshold"),
+        rs.getInt("days"),
+        rs.getBoolean("enabled")
+    );
+  }
+}
@@ -0,0 +1,245 @@
+package com.example.ems.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+/**
+ * メンタル記録の登録と分析。
+ *
+ * 全体の分布は mental_daily_score（日 × スコアの件数）から読み、記録の登録/更新と同じトランザクションで増減する。
+ * 7/30/90日の平均は mental_checkins を90日分だけ読んで1回の集計で出す。
+ * 結果は mental_stats_version が変わる（＝次の記録がある）までメモリに持つ。
+ * version は記録のコミット後に別の短いトランザクションで上げる。記録のトランザクション中に
+ * 1行しかない version を更新すると、全員の記録がその行ロックで直列になるため。
+ * コミット前に読んで持った結果も、コミット後の version 更新で捨てられる。
+ * 低スコアの通知ルールは記録と同じトランザクションで MentalAlertService が評価する。
+ */
+@Service
+public class MentalAnalyticsService {
+  private static final Logger log = LoggerFactory.getLogger(MentalAnalyticsService.class);
+  public static final int MIN_SCORE = 1;
+  public static final int MAX_SCORE = 10;
+  public enum Outcome {
+    CREATED,
+    UPDATED
+  }
+  /**
+   * 記録がない期間の平均は null。
+   */
+  public record Rolling(
+      long userId,
+      String username,
+      String displayName,
+      Double avg7,
+      Double avg30,
+      Double avg90,
+      int checkins90,
+      LocalDate lastCheckDate
+  ) {}
+  /**
+   * counts[score - MIN_SCORE] がそのスコアの件数。
+   */
+  public record Distribution(LocalDate from, LocalDate to, long[] counts, long total, Double average) {}
+  private static final String DAILY_SQL =
+      "MERGE INTO mental_daily_score t " +
+      "USING (SELECT CAST(? AS DATE) AS check_date, CAST(? AS INT) AS score, CAST(? AS INT) AS delta) s " +
+      "ON t.check_date = s.check_date AND t.score = s.score " +
+      "WHEN MATCHED THEN UPDATE SET checkins = t.checkins + s.delta " +
+      "WHEN NOT MATCHED THEN INSERT (check_date, score, checkins) VALUES (s.check_date, s.score, s.delta)";
+  private static final String ROLLING_SQL =
+      "SELECT a.user_id, u.username, u.display_name, a.avg7, a.avg30, a.avg90, a.n90, a.last_date FROM (" +
+      "SELECT user_id, " +
+      "AVG(CASE WHEN check_date>=? THEN CAST(score AS DOUBLE PRECISION) END) AS avg7, " +
+      "AVG(CASE WHEN check_date>=? THEN CAST(score AS DOUBLE PRECISION) END) AS avg30, " +
+      "AVG(CAST(score AS DOUBLE PRECISION)) AS avg90, COUNT(*) AS n90, MAX(check_date) AS last_date " +
+      "FROM mental_checkins WHERE check_date>=? AND check_date<=? %s GROUP BY user_id" +
+      ") a JOIN users u ON a.user_id=u.id ";
+  private final JdbcTemplate jdbc;
+  private final TransactionTemplate versionTx;
+  private final MentalAlertService alerts;
+  private final int maxCacheEntries;
+  private final Map<String, Object> cache = new ConcurrentHashMap<>();
+  private volatile long cachedVersion = -1;
+  public MentalAnalyticsService(JdbcTemplate jdbc,
+                                PlatformTransactionManager transactionManager,
+                                MentalAlertService alerts,
+                                @Value("${ems.mental.cache.max-entries:200}") int maxCacheEntries) {
+    this.jdbc = jdbc;
+    this.versionTx = new TransactionTemplate(transactionManager);
+    this.versionTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.alerts = alerts;
+    this.maxCacheEntries = maxCacheEntries;
+  }
+  /**
+   * 今日の記録（1人1日1件、2回目以降は上書き）。
+   */
+  @Transactional
+  public Outcome checkIn(long userId, LocalDate date, int score, String comment) {
+    if (score < MIN_SCORE || score > MAX_SCORE) {
+      throw new IllegalArgumentException("score must be " + MIN_SCORE + ".." + MAX_SCORE + ": " + score);
+    }
+    Date day = Date.valueOf(date);
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    List<Integer> previous = jdbc.queryForList(
+        "SELECT score FROM mental_checkins WHERE user_id=? AND check_date=? FOR UPDATE", Integer.class, userId, day);
+    Outcome outcome;
+    if (previous.isEmpty()) {
+      try {
+        jdbc.update(
+            "INSERT INTO mental_checkins (user_id, check_date, score, comment, created_at, updated_at) VALUES (?,?,?,?,?,?)",
+            userId, day, score, comment, now, now
+        );
+        addDaily(day, score, 1);
+        outcome = Outcome.CREATED;
+      } catch (DuplicateKeyException e) {
+        // 同じ日の記録を別セッションが先に作った。上書きとして扱う
+        return checkIn(userId, date, score, comment);
+      }
+    } else {
+      jdbc.update(
+          "UPDATE mental_checkins SET score=?, comment=?, updated_at=? WHERE user_id=? AND check_date=?",
+          score, comment, now, userId, day
+      );
+      int old = previous.get(0);
+      if (old != score) {
+        addDaily(day, old, -1);
+        addDaily(day, score, 1);
+      }
+      outcome = Outcome.UPDATED;
+    }
+    bumpVersionAfterCommit();
+    alerts.onCheckIn(userId, date, score);
+    return outcome;
+  }
+  /**
+   * 1人分の 7/30/90日平均（asOf を含む）。記録がなければ null。
+   */
+  public Rolling rolling(long userId, LocalDate asOf) {
+    return cached("user:" + userId + ":" + asOf, () -> {
+      List<Rolling> rows = jdbc.query(String.format(ROLLING_SQL, "AND user_id=?"), (rs, rn) -> rolling(rs),
+          rollingArgs(asOf, userId));
+      return rows.isEmpty() ? null : rows.get(0);
+    });
+  }
+  /**
+   * 全員の 7/30/90日平均。7日平均の低い順（7日間に記録がない人は後ろ）。
+   */
+  public List<Rolling> rollingAll(LocalDate asOf) {
+    return cached("all:" + asOf, () -> jdbc.query(
+        String.format(ROLLING_SQL, "") + "ORDER BY a.avg7 NULLS LAST, a.avg30 NULLS LAST, u.username",
+        (rs, rn) -> rolling(rs),
+        rollingArgs(asOf, null)
+    ));
+  }
+  /**
+   * [from, to] の全員のスコア分布。mental_daily_score を日数 × スコア数の行だけ読む。
+   */
+  public Distribution distribution(LocalDate from, LocalDate to) {
+    return cached("dist:" + from + ":" + to, () -> {
+      long[] counts = new long[MAX_SCORE - MIN_SCORE + 1];
+      jdbc.query(
+          "SELECT score, SUM(checkins) AS n FROM mental_daily_score WHERE check_date>=? AND check_date<=? GROUP BY score",
+          (RowCallbackHandler) rs -> {
+            int score = rs.getInt("score");
+            if (score >= MIN_SCORE && score <= MAX_SCORE) counts[score - MIN_SCORE] = rs.getLong("n");
+          },
+          Date.valueOf(from), Date.valueOf(to)
+      );
+      long total = 0;
+      long sum = 0;
+      for (int i = 0; i < counts.length; i++) {
+        total += counts[i];
+        sum += counts[i] * (i + MIN_SCORE);
+      }
+      return new Distribution(from, to, counts, total, total == 0 ? null : (double) sum / total);
+    });
+  }
+  /**
+   * mental_stats_version が変わっていればキャッシュを捨ててから引く。
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T cached(String key, Supplier<T> loader) {
+    Long version = jdbc.queryForObject("SELECT version FROM mental_stats_version WHERE id=1", Long.class);
+    long v = version == null ? 0 : version;
+    if (v != cachedVersion) {
+      cache.clear();
+      cachedVersion = v;
+    }
+    Object hit = cache.get(key);
+    if (hit != null) return (T) hit;
+    T value = loader.get();
+    if (value != null) {
+      if (cache.size() >= maxCacheEntries) cache.clear();
+      cache.put(key, value);
+    }
+    return value;
+  }
+  private void bumpVersionAfterCommit() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      bumpVersion();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        bumpVersion();
+      }
+    });
+  }
+  /**
+   * 記録自体はコミット済みなので、失敗しても呼び出し元へは投げない（キャッシュが次の記録まで古いだけ）。
+   */
+  private void bumpVersion() {
+    try {
+      versionTx.executeWithoutResult(st -> jdbc.update("UPDATE mental_stats_version SET version=version+1 WHERE id=1"));
+    } catch (RuntimeException e) {
+      log.warn("mental stats version bump failed", e);
+    }
+  }
+  private void addDaily(Date day, int score, int delta) {
+    try {
+      jdbc.update(DAILY_SQL, day, score, delta);
+    } catch (DuplicateKeyException e) {
+      // 初回の行を別セッションが同時に作成した。2回目は MATCHED 側で加算される
+      jdbc.update(DAILY_SQL, day, score, delta);
+    }
+  }
+  private static Object[] rollingArgs(LocalDate asOf, Long userId) {
+    Date d7 = Date.valueOf(asOf.minusDays(6));
+    Date d30 = Date.valueOf(asOf.minusDays(29));
+    Date d90 = Date.valueOf(asOf.minusDays(89));
+    Date end = Date.valueOf(asOf);
+    return userId == null
+        ? new Object[] { d7, d30, d90, end }
+        : new Object[] { d7, d30, d90, end, userId };
+  }
+  private static Rolling rolling(java.sql.ResultSet rs) throws java.sql.SQLException {
+    return new Rolling(
+        rs.getLong("user_id"),
+        rs.getString("username"),
+        rs.getString("display_name"),
+        rs.getObject("avg7", Double.class),
+        rs.getObject("avg30", Double.class),
+        rs.getObject("avg90", Double.class),
+        rs.getInt("n90"),
+        rs.getDate("last_date").toLocalDate()
+    );
+  }
+}
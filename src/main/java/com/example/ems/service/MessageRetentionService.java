@@ -0,0 +1,210 @@
+package com.example.ems.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+/**
+ * 保持期間を過ぎた既読メッセージを圧縮ファイルへ退避してから削除する（未読は残す）。
+ *
+ * 対象を id 順に fileRows 件ずつ読んで messages-{先頭id}-{末尾id}.tsv.gz を1つ書き、ファイルを確定させてから
+ * その id だけを deleteChunk 件ずつ削除する（読込み後に既読になった行を巻き込まない）。
+ * ファイル確定後・削除前に止まった場合、再実行では同じ行を同じ範囲で読み直すので同名ファイルを上書きする。
+ * 間に範囲内の行が既読になっていると範囲が変わり、同じ行が2つのファイルに載ることがある。
+ * id は一意なので、アーカイブを読む側は id で重複を除くこと。
+ * チャンクの間は pauseMs 休み、AUTO_SERVER で共有するDBのロックを長く持たない。
+ * message_terms は FK の ON DELETE CASCADE で消え、コピーが残っていない一斉送信の行も最後に消す。
+ * 最後に CHECKPOINT SYNC で空きページを確定させ、DBファイルの大きさの前後を記録する。
+ */
+@Service
+public class MessageRetentionService {
+  private static final Logger log = LoggerFactory.getLogger(MessageRetentionService.class);
+  /**
+   * fileBytesBefore/After は H2 のDBファイル（.mv.db）の大きさ。取得できなければ -1。
+   */
+  public record Progress(
+      boolean running,
+      String phase,
+      long archived,
+      long deleted,
+      int files,
+      long bytesWritten,
+      int broadcastsDeleted,
+      long fileBytesBefore,
+      long fileBytesAfter,
+      long elapsedMs,
+      String error
+  ) {
+    public long reclaimedBytes() {
+      return (fileBytesBefore < 0 || fileBytesAfter < 0) ? -1 : fileBytesBefore - fileBytesAfter;
+    }
+  }
+  private record Archived(List<Long> ids, long bytes) {}
+  private final JdbcTemplate jdbc;
+  private final Path dir;
+  private final int retentionDays;
+  private final int fileRows;
+  private final int deleteChunk;
+  private final long pauseMs;
+  private volatile Progress progress = new Progress(false, "IDLE", 0, 0, 0, 0, 0, -1, -1, 0, null);
+  private Thread worker;
+  public MessageRetentionService(JdbcTemplate jdbc,
+                                 @Value("${ems.messages.retention.dir:./data/message-archive}") String dir,
+                                 @Value("${ems.messages.retention.days:365}") int retentionDays,
+                                 @Value("${ems.messages.retention.file-rows:50000}") int fileRows,
+                                 @Value("${ems.messages.retention.delete-chunk:500}") int deleteChunk,
+                                 @Value("${ems.messages.retention.pause-ms:20}") long pauseMs) {
+    this.jdbc = jdbc;
+    this.dir = Path.of(dir);
+    this.retentionDays = retentionDays;
+    this.fileRows = fileRows;
+    this.deleteChunk = deleteChunk;
+    this.pauseMs = pauseMs;
+  }
+  public int getRetentionDays() {
+    return retentionDays;
+  }
+  public Progress progress() {
+    return progress;
+  }
+  /**
+   * バックグラウンドで実行を始める。実行中なら false。
+   */
+  public synchronized boolean start() {
+    if (worker != null && worker.isAlive()) return false;
+    LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays).toLocalDate().atStartOfDay();
+    progress = new Progress(true, "STARTING", 0, 0, 0, 0, 0, -1, -1, 0, null);
+    worker = new Thread(() -> run(cutoff), "message-retention");
+    worker.setDaemon(true);
+    worker.start();
+    return true;
+  }
+  /**
+   * sent_at &lt; cutoff の既読メッセージを退避・削除する。終了時の進捗を返す。
+   */
+  public Progress run(LocalDateTime cutoff) {
+    long started = System.nanoTime();
+    long fileBefore = dbFileBytes();
+    long archived = 0;
+    long deleted = 0;
+    int files = 0;
+    long bytes = 0;
+    int broadcasts = 0;
+    try {
+      Files.createDirectories(dir);
+      long lastId = 0;
+      while (true) {
+        update("ARCHIVE", archived, deleted, files, bytes, broadcasts, fileBefore, -1, started);
+        Archived a = writeArchive(cutoff, lastId);
+        if (a == null) break;
+        files++;
+        archived += a.ids().size();
+        bytes += a.bytes();
+        lastId = a.ids().get(a.ids().size() - 1);
+        for (int i = 0; i < a.ids().size(); i += deleteChunk) {
+          update("DELETE", archived, deleted, files, bytes, broadcasts, fileBefore, -1, started);
+          List<Long> chunk = a.ids().subList(i, Math.min(i + deleteChunk, a.ids().size()));
+          deleted += jdbc.update(
+              "DELETE FROM messages WHERE id = ANY(?) AND read_at IS NOT NULL", (Object) chunk.toArray(new Long[0]));
+          pause();
+        }
+      }
+      update("BROADCASTS", archived, deleted, files, bytes, broadcasts, fileBefore, -1, started);
+      broadcasts = jdbc.update(
+          "DELETE FROM message_broadcasts b WHERE b.sent_at < ? " +
+          "AND NOT EXISTS (SELECT 1 FROM messages m WHERE m.broadcast_id=b.id)",
+          Timestamp.valueOf(cutoff));
+      update("COMPACT", archived, deleted, files, bytes, broadcasts, fileBefore, -1, started);
+      if (deleted > 0) jdbc.execute("CHECKPOINT SYNC");
+      Progress done = new Progress(false, "DONE", archived, deleted, files, bytes, broadcasts, fileBefore, dbFileBytes(),
+          (System.nanoTime() - started) / 1_000_000, null);
+      progress = done;
+      log.info("message retention: cutoff={} archived={} deleted={} files={} bytes={} broadcasts={} db {} -> {} elapsedMs={}",
+          cutoff, archived, deleted, files, bytes, broadcasts, done.fileBytesBefore(), done.fileBytesAfter(), done.elapsedMs());
+      return done;
+    } catch (RuntimeException | IOException e) {
+      log.warn("message retention failed", e);
+      Progress failed = new Progress(false, "FAILED", archived, deleted, files, bytes, broadcasts, fileBefore, dbFileBytes(),
+          (System.nanoTime() - started) / 1_000_000, e.toString());
+      progress = failed;
+      return failed;
+    }
+  }
+  /**
+   * id &gt; afterId の対象を最大 fileRows 件書き、一時ファイルから名前を変えて確定する。対象がなければ null。
+   * 同じ id 範囲のファイルが既にあれば置き換える。
+   */
+  private Archived writeArchive(LocalDateTime cutoff, long afterId) throws IOException {
+    List<Object[]> rows = jdbc.query(
+        "SELECT id, sender_id, receiver_id, broadcast_id, sent_at, read_at, body FROM messages " +
+        "WHERE id>? AND read_at IS NOT NULL AND sent_at<? ORDER BY id LIMIT ?",
+        (rs, rn) -> new Object[] {
+            rs.getLong("id"), rs.getLong("sender_id"), rs.getLong("receiver_id"), rs.getObject("broadcast_id"),
+            rs.getTimestamp("sent_at"), rs.getTimestamp("read_at"), rs.getString("body")
+        },
+        afterId, Timestamp.valueOf(cutoff), fileRows
+    );
+    if (rows.isEmpty()) return null;
+    Path file = dir.resolve(fileName((Long) rows.get(0)[0], (Long) rows.get(rows.size() - 1)[0]));
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    List<Long> ids = new ArrayList<>(rows.size());
+    try (OutputStream os = Files.newOutputStream(tmp);
+         Writer w = new OutputStreamWriter(new GZIPOutputStream(os), StandardCharsets.UTF_8)) {
+      w.write("id\tsender_id\treceiver_id\tbroadcast_id\tsent_at\tread_at\tbody\n");
+      for (Object[] r : rows) {
+        ids.add((Long) r[0]);
+        w.write(r[0] + "\t" + r[1] + "\t" + r[2] + "\t" + TsvCodec.escape(r[3] == null ? null : r[3].toString()) + "\t"
+            + ((Timestamp) r[4]).toLocalDateTime() + "\t" + ((Timestamp) r[5]).toLocalDateTime() + "\t"
+            + TsvCodec.escape((String) r[6]) + "\n");
+      }
+    }
+    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    return new Archived(ids, Files.size(file));
+  }
+  /**
+   * 名前順がそのまま id 順になるよう桁をそろえる。
+   */
+  static String fileName(long firstId, long lastId) {
+    return String.format("messages-%012d-%012d.tsv.gz", firstId, lastId);
+  }
+  private void update(String phase, long archived, long deleted, int files, long bytes, int broadcasts,
+                      long fileBefore, long fileAfter, long started) {
+    progress = new Progress(true, phase, archived, deleted, files, bytes, broadcasts, fileBefore, fileAfter,
+        (System.nanoTime() - started) / 1_000_000, null);
+  }
+  private void pause() {
+    if (pauseMs <= 0) return;
+    try {
+      Thread.sleep(pauseMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted", e);
+    }
+  }
+  /**
+   * DATABASE_PATH() はファイルDBのパス（拡張子なし）。メモリDBなどでは -1。
+   */
+  private long dbFileBytes() {
+    try {
+      String path = jdbc.queryForObject("SELECT DATABASE_PATH()", String.class);
+      if (path == null) return -1;
+      Path p = Path.of(path + ".mv.db");
+      return Files.exists(p) ? Files.size(p) : -1;
+    } catch (RuntimeException | IOException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package com.example.ems.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+/**
+ * メッセージ本文の検索。本文を NFKC + 小文字にして空白で区切り、各区切りの2文字組（bigram）を
+ * message_terms (user_id, term, message_id) に持つ。日本語は分かち書きしないので bigram で引く。
+ * user_id は送信者と受信者（一斉送信は受信者のみ）で、検索は本人の行だけを主キーの範囲で読む。
+ * 索引は送信と同じトランザクションで追加し、メッセージ削除は FK の ON DELETE CASCADE で追従する。
+ */
+@Service
+public class MessageSearchService {
+  public record Hit(
+      long id,
+      boolean sent,
+      String senderUsername,
+      String receiverUsername,
+      String body,
+      LocalDateTime sentAt,
+      LocalDateTime readAt
+  ) {}
+  /**
+   * indexed=false は2文字以上の語がなく、索引を使わず直近 candidateLimit 件から探したことを示す。
+   */
+  public record Result(List<Hit> hits, boolean indexed, int candidates, long elapsedMs) {}
+  public record RebuildResult(long messages, long terms, long elapsedMs) {}
+  private static final String INSERT_TERM = "INSERT INTO message_terms (user_id, term, message_id) VALUES (?,?,?)";
+  private static final String HIT_COLUMNS =
+      "SELECT m.id, m.sender_id, su.username AS sender, ru.username AS receiver, m.body, m.sent_at, m.read_at " +
+      "FROM messages m LEFT JOIN users su ON m.sender_id=su.id LEFT JOIN users ru ON m.receiver_id=ru.id ";
+  private final JdbcTemplate jdbc;
+  private final int rebuildChunk;
+  private final int candidateLimit;
+  public MessageSearchService(JdbcTemplate jdbc,
+                              @Value("${ems.messages.search.rebuild-chunk:2000}") int rebuildChunk,
+                              @Value("${ems.messages.search.candidate-limit:500}") int candidateLimit) {
+    this.jdbc = jdbc;
+    this.rebuildChunk = rebuildChunk;
+    this.candidateLimit = candidateLimit;
+  }
+  /**
+   * 1件の送信を索引に追加する（呼び出し側のトランザクション内で使う）。
+   */
+  public void index(long messageId, long senderId, long receiverId, String body) {
+    List<Object[]> rows = new ArrayList<>();
+    addRows(rows, messageId, senderId, receiverId, false, terms(body));
+    if (!rows.isEmpty()) jdbc.batchUpdate(INSERT_TERM, rows);
+  }
+  /**
+   * 一斉送信の全受信者分を、語ごとに INSERT ... SELECT 1文で追加する。
+   */
+  public void indexBroadcast(long broadcastId, String body) {
+    List<Object[]> rows = new ArrayList<>();
+    for (String term : terms(body)) {
+      rows.add(new Object[] { term, broadcastId });
+    }
+    if (rows.isEmpty()) return;
+    jdbc.batchUpdate(
+        "INSERT INTO message_terms (user_id, term, message_id) SELECT receiver_id, ?, id FROM messages WHERE broadcast_id=?",
+        rows
+    );
+  }
+  /**
+   * 本人が送受信したメッセージから、query の空白区切りの語をすべて含むものを新しい順に limit 件。
+   */
+  public Result search(long userId, String query, int limit) {
+    long started = System.nanoTime();
+    List<String> words = words(query);
+    if (words.isEmpty()) return new Result(List.of(), true, 0, 0);
+    Set<String> terms = new LinkedHashSet<>();
+    for (String w : words) terms.addAll(bigrams(w));
+    List<Hit> candidates;
+    if (terms.isEmpty()) {
+      candidates = jdbc.query(
+          HIT_COLUMNS + "WHERE m.receiver_id=? OR (m.sender_id=? AND m.broadcast_id IS NULL) " +
+          "ORDER BY m.sent_at DESC, m.id DESC LIMIT ?",
+          (rs, rn) -> hit(rs, userId), userId, userId, candidateLimit
+      );
+    } else {
+      List<Object> args = new ArrayList<>();
+      args.add(userId);
+      args.addAll(terms);
+      args.add(terms.size());
+      args.add(candidateLimit);
+      candidates = jdbc.query(
+          HIT_COLUMNS + "WHERE m.id IN (" +
+          "SELECT message_id FROM message_terms WHERE user_id=? AND term IN (" + placeholders(terms.size()) + ") " +
+          "GROUP BY message_id HAVING COUNT(*)=?) " +
+          "ORDER BY m.sent_at DESC, m.id DESC LIMIT ?",
+          (rs, rn) -> hit(rs, userId), args.toArray()
+      );
+    }
+    // bigram がすべて揃っても語として連続しているとは限らないので、本文で確かめる
+    List<Hit> hits = new ArrayList<>();
+    for (Hit h : candidates) {
+      if (hits.size() >= limit) break;
+      String text = normalize(h.body());
+      boolean all = true;
+      for (String w : words) {
+        if (!text.contains(w)) {
+          all = false;
+          break;
+        }
+      }
+      if (all) hits.add(h);
+    }
+    return new Result(hits, !terms.isEmpty(), candidates.size(), (System.nanoTime() - started) / 1_000_000);
+  }
+  /**
+   * メッセージはあるのに索引が空（索引導入前のデータ）なら true。
+   */
+  public boolean needsRebuild() {
+    Boolean b = jdbc.queryForObject(
+        "SELECT EXISTS(SELECT 1 FROM messages) AND NOT EXISTS(SELECT 1 FROM message_terms)", Boolean.class);
+    return Boolean.TRUE.equals(b);
+  }
+  /**
+   * 索引を作り直す。messages を id 順に rebuildChunk 件ずつ読み、チャンクごとにコミットする。
+   * 再構築中に送信されたメッセージは、送信側で追加した行と重複しないよう MERGE で入れる。
+   */
+  public RebuildResult rebuild() {
+    long started = System.nanoTime();
+    jdbc.update("TRUNCATE TABLE message_terms");
+    long lastId = 0;
+    long messages = 0;
+    long termRows = 0;
+    while (true) {
+      List<Object[]> chunk = jdbc.query(
+          "SELECT id, sender_id, receiver_id, broadcast_id, body FROM messages WHERE id>? ORDER BY id LIMIT ?",
+          (rs, rn) -> new Object[] {
+              rs.getLong("id"), rs.getLong("sender_id"), rs.getLong("receiver_id"),
+              rs.getObject("broadcast_id") != null, rs.getString("body")
+          },
+          lastId, rebuildChunk
+      );
+      if (chunk.isEmpty()) break;
+      List<Object[]> rows = new ArrayList<>();
+      for (Object[] m : chunk) {
+        addRows(rows, (Long) m[0], (Long) m[1], (Long) m[2], (Boolean) m[3], terms((String) m[4]));
+      }
+      if (!rows.isEmpty()) {
+        jdbc.batchUpdate(
+            "MERGE INTO message_terms (user_id, term, message_id) KEY (user_id, term, message_id) VALUES (?,?,?)",
+            rows
+        );
+      }
+      messages += chunk.size();
+      termRows += rows.size();
+      lastId = (Long) chunk.get(chunk.size() - 1)[0];
+    }
+    return new RebuildResult(messages, termRows, (System.nanoTime() - started) / 1_000_000);
+  }
+  /**
+   * 本文の索引語（重複なし）。
+   */
+  static Set<String> terms(String body) {
+    Set<String> terms = new LinkedHashSet<>();
+    for (String w : words(body)) terms.addAll(bigrams(w));
+    return terms;
+  }
+  static List<String> words(String text) {
+    List<String> words = new ArrayList<>();
+    if (text == null) return words;
+    for (String w : normalize(text).split("\\s+")) {
+      if (!w.isEmpty()) words.add(w);
+    }
+    return words;
+  }
+  /**
+   * 1文字の語は bigram を持たない（索引では引けず、本文の確認だけで判定する）。
+   */
+  static List<String> bigrams(String word) {
+    int[] cps = word.codePoints().toArray();
+    List<String> out = new ArrayList<>(Math.max(cps.length - 1, 0));
+    for (int i = 0; i + 1 < cps.length; i++) {
+      out.add(new String(cps, i, 2));
+    }
+    return out;
+  }
+  static String normalize(String text) {
+    return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+  }
+  private static void addRows(List<Object[]> rows, long messageId, long senderId, long receiverId,
+                              boolean broadcast, Set<String> terms) {
+    for (String term : terms) {
+      rows.add(new Object[] { receiverId, term, messageId });
+      if (!broadcast && senderId != receiverId) {
+        rows.add(new Object[] { senderId, term, messageId });
+      }
+    }
+  }
+  private static Hit hit(ResultSet rs, long userId) throws SQLException {
+    Timestamp readAt = rs.getTimestamp("read_at");
+    return new Hit(
+        rs.getLong("id"),
+        rs.getLong("sender_id") == userId,
+        rs.getString("sender"),
+        rs.getString("receiver"),
+        rs.getString("body"),
+        rs.getTimestamp("sent_at").toLocalDateTime(),
+        readAt == null ? null : readAt.toLocalDateTime()
+    );
+  }
+  private static String placeholders(int n) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) sb.append(i == 0 ? "?" : ",?");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,393 @@
+package com.example.ems.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+/**
+ * メッセージの送信・既読・受信一覧。
+ * 未読件数は message_unread_counter に受信者ごとに持ち、送信/既読と同じトランザクションで増減する。
+ * 受信一覧・送信一覧・会話は (sent_at, id) のシーク方式でページングする
+ * （idx_msg_receiver / idx_msg_receiver_unread / idx_msg_sender_sent / idx_msg_pair）。
+ * 一斉送信は message_broadcasts に1行、受信者ごとの messages を broadcast_id 付きでまとめて INSERT する。
+ */
+@Service
+public class MessageService {
+  public enum ReadOutcome {
+    MARKED,
+    ALREADY_READ,
+    NOT_FOUND
+  }
+  public record InboxRow(
+      long id,
+      long senderId,
+      String senderUsername,
+      String senderDisplayName,
+      String body,
+      LocalDateTime sentAt,
+      LocalDateTime readAt
+  ) {}
+  /**
+   * 次ページの開始位置（直前ページ最後の行）。
+   */
+  public record Cursor(LocalDateTime sentAt, long id) {}
+  public record SentRow(
+      long id,
+      long receiverId,
+      String receiverUsername,
+      String receiverDisplayName,
+      String body,
+      LocalDateTime sentAt,
+      LocalDateTime readAt
+  ) {}
+  /**
+   * 2人の間の1通。mine は閲覧者が送った側。
+   */
+  public record ThreadRow(long id, boolean mine, String body, LocalDateTime sentAt, LocalDateTime readAt) {}
+  /**
+   * next が null なら最終ページ。
+   */
+  public record Page<T>(List<T> rows, Cursor next) {}
+  /**
+   * 一斉送信の宛先。有効なユーザーのうち、全員 / 役割 / ユーザー名の一覧 / ユーザーIDの一覧（送信者本人は除く）。
+   */
+  public record Target(String role, List<String> usernames, List<Long> userIds, String label) {
+    public static Target all() {
+      return new Target(null, null, null, "ALL");
+    }
+    public static Target role(String role) {
+      return new Target(role, null, null, "ROLE:" + role);
+    }
+    public static Target usernames(List<String> usernames, String label) {
+      return new Target(null, List.copyOf(usernames), null, label);
+    }
+    public static Target userIds(List<Long> userIds, String label) {
+      return new Target(null, null, List.copyOf(userIds), label);
+    }
+  }
+  /**
+   * unknownUsernames は一覧指定で見つからなかった（または無効な）ユーザー名。
+   */
+  public record BroadcastResult(long broadcastId, int recipients, List<String> unknownUsernames, long elapsedMs) {}
+  /**
+   * まとめて既読にする対象。ids / idRange / 送信者 / 未読すべて のいずれか1つ。
+   */
+  public record ReadSelection(List<Long> ids, Long fromId, Long toId, Long senderId, String label) {
+    public static ReadSelection ids(List<Long> ids) {
+      return new ReadSelection(List.copyOf(ids), null, null, null, "ids=" + ids.size());
+    }
+    public static ReadSelection range(long fromId, long toId) {
+      return new ReadSelection(null, Math.min(fromId, toId), Math.max(fromId, toId), null,
+          "range=" + Math.min(fromId, toId) + "-" + Math.max(fromId, toId));
+    }
+    public static ReadSelection fromSender(long senderId, String senderUsername) {
+      return new ReadSelection(null, null, null, senderId, "from=" + senderUsername);
+    }
+    public static ReadSelection allUnread() {
+      return new ReadSelection(null, null, null, null, "all");
+    }
+  }
+  public record BroadcastReceipt(long id, String target, String body, LocalDateTime sentAt, int recipients, int read) {}
+  private static final String INCREMENT_SQL =
+      "MERGE INTO message_unread_counter t " +
+      "USING (SELECT CAST(? AS BIGINT) AS user_id, CAST(? AS INT) AS delta, CAST(? AS TIMESTAMP) AS ts) s " +
+      "ON t.user_id = s.user_id " +
+      "WHEN MATCHED THEN UPDATE SET unread = t.unread + s.delta, updated_at = s.ts " +
+      "WHEN NOT MATCHED THEN INSERT (user_id, unread, updated_at) VALUES (s.user_id, s.delta, s.ts)";
+  private final JdbcTemplate jdbc;
+  private final MessageSearchService search;
+  private final int broadcastChunk;
+  public MessageService(JdbcTemplate jdbc, MessageSearchService search,
+                        @Value("${ems.messages.broadcast-chunk:1000}") int broadcastChunk) {
+    this.jdbc = jdbc;
+    this.search = search;
+    this.broadcastChunk = broadcastChunk;
+  }
+  /**
+   * 戻り値は作成したメッセージID。
+   */
+  @Transactional
+  public long send(long senderId, long receiverId, String body) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    Long id = jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO messages (sender_id, receiver_id, body, sent_at, read_at) VALUES (?,?,?,?,NULL))",
+        Long.class, senderId, receiverId, body, now
+    );
+    addUnread(receiverId, 1, now);
+    search.index(id, senderId, receiverId, body);
+    return id;
+  }
+  /**
+   * 受信者本人のメッセージだけ既読にできる。すでに既読なら read_at は変えない。
+   */
+  @Transactional
+  public ReadOutcome markRead(long receiverId, long messageId) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    int updated = jdbc.update(
+        "UPDATE messages SET read_at=? WHERE id=? AND receiver_id=? AND read_at IS NULL",
+        now, messageId, receiverId
+    );
+    if (updated == 1) {
+      jdbc.update(
+          "UPDATE message_unread_counter SET unread=unread-1, updated_at=? WHERE user_id=? AND unread>0",
+          now, receiverId
+      );
+      return ReadOutcome.MARKED;
+    }
+    Integer exists = jdbc.queryForObject(
+        "SELECT COUNT(*) FROM messages WHERE id=? AND receiver_id=?",
+        Integer.class, messageId, receiverId
+    );
+    return (exists != null && exists > 0) ? ReadOutcome.ALREADY_READ : ReadOutcome.NOT_FOUND;
+  }
+  /**
+   * 対象の未読を1文の UPDATE でまとめて既読にし、未読カウンタを同じ件数だけ減らす。戻り値は既読にした件数。
+   * 他人宛て・既読済み・存在しないIDは条件で落ちるだけで、エラーにはしない。
+   */
+  @Transactional
+  public int markReadAll(long receiverId, ReadSelection selection) {
+    StringBuilder sql = new StringBuilder("UPDATE messages SET read_at=? WHERE receiver_id=? AND read_at IS NULL");
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    List<Object> args = new ArrayList<>();
+    args.add(now);
+    args.add(receiverId);
+    if (selection.ids() != null) {
+      if (selection.ids().isEmpty()) return 0;
+      sql.append(" AND id = ANY(?)");
+      args.add(selection.ids().toArray(new Long[0]));
+    } else if (selection.fromId() != null) {
+      sql.append(" AND id BETWEEN ? AND ?");
+      args.add(selection.fromId());
+      args.add(selection.toId());
+    } else if (selection.senderId() != null) {
+      sql.append(" AND sender_id=?");
+      args.add(selection.senderId());
+    }
+    int updated = jdbc.update(sql.toString(), args.toArray());
+    if (updated > 0) {
+      jdbc.update(
+          "UPDATE message_unread_counter SET unread=GREATEST(unread-?, 0), updated_at=? WHERE user_id=?",
+          updated, now, receiverId
+      );
+    }
+    return updated;
+  }
+  /**
+   * messages を読まずにカウンタだけを見る。
+   */
+  public int unreadCount(long userId) {
+    List<Integer> rows = jdbc.queryForList(
+        "SELECT unread FROM message_unread_counter WHERE user_id=?", Integer.class, userId);
+    return rows.isEmpty() ? 0 : rows.get(0);
+  }
+  /**
+   * 受信一覧（新しい順）。unreadOnly なら未読だけ。
+   */
+  public Page<InboxRow> inbox(long receiverId, boolean unreadOnly, Cursor after, int size) {
+    StringBuilder sql = new StringBuilder(
+        "SELECT m.id, m.sender_id, su.username AS sender, su.display_name AS sender_display, m.body, m.sent_at, m.read_at " +
+        "FROM messages m JOIN users su ON m.sender_id=su.id WHERE m.receiver_id=?");
+    List<Object> args = new ArrayList<>();
+    args.add(receiverId);
+    if (unreadOnly) {
+      sql.append(" AND m.read_at IS NULL");
+    }
+    appendSeek(sql, args, after, size);
+    List<InboxRow> rows = jdbc.query(
+        sql.toString(),
+        (rs, rn) -> {
+          Timestamp readAt = rs.getTimestamp("read_at");
+          return new InboxRow(
+              rs.getLong("id"),
+              rs.getLong("sender_id"),
+              rs.getString("sender"),
+              rs.getString("sender_display"),
+              rs.getString("body"),
+              rs.getTimestamp("sent_at").toLocalDateTime(),
+              readAt == null ? null : readAt.toLocalDateTime()
+          );
+        },
+        args.toArray()
+    );
+    return toPage(rows, size, r -> new Cursor(r.sentAt(), r.id()));
+  }
+  /**
+   * 送信一覧（新しい順、一斉送信は除く）。
+   */
+  public Page<SentRow> sent(long senderId, Cursor after, int size) {
+    StringBuilder sql = new StringBuilder(
+        "SELECT m.id, m.receiver_id, ru.username AS receiver, ru.display_name AS receiver_display, m.body, m.sent_at, m.read_at " +
+        "FROM messages m LEFT JOIN users ru ON m.receiver_id=ru.id WHERE m.sender_id=? AND m.broadcast_id IS NULL");
+    List<Object> args = new ArrayList<>();
+    args.add(senderId);
+    appendSeek(sql, args, after, size);
+    List<SentRow> rows = jdbc.query(
+        sql.toString(),
+        (rs, rn) -> {
+          Timestamp readAt = rs.getTimestamp("read_at");
+          return new SentRow(
+              rs.getLong("id"),
+              rs.getLong("receiver_id"),
+              rs.getString("receiver"),
+              rs.getString("receiver_display"),
+              rs.getString("body"),
+              rs.getTimestamp("sent_at").toLocalDateTime(),
+              readAt == null ? null : readAt.toLocalDateTime()
+          );
+        },
+        args.toArray()
+    );
+    return toPage(rows, size, r -> new Cursor(r.sentAt(), r.id()));
+  }
+  /**
+   * userId と otherId の間のやりとり（新しい順、双方向）。
+   * pair_low/pair_high は送信者と受信者の小さい方/大きい方の生成列で、向きによらず同じ索引範囲になる。
+   */
+  public Page<ThreadRow> thread(long userId, long otherId, Cursor after, int size) {
+    StringBuilder sql = new StringBuilder(
+        "SELECT m.id, m.sender_id, m.body, m.sent_at, m.read_at FROM messages m WHERE m.pair_low=? AND m.pair_high=?");
+    List<Object> args = new ArrayList<>();
+    args.add(Math.min(userId, otherId));
+    args.add(Math.max(userId, otherId));
+    appendSeek(sql, args, after, size);
+    List<ThreadRow> rows = jdbc.query(
+        sql.toString(),
+        (rs, rn) -> {
+          Timestamp readAt = rs.getTimestamp("read_at");
+          return new ThreadRow(
+              rs.getLong("id"),
+              rs.getLong("sender_id") == userId,
+              rs.getString("body"),
+              rs.getTimestamp("sent_at").toLocalDateTime(),
+              readAt == null ? null : readAt.toLocalDateTime()
+          );
+        },
+        args.toArray()
+    );
+    return toPage(rows, size, r -> new Cursor(r.sentAt(), r.id()));
+  }
+  /**
+   * 宛先を1回の問い合わせで解決し、broadcastChunk 件ずつ batchUpdate で INSERT する（全体で1トランザクション）。
+   * 宛先が0人なら何も作らず broadcastId=0 を返す。
+   */
+  @Transactional
+  public BroadcastResult broadcast(long senderId, Target target, String body) {
+    long started = System.nanoTime();
+    List<Long> recipients;
+    List<String> unknown = List.of();
+    if (target.usernames() != null) {
+      Set<String> requested = new LinkedHashSet<>(target.usernames());
+      List<Object[]> found = jdbc.query(
+          "SELECT id, username FROM users WHERE enabled=TRUE AND id<>? AND username = ANY(?)",
+          (rs, rn) -> new Object[] { rs.getLong("id"), rs.getString("username") },
+          senderId, requested.toArray(new String[0])
+      );
+      recipients = new ArrayList<>(found.size());
+      for (Object[] row : found) {
+        recipients.add((Long) row[0]);
+        requested.remove((String) row[1]);
+      }
+      unknown = List.copyOf(requested);
+    } else if (target.userIds() != null) {
+      recipients = jdbc.queryForList(
+          "SELECT id FROM users WHERE enabled=TRUE AND id<>? AND id = ANY(?) ORDER BY id",
+          Long.class, senderId, target.userIds().toArray(new Long[0]));
+    } else if (target.role() != null) {
+      recipients = jdbc.queryForList(
+          "SELECT id FROM users WHERE enabled=TRUE AND id<>? AND role=? ORDER BY id", Long.class, senderId, target.role());
+    } else {
+      recipients = jdbc.queryForList(
+          "SELECT id FROM users WHERE enabled=TRUE AND id<>? ORDER BY id", Long.class, senderId);
+    }
+    if (recipients.isEmpty()) {
+      return new BroadcastResult(0, 0, unknown, (System.nanoTime() - started) / 1_000_000);
+    }
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    Long broadcastId = jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO message_broadcasts (sender_id, target, body, recipients, sent_at) VALUES (?,?,?,?,?))",
+        Long.class, senderId, target.label(), body, recipients.size(), now
+    );
+    List<Object[]> batch = new ArrayList<>(Math.min(broadcastChunk, recipients.size()));
+    for (Long receiverId : recipients) {
+      batch.add(new Object[] { senderId, receiverId, body, now, broadcastId });
+      if (batch.size() >= broadcastChunk) {
+        insertBroadcastRows(batch);
+        batch.clear();
+      }
+    }
+    insertBroadcastRows(batch);
+    // 受信者ごとに +1（受信者は重複しないので、未読カウンタも1文でまとめて加算できる）
+    jdbc.update(
+        "MERGE INTO message_unread_counter t " +
+        "USING (SELECT receiver_id AS user_id, COUNT(*) AS delta FROM messages WHERE broadcast_id=? GROUP BY receiver_id) s " +
+        "ON t.user_id = s.user_id " +
+        "WHEN MATCHED THEN UPDATE SET unread = t.unread + s.delta, updated_at = ? " +
+        "WHEN NOT MATCHED THEN INSERT (user_id, unread, updated_at) VALUES (s.user_id, s.delta, ?)",
+        broadcastId, now, now
+    );
+    search.indexBroadcast(broadcastId, body);
+    return new BroadcastResult(broadcastId, recipients.size(), unknown, (System.nanoTime() - started) / 1_000_000);
+  }
+  /**
+   * 自分の一斉送信（新しい順）と既読数。既読数は idx_msg_broadcast だけで数える。
+   */
+  public List<BroadcastReceipt> broadcasts(long senderId, int limit) {
+    return jdbc.query(
+        "SELECT b.id, b.target, b.body, b.sent_at, b.recipients, " +
+        "(SELECT COUNT(m.read_at) FROM messages m WHERE m.broadcast_id=b.id) AS read_count " +
+        "FROM message_broadcasts b WHERE b.sender_id=? ORDER BY b.sent_at DESC, b.id DESC LIMIT ?",
+        (rs, rn) -> new BroadcastReceipt(
+            rs.getLong("id"),
+            rs.getString("target"),
+            rs.getString("body"),
+            rs.getTimestamp("sent_at").toLocalDateTime(),
+            rs.getInt("recipients"),
+            rs.getInt("read_count")
+        ),
+        senderId, limit
+    );
+  }
+  private static void appendSeek(StringBuilder sql, List<Object> args, Cursor after, int size) {
+    if (after != null) {
+      Timestamp at = Timestamp.valueOf(after.sentAt());
+      sql.append(" AND m.sent_at<=? AND (m.sent_at<? OR m.id<?)");
+      args.add(at);
+      args.add(at);
+      args.add(after.id());
+    }
+    sql.append(" ORDER BY m.sent_at DESC, m.id DESC LIMIT ?");
+    args.add(size + 1);
+  }
+  /**
+   * size+1 件取得した結果から、1ページ分と次ページの開始位置を作る。
+   */
+  private static <T> Page<T> toPage(List<T> rows, int size, Function<T, Cursor> key) {
+    if (rows.size() <= size) {
+      return new Page<>(rows, null);
+    }
+    List<T> pageRows = new ArrayList<>(rows.subList(0, size));
+    return new Page<>(pageRows, key.apply(pageRows.get(size - 1)));
+  }
+  private void insertBroadcastRows(List<Object[]> batch) {
+    if (batch.isEmpty()) return;
+    jdbc.batchUpdate(
+        "INSERT INTO messages (sender_id, receiver_id, body, sent_at, read_at, broadcast_id) VALUES (?,?,?,?,NULL,?)",
+        batch
+    );
+  }
+  private void addUnread(long userId, int delta, Timestamp now) {
+    try {
+      jdbc.update(INCREMENT_SQL, userId, delta, now);
+    } catch (DuplicateKeyException e) {
+      // 初回の行を別セッションが同時に作成した。2回目は MATCHED 側で加算される
+      jdbc.update(INCREMENT_SQL, userId, delta, now);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.example.ems.service;
+import com.example.ems.domain.Actor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+/**
+ * タイムレコーダーの打刻CSVを attendance_records に一括取込する。
+ *
+ * 形式（1行1打刻、ヘッダ行は任意）:
+ * <pre>
+ * username,timestamp,IN|OUT[,work_date]
+ * 1001,2025-04-01 08:58:12,IN
+ * 1001,2025-04-02 00:15,OUT,2025-04-01
+ * </pre>
+ * work_date 省略時は timestamp の日付。
+ * ファイルは1行ずつ読み、(user_id, work_date) 単位にまとめたチャンクを batchUpdate で MERGE する。
+ * 同じ日の再取込は「出勤は早い方 / 退勤は遅い方」を残す（uq_att に対するupsert）。
+ * 取込後、対象になった月の attendance_monthly_summary を作り直す。
+ */
+@Service
+public class PunchImportService {
+  public record ImportResult(long lines, long punches, long upserted, long malformed, long unknownUser, long elapsedMs) {
+    public double rowsPerSecond() {
+      return elapsedMs == 0 ? punches * 1000.0 : punches * 1000.0 / elapsedMs;
+    }
+  }
+  record Punch(String username, LocalDate workDate, LocalDateTime at, boolean in) {}
+  private record DayKey(long userId, LocalDate workDate) {}
+  private static final class DayPunches {
+    LocalDateTime clockIn;
+    LocalDateTime clockOut;
+    void add(Punch p) {
+      if (p.in()) {
+        if (clockIn == null || p.at().isBefore(clockIn)) clockIn = p.at();
+      } else {
+        if (clockOut == null || p.at().isAfter(clockOut)) clockOut = p.at();
+      }
+    }
+  }
+  private static final String UPSERT_SQL =
+      "MERGE INTO attendance_records a " +
+      "USING (SELECT CAST(? AS BIGINT) AS user_id, CAST(? AS DATE) AS work_date, " +
+      "CAST(? AS TIMESTAMP) AS cin, CAST(? AS TIMESTAMP) AS cout, CAST(? AS TIMESTAMP) AS ts) s " +
+      "ON a.user_id = s.user_id AND a.work_date = s.work_date " +
+      "WHEN MATCHED THEN UPDATE SET clock_in = LEAST(a.clock_in, s.cin), clock_out = GREATEST(a.clock_out, s.cout), updated_at = s.ts " +
+      "WHEN NOT MATCHED THEN INSERT (user_id, work_date, clock_in, clock_out, created_at, updated_at) " +
+      "VALUES (s.user_id, s.work_date, s.cin, s.cout, s.ts, s.ts)";
+  private final JdbcTemplate jdbc;
+  private final TransactionTemplate tx;
+  private final JdbcAuditWriter auditWriter;
+  private final AttendanceSummaryService summaryService;
+  private final int defaultChunkSize;
+  public PunchImportService(JdbcTemplate jdbc,
+                            PlatformTransactionManager transactionManager,
+                            JdbcAuditWriter auditWriter,
+                            AttendanceSummaryService summaryService,
+                            @Value("${ems.import.chunk-size:5000}") int defaultChunkSize) {
+    this.jdbc = jdbc;
+    this.tx = new TransactionTemplate(transactionManager);
+    this.auditWriter = auditWriter;
+    this.summaryService = summaryService;
+    this.defaultChunkSize = defaultChunkSize;
+  }
+  public int getDefaultChunkSize() {
+    return defaultChunkSize;
+  }
+  public ImportResult importFile(Actor actor, Path file, Charset charset, int chunkSize) throws IOException {
+    int chunk = chunkSize > 0 ? chunkSize : defaultChunkSize;
+    long started = System.nanoTime();
+    Map<String, Long> userIds = loadUserIds();
+    Map<DayKey, DayPunches> pending = new LinkedHashMap<>();
+    Set<YearMonth> months = new TreeSet<>();
+    long lines = 0;
+    long punches = 0;
+    long upserted = 0;
+    long malformed = 0;
+    long unknownUser = 0;
+    try (BufferedReader reader = Files.newBufferedReader(file, charset)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines++;
+        if (line.isBlank() || (lines == 1 && line.toLowerCase().startsWith("username"))) continue;
+        Punch p = parseLine(line);
+        if (p == null) {
+          malformed++;
+          continue;
+        }
+        Long userId = userIds.get(p.username());
+        if (userId == null) {
+          unknownUser++;
+          continue;
+        }
+        punches++;
+        months.add(YearMonth.from(p.workDate()));
+        pending.computeIfAbsent(new DayKey(userId, p.workDate()), k -> new DayPunches()).add(p);
+        if (pending.size() >= chunk) {
+          upserted += flush(pending);
+        }
+      }
+    }
+    upserted += flush(pending);
+    if (!months.isEmpty()) {
+      summaryService.rebuildMonths(months);
+    }
+    long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+    ImportResult result = new ImportResult(lines, punches, upserted, malformed, unknownUser, elapsedMs);
+    auditWriter.write(actor, "IMPORT_PUNCHES", "attendance_records", String.valueOf(file.getFileName()),
+        "lines=" + lines + ", punches=" + punches + ", upserted=" + upserted
+            + ", malformed=" + malformed + ", unknownUser=" + unknownUser
+            + ", elapsedMs=" + elapsedMs + ", chunk=" + chunk);
+    return result;
+  }
+  /**
+   * チャンク単位で1トランザクション。ファイル全体を1トランザクションにしないのは、
+   * AUTO_SERVER で共有しているDBのロック保持とUNDO領域を小さく保つため。
+   */
+  private int flush(Map<DayKey, DayPunches> pending) {
+    if (pending.isEmpty()) return 0;
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    List<Object[]> args = new ArrayList<>(pending.size());
+    for (Map.Entry<DayKey, DayPunches> e : pending.entrySet()) {
+      DayPunches d = e.getValue();
+      args.add(new Object[] {
+          e.getKey().userId(),
+          Date.valueOf(e.getKey().workDate()),
+          d.clockIn == null ? null : Timestamp.valueOf(d.clockIn),
+          d.clockOut == null ? null : Timestamp.valueOf(d.clockOut),
+          now
+      });
+    }
+    pending.clear();
+    tx.executeWithoutResult(st -> jdbc.batchUpdate(UPSERT_SQL, args));
+    return args.size();
+  }
+  private Map<String, Long> loadUserIds() {
+    Map<String, Long> ids = new HashMap<>();
+    jdbc.query("SELECT id, username FROM users", (RowCallbackHandler) rs -> ids.put(rs.getString("username"), rs.getLong("id")));
+    return ids;
+  }
+  /**
+   * 1行を解釈する。形式不正は null。
+   */
+  static Punch parseLine(String line) {
+    String[] cols = line.split(",");
+    if (cols.length < 3) return null;
+    String username = cols[0].trim();
+    if (username.isEmpty()) return null;
+    LocalDateTime at;
+    try {
+      at = LocalDateTime.parse(cols[1].trim().replace(' ', 'T'));
+    } catch (RuntimeException e) {
+      return null;
+    }
+    String kind = cols[2].trim().toUpperCase();
+    boolean in;
+    if ("IN".equals(kind)) {
+      in = true;
+    } else if ("OUT".equals(kind)) {
+      in = false;
+    } else {
+      return null;
+    }
+    LocalDate workDate = at.toLocalDate();
+    if (cols.length >= 4 && !cols[3].isBlank()) {
+      try {
+        workDate = LocalDate.parse(cols[3].trim());
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+    return new Punch(username, workDate, at, in);
+  }
+}
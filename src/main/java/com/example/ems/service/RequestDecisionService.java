@@ -0,0 +1,219 @@
+package com.example.ems.service;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+/**
+ * 申請のまとめて承認/却下。対象は1文の UPDATE（status='PENDING' AND requester_id&lt;&gt;決裁者）で更新し、
+ * OLD TABLE で実際に更新されたIDと更新前の updated_at を受け取る。更新されなかったIDは理由を1回の SELECT で調べる。
+ * 休暇の承認は ID 順に1件ずつ、本人の別の承認済み休暇と重ならないか確かめ直し（OVERLAP）、
+ * 有給なら同じトランザクションで残日数から消化する（INSUFFICIENT_LEAVE）。
+ * 当たった申請は updated_at も更新前に戻して未処理にする（決裁されなかったので変更なしに見せる）。
+ */
+@Service
+public class RequestDecisionService {
+  public enum SkipReason {
+    NOT_FOUND,
+    OWN_REQUEST,
+    NOT_PENDING,
+    OVERLAP,
+    INSUFFICIENT_LEAVE
+  }
+  /**
+   * null の条件は絞り込まない。from/to は申請の対象日（期間の開始日、なければ対象日）。
+   */
+  public record Filter(String type, Long requesterId, LocalDate from, LocalDate to) {
+    public String describe() {
+      return "type=" + (type == null ? "*" : type)
+          + ", requester=" + (requesterId == null ? "*" : requesterId)
+          + ", from=" + (from == null ? "*" : from)
+          + ", to=" + (to == null ? "*" : to);
+    }
+  }
+  public record Skipped(long id, SkipReason reason, String status) {}
+  public record BatchResult(List<Long> decided, List<Skipped> skipped, long elapsedMs) {}
+  /**
+   * matching は決裁できる件数、own は条件に合う自分の未処理申請（対象外）の件数。
+   */
+  public record Preview(int matching, int own) {}
+  private static final String DECIDE_SQL =
+      "SELECT id, updated_at FROM OLD TABLE (UPDATE application_requests " +
+      "SET status=?, decided_by_id=?, decided_at=?, decision_note=?, updated_at=? " +
+      "WHERE status='PENDING' AND requester_id<>? AND ";
+  private final JdbcTemplate jdbc;
+  private final LeaveLedgerService leaveLedger;
+  public RequestDecisionService(JdbcTemplate jdbc, LeaveLedgerService leaveLedger) {
+    this.jdbc = jdbc;
+    this.leaveLedger = leaveLedger;
+  }
+  @Transactional
+  public BatchResult decideIds(long deciderId, List<Long> ids, boolean approve, String note) {
+    long started = System.nanoTime();
+    Set<Long> requested = new LinkedHashSet<>(ids);
+    if (requested.isEmpty()) return new BatchResult(List.of(), List.of(), 0);
+    Long[] idArray = requested.toArray(new Long[0]);
+    List<Object> args = decideArgs(deciderId, approve, note);
+    args.add(idArray);
+    Map<Long, Timestamp> previous = decide(DECIDE_SQL + "id = ANY(?)) ORDER BY id", args);
+    List<Long> decided = new ArrayList<>(previous.keySet());
+    requested.removeAll(decided);
+    List<Skipped> skipped = new ArrayList<>();
+    if (approve) settleLeaves(deciderId, decided, previous, skipped);
+    if (!requested.isEmpty()) {
+      Map<Long, Skipped> found = new HashMap<>();
+      jdbc.query(
+          "SELECT id, requester_id, status FROM application_requests WHERE id = ANY(?)",
+          (RowCallbackHandler) rs -> {
+            long id = rs.getLong("id");
+            String status = rs.getString("status");
+            SkipReason reason = (rs.getLong("requester_id") == deciderId && "PENDING".equals(status))
+                ? SkipReason.OWN_REQUEST : SkipReason.NOT_PENDING;
+            found.put(id, new Skipped(id, reason, status));
+          },
+          (Object) requested.toArray(new Long[0])
+      );
+      for (Long id : requested) {
+        skipped.add(found.getOrDefault(id, new Skipped(id, SkipReason.NOT_FOUND, null)));
+      }
+    }
+    return new BatchResult(decided, skipped, (System.nanoTime() - started) / 1_000_000);
+  }
+  /**
+   * 条件に合う未処理をまとめて決裁する。自分の申請は OWN_REQUEST として skipped に入る。
+   */
+  @Transactional
+  public BatchResult decideFilter(long deciderId, Filter filter, boolean approve, String note) {
+    long started = System.nanoTime();
+    List<Object> args = decideArgs(deciderId, approve, note);
+    StringBuilder where = new StringBuilder("1=1");
+    appendFilter(where, args, filter);
+    Map<Long, Timestamp> previous = decide(DECIDE_SQL + where + ") ORDER BY id", args);
+    List<Long> decided = new ArrayList<>(previous.keySet());
+    List<Skipped> skipped = new ArrayList<>();
+    if (approve) settleLeaves(deciderId, decided, previous, skipped);
+    List<Object> ownArgs = new ArrayList<>();
+    ownArgs.add(deciderId);
+    StringBuilder ownWhere = new StringBuilder("status='PENDING' AND requester_id=?");
+    appendFilter(ownWhere, ownArgs, filter);
+    for (Long id : jdbc.queryForList("SELECT id FROM application_requests WHERE " + ownWhere + " ORDER BY id", Long.class, ownArgs.toArray())) {
+      skipped.add(new Skipped(id, SkipReason.OWN_REQUEST, "PENDING"));
+    }
+    return new BatchResult(decided, skipped, (System.nanoTime() - started) / 1_000_000);
+  }
+  public Preview preview(long deciderId, Filter filter) {
+    List<Object> args = new ArrayList<>();
+    args.add(deciderId);
+    args.add(deciderId);
+    StringBuilder where = new StringBuilder("status='PENDING'");
+    appendFilter(where, args, filter);
+    return jdbc.queryForObject(
+        "SELECT COUNT(CASE WHEN requester_id<>? THEN 1 END) AS matching, COUNT(CASE WHEN requester_id=? THEN 1 END) AS own " +
+        "FROM application_requests WHERE " + where,
+        (rs, rn) -> new Preview(rs.getInt("matching"), rs.getInt("own")),
+        args.toArray()
+    );
+  }
+  /**
+   * 決裁した ID（昇順）→ 更新前の updated_at。
+   */
+  private Map<Long, Timestamp> decide(String sql, List<Object> args) {
+    Map<Long, Timestamp> previous = new LinkedHashMap<>();
+    jdbc.query(sql, (RowCallbackHandler) rs -> previous.put(rs.getLong("id"), rs.getTimestamp("updated_at")), args.toArray());
+    return previous;
+  }
+  /**
+   * 承認した休暇を ID 順に1件ずつ確かめる。本人の別の承認済み休暇と重なれば OVERLAP、
+   * 有給（台帳より前の ledger_tracked=FALSE を除く）で残日数が足りなければ INSUFFICIENT_LEAVE として
+   * 未処理に戻し、decided から skipped へ移す。
+   * 重なりの比較からはまだ確かめていない同じ回の申請を除くので、同じ回に重なる2件は ID の小さい方が残り、
+   * 小さい方が残日数不足で戻ったときは大きい方が承認される。
+   * 申請者の users 行を ID 順にロックし、LeaveScheduleService.createLeave や別の決裁と直列にする。
+   */
+  private void settleLeaves(long deciderId, List<Long> decided, Map<Long, Timestamp> previous, List<Skipped> skipped) {
+    if (decided.isEmpty()) return;
+    record Leave(long id, long requesterId, Date start, Date end, boolean consume) {}
+    List<Leave> leaves = jdbc.query(
+        "SELECT id, requester_id, start_date, end_date, " +
+        "(leave_category='PAID' AND ledger_tracked=TRUE) AS consume FROM application_requests " +
+        "WHERE id = ANY(?) AND type='LEAVE' ORDER BY id",
+        (rs, rn) -> new Leave(rs.getLong("id"), rs.getLong("requester_id"), rs.getDate("start_date"), rs.getDate("end_date"),
+            rs.getBoolean("consume")),
+        (Object) decided.toArray(new Long[0])
+    );
+    if (leaves.isEmpty()) return;
+    jdbc.queryForList("SELECT id FROM users WHERE id = ANY(?) ORDER BY id FOR UPDATE", Long.class,
+        (Object) leaves.stream().map(Leave::requesterId).distinct().toArray(Long[]::new));
+    Set<Long> unchecked = new HashSet<>();
+    for (Leave l : leaves) unchecked.add(l.id());
+    for (Leave l : leaves) {
+      unchecked.remove(l.id());
+      Integer n = jdbc.queryForObject(
+          "SELECT COUNT(*) FROM application_requests WHERE requester_id=? AND type='LEAVE' AND status='APPROVED' " +
+          "AND end_date>=? AND start_date<=? AND id<>? AND NOT (id = ANY(?))",
+          Integer.class,
+          l.requesterId(), l.start(), l.end(), l.id(), unchecked.toArray(new Long[0])
+      );
+      SkipReason reason = null;
+      if (n != null && n > 0) {
+        reason = SkipReason.OVERLAP;
+      } else if (l.consume() && !leaveLedger.consume(l.requesterId(), l.id(),
+          LeaveLedgerService.leaveDays(l.start().toLocalDate(), l.end().toLocalDate()), deciderId)) {
+        reason = SkipReason.INSUFFICIENT_LEAVE;
+      }
+      if (reason == null) continue;
+      backToPending(l.id(), previous.get(l.id()));
+      decided.remove(Long.valueOf(l.id()));
+      skipped.add(new Skipped(l.id(), reason, "PENDING"));
+    }
+  }
+  /**
+   * 同じトランザクションで承認した行だけを戻す（status='APPROVED' で確かめる）。updated_at は決裁前の値に戻す。
+   */
+  private void backToPending(long id, Timestamp updatedAt) {
+    jdbc.update(
+        "UPDATE application_requests SET status='PENDING', decided_by_id=NULL, decided_at=NULL, decision_note=NULL, updated_at=? " +
+        "WHERE id=? AND status='APPROVED'",
+        updatedAt, id);
+  }
+  private static List<Object> decideArgs(long deciderId, boolean approve, String note) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    List<Object> args = new ArrayList<>();
+    args.add(approve ? "APPROVED" : "REJECTED");
+    args.add(deciderId);
+    args.add(now);
+    args.add(note);
+    args.add(now);
+    args.add(deciderId);
+    return args;
+  }
+  private static void appendFilter(StringBuilder where, List<Object> args, Filter filter) {
+    if (filter.type() != null) {
+      where.append(" AND type=?");
+      args.add(filter.type());
+    }
+    if (filter.requesterId() != null) {
+      where.append(" AND requester_id=?");
+      args.add(filter.requesterId());
+    }
+    if (filter.from() != null) {
+      where.append(" AND COALESCE(start_date, target_date)>=?");
+      args.add(Date.valueOf(filter.from()));
+    }
+    if (filter.to() != null) {
+      where.append(" AND COALESCE(start_date, target_date)<=?");
+      args.add(Date.valueOf(filter.to()));
+    }
+  }
+}
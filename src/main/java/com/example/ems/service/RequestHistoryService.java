@@ -0,0 +1,109 @@
+package com.example.ems.service;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * 自分の申請状況。件数は GROUP BY status の1回、履歴は (created_at, id) のシーク方式でページングする。
+ * どちらも idx_req_requester_created (requester_id, created_at, id) の範囲だけを読む。
+ */
+@Service
+public class RequestHistoryService {
+  public record Counts(int pending, int approved, int rejected) {}
+  public record Row(
+      long id,
+      String type,
+      String status,
+      LocalDate startDate,
+      LocalDate endDate,
+      LocalDate targetDate,
+      Integer overtimeMinutes,
+      String requestedShift,
+      String reason,
+      LocalDateTime createdAt,
+      Long decidedById,
+      LocalDateTime decidedAt,
+      String decisionNote
+  ) {}
+  /**
+   * 次ページの開始位置（直前ページ最後の行）。
+   */
+  public record Cursor(LocalDateTime createdAt, long id) {}
+  /**
+   * next が null なら最終ページ。
+   */
+  public record Page(List<Row> rows, Cursor next) {}
+  private final JdbcTemplate jdbc;
+  public RequestHistoryService(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+  public Counts counts(long requesterId) {
+    int[] c = new int[3];
+    jdbc.query(
+        "SELECT status, COUNT(*) AS n FROM application_requests WHERE requester_id=? GROUP BY status",
+        (RowCallbackHandler) rs -> {
+          switch (rs.getString("status")) {
+            case "PENDING" -> c[0] = rs.getInt("n");
+            case "APPROVED" -> c[1] = rs.getInt("n");
+            case "REJECTED" -> c[2] = rs.getInt("n");
+            default -> {}
+          }
+        },
+        requesterId
+    );
+    return new Counts(c[0], c[1], c[2]);
+  }
+  public Page page(long requesterId, Cursor after, int size) {
+    StringBuilder sql = new StringBuilder(
+        "SELECT id, type, status, start_date, end_date, target_date, overtime_minutes, requested_shift, reason, created_at, " +
+        "decided_by_id, decided_at, decision_note FROM application_requests WHERE requester_id=?");
+    List<Object> args = new ArrayList<>();
+    args.add(requesterId);
+    if (after != null) {
+      Timestamp at = Timestamp.valueOf(after.createdAt());
+      sql.append(" AND created_at<=? AND (created_at<? OR id<?)");
+      args.add(at);
+      args.add(at);
+      args.add(after.id());
+    }
+    sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+    args.add(size + 1);
+    List<Row> rows = jdbc.query(
+        sql.toString(),
+        (rs, rn) -> {
+          long tmp = rs.getLong("decided_by_id");
+          Long decidedById = rs.wasNull() ? null : tmp;
+          java.sql.Date start = rs.getDate("start_date");
+          java.sql.Date end = rs.getDate("end_date");
+          java.sql.Date target = rs.getDate("target_date");
+          Timestamp decidedAt = rs.getTimestamp("decided_at");
+          return new Row(
+              rs.getLong("id"),
+              rs.getString("type"),
+              rs.getString("status"),
+              start == null ? null : start.toLocalDate(),
+              end == null ? null : end.toLocalDate(),
+              target == null ? null : target.toLocalDate(),
+              (Integer) rs.getObject("overtime_minutes"),
+              rs.getString("requested_shift"),
+              rs.getString("reason"),
+              rs.getTimestamp("created_at").toLocalDateTime(),
+              decidedById,
+              decidedAt == null ? null : decidedAt.toLocalDateTime(),
+              rs.getString("decision_note")
+          );
+        },
+        args.toArray()
+    );
+    if (rows.size() <= size) {
+      return new Page(rows, null);
+    }
+    List<Row> pageRows = new ArrayList<>(rows.subList(0, size));
+    Row last = pageRows.get(size - 1);
+    return new Page(pageRows, new Cursor(last.createdAt(), last.id()));
+  }
+}
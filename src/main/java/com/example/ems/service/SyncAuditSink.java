@@ -0,0 +1,35 @@
+package com.example.ems.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * 呼び出しスレッドでそのまま INSERT する実装（ems.audit.mode=sync）。
+ */
+public class SyncAuditSink implements AuditSink {
+  private static final Logger log = LoggerFactory.getLogger(SyncAuditSink.class);
+  private final JdbcAuditWriter writer;
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  public SyncAuditSink(JdbcAuditWriter writer) {
+    this.writer = writer;
+  }
+  @Override
+  public void record(AuditEvent event) {
+    accepted.incrementAndGet();
+    try {
+      writer.write(event);
+      written.incrementAndGet();
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      log.error("audit write failed: {}", event, e);
+    }
+  }
+  @Override
+  public void flush() {
+  }
+  @Override
+  public Stats stats() {
+    return new Stats(accepted.get(), written.get(), 0, failed.get(), 0);
+  }
+}
@@ -0,0 +1,44 @@
+package com.example.ems.service;
+/**
+ * アーカイブファイル（監査セグメント、メッセージ退避）共通のTSVエスケープ。
+ * タブ/改行/CR/バックスラッシュをバックスラッシュで表し、null は \N にする（PostgreSQL の COPY text と同じ形）。
+ */
+final class TsvCodec {
+  static final String NULL = "\\N";
+  private TsvCodec() {}
+  static String escape(String s) {
+    if (s == null) return NULL;
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '\\' -> sb.append("\\\\");
+        case '\t' -> sb.append("\\t");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        default -> sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+  static String unescape(String s) {
+    if (NULL.equals(s)) return null;
+    if (s.indexOf('\\') < 0) return s;
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\' && i + 1 < s.length()) {
+        char n = s.charAt(++i);
+        switch (n) {
+          case 't' -> sb.append('\t');
+          case 'n' -> sb.append('\n');
+          case 'r' -> sb.append('\r');
+          default -> sb.append(n);
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+}
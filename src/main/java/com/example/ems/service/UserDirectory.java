@@ -0,0 +1,153 @@
+package com.example.ems.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * users の読み取りキャッシュ（id → ユーザー、username → id）。
+ * 件数上限つきの LRU と TTL で追い出す。
+ *
+ * 自プロセスでの更新は呼び出し側が invalidate で即時に反映する。
+ * 他プロセス（AUTO_SERVER で同じDBを使う別CLI）の更新は、checkIntervalMs ごとに
+ * users の MAX(updated_at) と COUNT(*) を確認して検出する。
+ * updated_at が進んでいればそれ以降に更新された行だけを捨て、件数が変わっていれば（削除を含む）全体を捨てる。
+ * 同じ時刻のままの更新など、この確認で拾えないものは TTL で追い出されるまで古いまま見える。
+ */
+@Service
+public class UserDirectory {
+  public record User(long id, String username, String displayName, String passwordHash, String role, boolean enabled) {}
+  public record Stats(long hits, long misses, long evictions, long invalidations, int size) {}
+  private record Cached(User user, long loadedAt) {}
+  private static final String SELECT_SQL =
+      "SELECT id, username, display_name, password_hash, role, enabled FROM users WHERE ";
+  private static final RowMapper<User> USER_MAPPER = (rs, rn) -> new User(
+      rs.getLong("id"),
+      rs.getString("username"),
+      rs.getString("display_name"),
+      rs.getString("password_hash"),
+      rs.getString("role"),
+      rs.getBoolean("enabled")
+  );
+  private final JdbcTemplate jdbc;
+  private final int maxEntries;
+  private final long ttlMs;
+  private final long checkIntervalMs;
+  private final LinkedHashMap<Long, Cached> byId;
+  private final Map<String, Long> idByUsername = new HashMap<>();
+  private Timestamp highWater;
+  private long rowCount = -1;
+  private long checkedAt;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+  public UserDirectory(JdbcTemplate jdbc,
+                       @Value("${ems.users.cache.max-entries:1000}") int maxEntries,
+                       @Value("${ems.users.cache.ttl-ms:300000}") long ttlMs,
+                       @Value("${ems.users.cache.check-interval-ms:1000}") long checkIntervalMs) {
+    this.jdbc = jdbc;
+    this.maxEntries = maxEntries;
+    this.ttlMs = ttlMs;
+    this.checkIntervalMs = checkIntervalMs;
+    this.byId = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+        if (size() <= UserDirectory.this.maxEntries) return false;
+        idByUsername.remove(eldest.getValue().user().username());
+        evictions++;
+        return true;
+      }
+    };
+  }
+  public synchronized User findById(long id) {
+    long now = System.currentTimeMillis();
+    checkHighWater(now);
+    User cached = lookup(id, now);
+    if (cached != null) return cached;
+    misses++;
+    return load("id=?", id, now);
+  }
+  public synchronized User findByUsername(String username) {
+    long now = System.currentTimeMillis();
+    checkHighWater(now);
+    Long id = idByUsername.get(username);
+    if (id != null) {
+      User cached = lookup(id, now);
+      if (cached != null) return cached;
+    }
+    misses++;
+    return load("username=?", username, now);
+  }
+  /**
+   * 自プロセスで users を更新・削除したあとに呼ぶ。
+   */
+  public synchronized void invalidate(long id) {
+    remove(id);
+    invalidations++;
+  }
+  public synchronized void invalidateAll() {
+    byId.clear();
+    idByUsername.clear();
+    invalidations++;
+  }
+  public synchronized Stats stats() {
+    return new Stats(hits, misses, evictions, invalidations, byId.size());
+  }
+  private User lookup(long id, long now) {
+    Cached c = byId.get(id);
+    if (c == null) return null;
+    if (now - c.loadedAt() >= ttlMs) {
+      remove(id);
+      evictions++;
+      return null;
+    }
+    hits++;
+    return c.user();
+  }
+  private User load(String where, Object arg, long now) {
+    User u;
+    try {
+      u = jdbc.queryForObject(SELECT_SQL + where, USER_MAPPER, arg);
+    } catch (EmptyResultDataAccessException e) {
+      return null;
+    }
+    remove(u.id());
+    byId.put(u.id(), new Cached(u, now));
+    idByUsername.put(u.username(), u.id());
+    return u;
+  }
+  private void remove(long id) {
+    Cached c = byId.remove(id);
+    if (c != null) idByUsername.remove(c.user().username());
+  }
+  private void checkHighWater(long now) {
+    if (now - checkedAt < checkIntervalMs) return;
+    checkedAt = now;
+    // 集約ごとにサブクエリへ分けると、MAX はインデックス、COUNT は行数の保持値で済む
+    Object[] mark = jdbc.queryForObject(
+        "SELECT (SELECT MAX(updated_at) FROM users), (SELECT COUNT(*) FROM users)",
+        (rs, rn) -> new Object[] {rs.getTimestamp(1), rs.getLong(2)}
+    );
+    Timestamp hw = (Timestamp) mark[0];
+    long count = (Long) mark[1];
+    if (rowCount >= 0 && count != rowCount) {
+      byId.clear();
+      idByUsername.clear();
+      invalidations++;
+    } else if (highWater != null && hw != null && hw.after(highWater)) {
+      List<Long> changed = jdbc.queryForList("SELECT id FROM users WHERE updated_at > ?", Long.class, highWater);
+      for (Long id : changed) {
+        remove(id);
+      }
+      invalidations++;
+    }
+    highWater = hw;
+    rowCount = count;
+  }
+}
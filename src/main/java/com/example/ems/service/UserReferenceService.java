@@ -0,0 +1,78 @@
+package com.example.ems.service;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+/**
+ * users を参照している行の有無を調べる（ユーザーの完全削除の可否判定）。
+ * 参照列ごとに EXISTS を分けているので、どれもインデックスの1点探索で済む（V5_user_reference_indexes.sql）。
+ */
+@Service
+public class UserReferenceService {
+  /**
+   * users(id) を参照する列。小さい表から先に調べる。
+   */
+  public record Reference(String table, String column) {}
+  public static final List<Reference> REFERENCES = List.of(
+      new Reference("attendance_records", "user_id"),
+      new Reference("attendance_monthly_summary", "user_id"),
+      new Reference("mental_checkins", "user_id"),
+      new Reference("mental_user_state", "user_id"),
+      new Reference("mental_alerts", "user_id"),
+      new Reference("mental_alerts", "acknowledged_by_id"),
+      new Reference("mental_alert_rules", "created_by_id"),
+      new Reference("application_requests", "requester_id"),
+      new Reference("application_requests", "decided_by_id"),
+      new Reference("messages", "sender_id"),
+      new Reference("messages", "receiver_id"),
+      new Reference("message_unread_counter", "user_id"),
+      new Reference("message_broadcasts", "sender_id"),
+      new Reference("gap_reminders", "user_id"),
+      new Reference("leave_balance", "user_id"),
+      new Reference("leave_ledger", "user_id"),
+      new Reference("leave_ledger", "created_by_id"),
+      new Reference("password_reset_request", "target_user_id"),
+      new Reference("password_reset_request", "requested_by_id"),
+      new Reference("password_reset_request", "decided_by_id"),
+      new Reference("audit_logs", "actor_id")
+  );
+  private static final String ANY_SQL = buildSql(" OR ");
+  private static final String EACH_SQL = buildSql(", ");
+  private final JdbcTemplate jdbc;
+  public UserReferenceService(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+  /**
+   * どこかから参照されていれば true。最初に見つかった時点で残りは評価しない。
+   */
+  public boolean isReferenced(long userId) {
+    Boolean found = jdbc.queryForObject(ANY_SQL, Boolean.class, args(userId));
+    return Boolean.TRUE.equals(found);
+  }
+  /**
+   * 参照している表（重複なし、REFERENCES の順）。空なら削除できる。
+   */
+  public List<String> referencingTables(long userId) {
+    return jdbc.queryForObject(EACH_SQL, (rs, rn) -> {
+      List<String> tables = new ArrayList<>();
+      for (int i = 0; i < REFERENCES.size(); i++) {
+        String table = REFERENCES.get(i).table();
+        if (rs.getBoolean(i + 1) && !tables.contains(table)) tables.add(table);
+      }
+      return tables;
+    }, args(userId));
+  }
+  private static Object[] args(long userId) {
+    Object[] args = new Object[REFERENCES.size()];
+    Arrays.fill(args, userId);
+    return args;
+  }
+  private static String buildSql(String separator) {
+    List<String> parts = new ArrayList<>();
+    for (Reference r : REFERENCES) {
+      parts.add("EXISTS (SELECT 1 FROM " + r.table() + " WHERE " + r.column() + "=?)");
+    }
+    return "SELECT " + String.join(separator, parts);
+  }
+}
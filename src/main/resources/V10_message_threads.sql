@@ -0,0 +1,7 @@
+-- 送信一覧（sender_id, 一斉送信以外, 新しい順）。参照チェックの sender_id もこの索引の先頭列で引ける
+CREATE INDEX IF NOT EXISTS idx_msg_sender_sent ON messages(sender_id, broadcast_id, sent_at);
+DROP INDEX IF EXISTS idx_msg_sender;
+-- 会話: 2人の組を向きによらず (小さいID, 大きいID) に正規化した生成列
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS pair_low BIGINT GENERATED ALWAYS AS (LEAST(sender_id, receiver_id));
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS pair_high BIGINT GENERATED ALWAYS AS (GREATEST(sender_id, receiver_id));
+CREATE INDEX IF NOT EXISTS idx_msg_pair ON messages(pair_low, pair_high, sent_at);
@@ -0,0 +1,3 @@
+-- 自分の申請（件数の集計と新しい順のページング）。参照チェックの requester_id もこの索引で引ける
+CREATE INDEX IF NOT EXISTS idx_req_requester_created ON application_requests(requester_id, created_at, id);
+DROP INDEX IF EXISTS idx_req_requester;
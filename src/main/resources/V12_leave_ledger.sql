@@ -0,0 +1,36 @@
+ALTER TABLE application_requests ADD COLUMN IF NOT EXISTS leave_category VARCHAR(30);
+-- 休暇種別は以前 reason の先頭 "[休暇:...]" にしか無かった（buildLeaveReason）
+UPDATE application_requests SET leave_category = CASE
+    WHEN reason LIKE '[休暇:有給休暇]%' THEN 'PAID'
+    WHEN reason LIKE '[休暇:特別休暇:忌引き]%' THEN 'SPECIAL_BEREAVEMENT'
+    WHEN reason LIKE '[休暇:特別休暇:結婚]%' THEN 'SPECIAL_MARRIAGE'
+    ELSE 'SPECIAL_OTHER'
+  END
+WHERE type = 'LEAVE' AND leave_category IS NULL;
+-- 有給の台帳。GRANT は remaining（未使用・未失効の日数）を持ち、CONSUME/EXPIRE は失効日の近い GRANT から引く
+CREATE TABLE IF NOT EXISTS leave_ledger (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  kind VARCHAR(10) NOT NULL,
+  days INT NOT NULL,
+  remaining INT,
+  expires_on DATE,
+  request_id BIGINT,
+  note VARCHAR(200),
+  created_by_id BIGINT,
+  created_at TIMESTAMP NOT NULL,
+  CONSTRAINT fk_ledger_user FOREIGN KEY (user_id) REFERENCES users(id),
+  CONSTRAINT fk_ledger_creator FOREIGN KEY (created_by_id) REFERENCES users(id),
+  CONSTRAINT fk_ledger_request FOREIGN KEY (request_id) REFERENCES application_requests(id)
+);
+CREATE INDEX IF NOT EXISTS idx_ledger_user ON leave_ledger(user_id, created_at);
+CREATE INDEX IF NOT EXISTS idx_ledger_grant ON leave_ledger(kind, expires_on);
+CREATE INDEX IF NOT EXISTS idx_ledger_creator ON leave_ledger(created_by_id);
+CREATE INDEX IF NOT EXISTS idx_ledger_request ON leave_ledger(request_id);
+-- 残日数 = その利用者の GRANT.remaining の合計。台帳と同じトランザクションで更新する
+CREATE TABLE IF NOT EXISTS leave_balance (
+  user_id BIGINT PRIMARY KEY,
+  paid_days INT NOT NULL,
+  updated_at TIMESTAMP NOT NULL,
+  CONSTRAINT fk_balance_user FOREIGN KEY (user_id) REFERENCES users(id)
+);
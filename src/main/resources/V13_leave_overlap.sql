@@ -0,0 +1,3 @@
+-- 休暇期間の重なり: end_date>=開始 AND start_date<=終了。end_date を先に置き、終わった休暇を読まずに済ませる
+CREATE INDEX IF NOT EXISTS idx_req_leave_user ON application_requests(requester_id, end_date, start_date);
+CREATE INDEX IF NOT EXISTS idx_req_leave_period ON application_requests(type, end_date, start_date);
@@ -0,0 +1,21 @@
+-- 日ごと・スコアごとの記録件数（全体の分布用）。記録の登録/更新と同じトランザクションで増減する
+CREATE TABLE IF NOT EXISTS mental_daily_score (
+  check_date DATE NOT NULL,
+  score INT NOT NULL,
+  checkins INT NOT NULL,
+  CONSTRAINT pk_mental_daily_score PRIMARY KEY (check_date, score)
+);
+-- 記録のコミット後に別トランザクションで +1。分析結果のキャッシュはこの値が変わるまで使う（別プロセスの記録も検知できる）
+CREATE TABLE IF NOT EXISTS mental_stats_version (
+  id INT PRIMARY KEY,
+  version BIGINT NOT NULL
+);
+INSERT INTO mental_stats_version (id, version)
+SELECT 1, 0 WHERE NOT EXISTS (SELECT 1 FROM mental_stats_version WHERE id = 1);
+-- 既存の記録を数える（集計表が空のときだけ）
+INSERT INTO mental_daily_score (check_date, score, checkins)
+SELECT check_date, score, COUNT(*)
+FROM mental_checkins
+WHERE NOT EXISTS (SELECT 1 FROM mental_daily_score)
+GROUP BY check_date, score;
+CREATE INDEX IF NOT EXISTS idx_mental_date ON mental_checkins(check_date, user_id);
@@ -0,0 +1,45 @@
+-- 低スコア通知のルール。kind ごとに threshold/days の意味が変わる（MentalAlertService.Kind）
+CREATE TABLE IF NOT EXISTS mental_alert_rules (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+  kind VARCHAR(20) NOT NULL,
+  threshold INT NOT NULL,
+  days INT NOT NULL,
+  enabled BOOLEAN NOT NULL,
+  created_by_id BIGINT,
+  created_at TIMESTAMP NOT NULL,
+  CONSTRAINT fk_alert_rule_creator FOREIGN KEY (created_by_id) REFERENCES users(id)
+);
+INSERT INTO mental_alert_rules (kind, threshold, days, enabled, created_at)
+SELECT * FROM (VALUES
+    ('SCORE_AT_MOST', 3, 1, TRUE, CURRENT_TIMESTAMP),
+    ('DROP_FROM_MEAN', 3, 5, TRUE, CURRENT_TIMESTAMP),
+    ('LOW_STREAK', 4, 3, TRUE, CURRENT_TIMESTAMP)
+  ) AS d(kind, threshold, days, enabled, created_at)
+WHERE NOT EXISTS (SELECT 1 FROM mental_alert_rules);
+-- 利用者ごとの直近15日のスコア（古い順、1文字1日、'0' は記録なし）。評価のたびに履歴を読み直さないための状態
+CREATE TABLE IF NOT EXISTS mental_user_state (
+  user_id BIGINT PRIMARY KEY,
+  window_end DATE NOT NULL,
+  scores VARCHAR(15) NOT NULL,
+  updated_at TIMESTAMP NOT NULL,
+  CONSTRAINT fk_mental_state_user FOREIGN KEY (user_id) REFERENCES users(id)
+);
+-- 通知キュー。同じ日に記録を上書きしても同じルールでは1件だけ
+CREATE TABLE IF NOT EXISTS mental_alerts (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  rule_id BIGINT NOT NULL,
+  check_date DATE NOT NULL,
+  score INT NOT NULL,
+  detail VARCHAR(200),
+  created_at TIMESTAMP NOT NULL,
+  acknowledged_by_id BIGINT,
+  acknowledged_at TIMESTAMP,
+  CONSTRAINT fk_alert_user FOREIGN KEY (user_id) REFERENCES users(id),
+  CONSTRAINT fk_alert_rule FOREIGN KEY (rule_id) REFERENCES mental_alert_rules(id),
+  CONSTRAINT fk_alert_ack FOREIGN KEY (acknowledged_by_id) REFERENCES users(id),
+  CONSTRAINT uq_mental_alert UNIQUE (user_id, rule_id, check_date)
+);
+CREATE INDEX IF NOT EXISTS idx_alert_open ON mental_alerts(acknowledged_at, created_at);
+CREATE INDEX IF NOT EXISTS idx_alert_ack ON mental_alerts(acknowledged_by_id);
+CREATE INDEX IF NOT EXISTS idx_alert_rule_creator ON mental_alert_rules(created_by_id);
@@ -0,0 +1,14 @@
+-- リマインダーの送信者（ログイン不可: 無効 + 照合できないハッシュ）
+INSERT INTO users (username, display_name, password_hash, role, enabled, created_at, updated_at)
+SELECT 'ems-system', STRINGDECODE('\u30B7\u30B9\u30C6\u30E0'), '!', 'EMPLOYEE', FALSE, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+WHERE NOT EXISTS (SELECT 1 FROM users WHERE username = 'ems-system');
+-- 送ったリマインダー（種類 × 対象日 × 利用者で1件）。再実行では送信済みの人を除く
+CREATE TABLE IF NOT EXISTS gap_reminders (
+  kind VARCHAR(20) NOT NULL,
+  gap_date DATE NOT NULL,
+  user_id BIGINT NOT NULL,
+  created_at TIMESTAMP NOT NULL,
+  CONSTRAINT pk_gap_reminders PRIMARY KEY (kind, gap_date, user_id),
+  CONSTRAINT fk_gap_user FOREIGN KEY (user_id) REFERENCES users(id)
+);
+CREATE INDEX IF NOT EXISTS idx_gap_user ON gap_reminders(user_id);
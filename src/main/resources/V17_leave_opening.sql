@@ -0,0 +1,6 @@
+-- 台帳（V12）より前に作られた申請は有給を消化しない（残日数0のまま承認できなくなるため）。
+-- 既存行だけ FALSE にし、その後に作られる行は既定値で TRUE になる
+ALTER TABLE application_requests ADD COLUMN IF NOT EXISTS ledger_tracked BOOLEAN;
+UPDATE application_requests SET ledger_tracked = FALSE WHERE ledger_tracked IS NULL;
+ALTER TABLE application_requests ALTER COLUMN ledger_tracked SET DEFAULT TRUE;
+ALTER TABLE application_requests ALTER COLUMN ledger_tracked SET NOT NULL;
@@ -0,0 +1,13 @@
+CREATE TABLE IF NOT EXISTS attendance_monthly_summary (
+  user_id BIGINT NOT NULL,
+  year_month CHAR(7) NOT NULL,
+  worked_minutes BIGINT NOT NULL DEFAULT 0,
+  days_present INT NOT NULL DEFAULT 0,
+  late_count INT NOT NULL DEFAULT 0,
+  early_leave_count INT NOT NULL DEFAULT 0,
+  missing_clock_out INT NOT NULL DEFAULT 0,
+  updated_at TIMESTAMP NOT NULL,
+  CONSTRAINT pk_att_month PRIMARY KEY (user_id, year_month),
+  CONSTRAINT fk_att_month_user FOREIGN KEY (user_id) REFERENCES users(id)
+);
+CREATE INDEX IF NOT EXISTS idx_att_month_ym ON attendance_monthly_summary(year_month, user_id);
@@ -0,0 +1,3 @@
+CREATE INDEX IF NOT EXISTS idx_audit_actor ON audit_logs(actor_id, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_audit_action ON audit_logs(action, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_audit_entity ON audit_logs(entity_type, entity_id, created_at, id);
@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS idx_users_updated ON users(updated_at);
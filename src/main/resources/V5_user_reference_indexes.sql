@@ -0,0 +1,4 @@
+CREATE INDEX IF NOT EXISTS idx_req_decider ON application_requests(decided_by_id);
+CREATE INDEX IF NOT EXISTS idx_prr_target ON password_reset_request(target_user_id);
+CREATE INDEX IF NOT EXISTS idx_prr_requester ON password_reset_request(requested_by_id);
+CREATE INDEX IF NOT EXISTS idx_prr_decider ON password_reset_request(decided_by_id);
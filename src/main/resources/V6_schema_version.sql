@@ -0,0 +1,5 @@
+CREATE TABLE IF NOT EXISTS ems_schema_version (
+  id INT PRIMARY KEY,
+  checksum VARCHAR(32) NOT NULL,
+  applied_at TIMESTAMP NOT NULL
+);
@@ -0,0 +1,14 @@
+CREATE TABLE IF NOT EXISTS message_unread_counter (
+  user_id BIGINT PRIMARY KEY,
+  unread INT NOT NULL,
+  updated_at TIMESTAMP NOT NULL,
+  CONSTRAINT fk_unread_user FOREIGN KEY (user_id) REFERENCES users(id)
+);
+CREATE INDEX IF NOT EXISTS idx_msg_receiver_unread ON messages(receiver_id, read_at, sent_at);
+-- 既存の未読を数える（カウンタ行がある受信者は送信/既読で管理済みなので対象外）
+INSERT INTO message_unread_counter (user_id, unread, updated_at)
+SELECT m.receiver_id, COUNT(*), CURRENT_TIMESTAMP
+FROM messages m
+WHERE m.read_at IS NULL
+  AND NOT EXISTS (SELECT 1 FROM message_unread_counter c WHERE c.user_id = m.receiver_id)
+GROUP BY m.receiver_id;
@@ -0,0 +1,13 @@
+CREATE TABLE IF NOT EXISTS message_broadcasts (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+  sender_id BIGINT NOT NULL,
+  target VARCHAR(200) NOT NULL,
+  body VARCHAR(2000) NOT NULL,
+  recipients INT NOT NULL,
+  sent_at TIMESTAMP NOT NULL,
+  CONSTRAINT fk_bc_sender FOREIGN KEY (sender_id) REFERENCES users(id)
+);
+CREATE INDEX IF NOT EXISTS idx_bc_sender ON message_broadcasts(sender_id, sent_at);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS broadcast_id BIGINT;
+CREATE INDEX IF NOT EXISTS idx_msg_broadcast ON messages(broadcast_id, read_at);
+ALTER TABLE messages ADD CONSTRAINT IF NOT EXISTS fk_msg_broadcast FOREIGN KEY (broadcast_id) REFERENCES message_broadcasts(id);
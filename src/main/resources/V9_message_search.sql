@@ -0,0 +1,8 @@
+CREATE TABLE IF NOT EXISTS message_terms (
+  user_id BIGINT NOT NULL,
+  term VARCHAR(8) NOT NULL,
+  message_id BIGINT NOT NULL,
+  CONSTRAINT pk_message_terms PRIMARY KEY (user_id, term, message_id),
+  CONSTRAINT fk_mt_message FOREIGN KEY (message_id) REFERENCES messages(id) ON DELETE CASCADE
+);
+CREATE INDEX IF NOT EXISTS idx_mt_message ON message_terms(message_id);
@@ -0,0 +1,96 @@
+package com.example.ems.service;
+import com.example.ems.domain.Actor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+class AttendanceServiceTest {
+  private static final LocalDate DAY = LocalDate.of(2025, 4, 1);
+  private static final YearMonth MONTH = YearMonth.from(DAY);
+  @TempDir
+  Path tmp;
+  private SingleConnectionDataSource ds;
+  private JdbcTemplate jdbc;
+  private AttendanceSummaryService summary;
+  private AttendanceService attendance;
+  private PunchImportService importer;
+  private Actor user;
+  @BeforeEach
+  void setUp() throws IOException {
+    ds = TestDatabase.open(tmp);
+    jdbc = new JdbcTemplate(ds);
+    JdbcAuditWriter audit = new JdbcAuditWriter(jdbc);
+    summary = new AttendanceSummaryService(jdbc, "09:00", "18:00");
+    attendance = new AttendanceService(jdbc, audit, summary);
+    importer = new PunchImportService(jdbc, new DataSourceTransactionManager(ds), audit, summary, 100);
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    long id = jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO users (username, password_hash, role, enabled, created_at, updated_at) " +
+        "VALUES ('1001', 'x', 'EMPLOYEE', TRUE, ?, ?))", Long.class, now, now);
+    user = new Actor(id, "1001", "EMPLOYEE");
+  }
+  @AfterEach
+  void tearDown() {
+    ds.destroy();
+  }
+  @Test
+  void clockInOnImportedOutOnlyDayMatchesRebuild() throws IOException {
+    importLines("1001,2025-04-01 17:30,OUT");
+    AttendanceService.PunchResult in = attendance.clockIn(user, DAY, DAY.atTime(9, 10));
+    assertThat(in.outcome()).isEqualTo(AttendanceService.Outcome.PUNCHED);
+    assertThat(attendance.clockOut(user, DAY, DAY.atTime(18, 0)).outcome())
+        .isEqualTo(AttendanceService.Outcome.ALREADY_PUNCHED);
+    AttendanceSummaryService.MonthlySummary incremental = summary.findForUser(user.id(), MONTH);
+    assertThat(incremental.daysPresent()).isEqualTo(1);
+    assertThat(incremental.lateCount()).isEqualTo(1);
+    assertThat(incremental.earlyLeaveCount()).isEqualTo(1);
+    assertThat(incremental.workedMinutes()).isEqualTo(500);
+    assertThat(incremental.missingClockOut()).isZero();
+    assertRebuildMatches(incremental);
+  }
+  @Test
+  void clockInAfterImportedClockOutIsRefused() throws IOException {
+    importLines("1001,2025-04-01 08:00,OUT");
+    AttendanceSummaryService.MonthlySummary before = summary.findForUser(user.id(), MONTH);
+    AttendanceService.PunchResult in = attendance.clockIn(user, DAY, DAY.atTime(9, 0));
+    assertThat(in.outcome()).isEqualTo(AttendanceService.Outcome.ALREADY_CLOCKED_OUT);
+    assertThat(in.at()).isEqualTo(Timestamp.valueOf(DAY.atTime(8, 0)));
+    assertThat(jdbc.queryForObject("SELECT clock_in FROM attendance_records WHERE user_id=?", Timestamp.class, user.id())).isNull();
+    AttendanceSummaryService.MonthlySummary after = summary.findForUser(user.id(), MONTH);
+    assertThat(after).isEqualTo(before);
+    assertRebuildMatches(after);
+  }
+  @Test
+  void normalPunchesMatchRebuild() {
+    assertThat(attendance.clockIn(user, DAY, DAY.atTime(8, 55)).punched()).isTrue();
+    assertThat(attendance.clockIn(user, DAY, DAY.atTime(9, 5)).outcome()).isEqualTo(AttendanceService.Outcome.ALREADY_PUNCHED);
+    assertThat(attendance.clockOut(user, DAY, DAY.atTime(18, 10)).punched()).isTrue();
+    assertThat(attendance.clockIn(user, DAY.plusDays(1), DAY.plusDays(1).atTime(9, 30)).punched()).isTrue();
+    AttendanceSummaryService.MonthlySummary incremental = summary.findForUser(user.id(), MONTH);
+    assertThat(incremental.daysPresent()).isEqualTo(2);
+    assertThat(incremental.missingClockOut()).isEqualTo(1);
+    assertRebuildMatches(incremental);
+  }
+  private void importLines(String... lines) throws IOException {
+    Path file = tmp.resolve("punches.csv");
+    Files.write(file, List.of(lines), StandardCharsets.UTF_8);
+    importer.importFile(user, file, StandardCharsets.UTF_8, 0);
+  }
+  private void assertRebuildMatches(AttendanceSummaryService.MonthlySummary incremental) {
+    summary.rebuild(MONTH, MONTH);
+    assertThat(summary.findForUser(user.id(), MONTH)).isEqualTo(incremental);
+  }
+}
@@ -0,0 +1,82 @@
+package com.example.ems.service;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+class AuditSegmentTest {
+  private static final LocalDateTime T0 = LocalDateTime.of(2025, 4, 1, 9, 0);
+  @TempDir
+  Path dir;
+  @Test
+  void encodeDecodeRoundTripsSpecialCharactersAndNulls() {
+    AuditLogQueryService.Row row = new AuditLogQueryService.Row(
+        42, T0, null, "user\tname", "ADMIN", "UPDATE", null, "a\\b", "line1\nline2\r\n\\N\ttab");
+    String line = AuditSegment.encode(row);
+    assertThat(line).doesNotContain("\n").doesNotContain("\r");
+    assertThat(line.split("\t", -1)).hasSize(9);
+    assertThat(AuditSegment.decode(line)).isEqualTo(row);
+    AuditLogQueryService.Row literalNull = new AuditLogQueryService.Row(1, T0, 7L, "\\N", null, "X", "t", "", null);
+    assertThat(AuditSegment.decode(AuditSegment.encode(literalNull))).isEqualTo(literalNull);
+  }
+  @Test
+  void indexRoundTrips() throws IOException {
+    AuditSegment.Index index = new AuditSegment.Index(YearMonth.of(2025, 4), T0, T0.plusDays(1), 5, 321, 123456789L, List.of(
+        new AuditSegment.Block(0, 200, 3, T0, T0.plusMinutes(2), 11L),
+        new AuditSegment.Block(200, 121, 2, T0.plusMinutes(3), T0.plusMinutes(4), 22L)));
+    Path idx = dir.resolve("audit-2025-04-0001.idx");
+    AuditSegment.writeIndex(idx, index);
+    assertThat(AuditSegment.readIndex(idx)).isEqualTo(index);
+    assertThat(dir.resolve("audit-2025-04-0001.idx.tmp")).doesNotExist();
+  }
+  @Test
+  void scanReturnsOnlyRowsInsideRangeCuttingThroughBlocks() throws IOException {
+    AuditSegment.Index index = writeSegment(10, 3);
+    assertThat(index.blocks()).hasSize(4);
+    List<Long> ids = new ArrayList<>();
+    boolean completed = AuditSegment.scan(AuditSegment.segPath(dir, YearMonth.of(2025, 4), 1), index,
+        T0.plusMinutes(2), T0.plusMinutes(7), r -> ids.add(r.id()));
+    assertThat(completed).isTrue();
+    assertThat(ids).containsExactly(2L, 3L, 4L, 5L, 6L);
+  }
+  @Test
+  void scanStopsWhenVisitorReturnsFalse() throws IOException {
+    AuditSegment.Index index = writeSegment(10, 3);
+    List<Long> ids = new ArrayList<>();
+    boolean completed = AuditSegment.scan(AuditSegment.segPath(dir, YearMonth.of(2025, 4), 1), index,
+        null, null, r -> ids.add(r.id()) && ids.size() < 4);
+    assertThat(completed).isFalse();
+    assertThat(ids).containsExactly(0L, 1L, 2L, 3L);
+  }
+  @Test
+  void verifyDetectsFlippedByte() throws IOException {
+    AuditSegment.Index index = writeSegment(10, 3);
+    Path seg = AuditSegment.segPath(dir, YearMonth.of(2025, 4), 1);
+    assertThat(AuditSegment.verify(seg, index)).isNull();
+    assertThat(AuditSegment.readIndex(AuditSegment.idxPath(seg))).isEqualTo(index);
+    byte[] bytes = Files.readAllBytes(seg);
+    int pos = (int) index.blocks().get(1).offset() + 5;
+    bytes[pos] ^= 0x01;
+    Files.write(seg, bytes);
+    assertThat(AuditSegment.verify(seg, index)).contains("checksum mismatch");
+  }
+  /**
+   * 1分おきに rows 行（id = 0..rows-1）、blockRows 行ごとのブロックで1セグメント書く。
+   */
+  private AuditSegment.Index writeSegment(int rows, int blockRows) throws IOException {
+    Path seg = AuditSegment.segPath(dir, YearMonth.of(2025, 4), 1);
+    try (AuditSegment.SegmentWriter writer = new AuditSegment.SegmentWriter(seg, blockRows)) {
+      for (int i = 0; i < rows; i++) {
+        writer.append(new AuditLogQueryService.Row(i, T0.plusMinutes(i), 1L, "u", "ADMIN", "LOGIN", "users", "1", "detail " + i));
+      }
+      AuditSegment.Index index = writer.finish(YearMonth.of(2025, 4), T0, T0.plusMinutes(rows));
+      assertThat(Files.exists(seg.resolveSibling(seg.getFileName() + ".tmp"))).isFalse();
+      return index;
+    }
+  }
+}
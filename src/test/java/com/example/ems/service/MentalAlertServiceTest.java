@@ -0,0 +1,64 @@
+package com.example.ems.service;
+import org.junit.jupiter.api.Test;
+import static com.example.ems.service.MentalAlertService.WINDOW;
+import static org.assertj.core.api.Assertions.assertThat;
+class MentalAlertServiceTest {
+  private static final String EMPTY = "0".repeat(WINDOW);
+  @Test
+  void scoreAtMostFiresAtThresholdOnly() {
+    MentalAlertService.Rule rule = rule(MentalAlertService.Kind.SCORE_AT_MOST, 3, 1);
+    assertThat(MentalAlertService.evaluate(rule, today(3))).isEqualTo("スコア 3");
+    assertThat(MentalAlertService.evaluate(rule, today(4))).isNull();
+    assertThat(MentalAlertService.evaluate(rule, EMPTY)).isNull();
+  }
+  @Test
+  void dropFromMeanNeedsDaysRecordsBeforeToday() {
+    MentalAlertService.Rule rule = rule(MentalAlertService.Kind.DROP_FROM_MEAN, 3, 5);
+    String four = withPast(today(4), 8, 4);
+    assertThat(MentalAlertService.evaluate(rule, four)).isNull();
+    String five = withPast(today(4), 8, 5);
+    assertThat(MentalAlertService.evaluate(rule, five)).isEqualTo("スコア 4 / 14日平均 8.0（5件）");
+    assertThat(MentalAlertService.evaluate(rule, withPast(today(6), 8, 5))).isNull();
+  }
+  @Test
+  void lowStreakIsBrokenByMissingDay() {
+    MentalAlertService.Rule rule = rule(MentalAlertService.Kind.LOW_STREAK, 4, 3);
+    String streak = MentalAlertService.put(MentalAlertService.put(today(2), WINDOW - 2, 4), WINDOW - 3, 3);
+    assertThat(MentalAlertService.evaluate(rule, streak)).isEqualTo("スコア 4 以下が 3 日連続");
+    String gap = MentalAlertService.put(MentalAlertService.put(today(2), WINDOW - 2, 4), WINDOW - 4, 3);
+    assertThat(MentalAlertService.evaluate(rule, gap)).isNull();
+    String high = MentalAlertService.put(MentalAlertService.put(today(2), WINDOW - 2, 5), WINDOW - 3, 3);
+    assertThat(MentalAlertService.evaluate(rule, high)).isNull();
+  }
+  @Test
+  void shiftMovesScoresTowardsThePast() {
+    String scores = MentalAlertService.put(today(7), 0, 2);
+    assertThat(MentalAlertService.shift(scores, 0)).isEqualTo(scores);
+    String shifted = MentalAlertService.shift(scores, 1);
+    assertThat(shifted).hasSize(WINDOW);
+    assertThat(MentalAlertService.score(shifted, WINDOW - 2)).isEqualTo(7);
+    assertThat(MentalAlertService.score(shifted, WINDOW - 1)).isZero();
+    assertThat(MentalAlertService.shift(scores, WINDOW)).isEqualTo(EMPTY);
+    assertThat(MentalAlertService.shift(scores, WINDOW + 100L)).isEqualTo(EMPTY);
+  }
+  @Test
+  void scoreTenIsOneCharacter() {
+    String scores = today(10);
+    assertThat(scores).hasSize(WINDOW).endsWith("a");
+    assertThat(MentalAlertService.score(scores, WINDOW - 1)).isEqualTo(10);
+    assertThat(MentalAlertService.score(MentalAlertService.put(scores, 0, 1), 0)).isEqualTo(1);
+  }
+  private static MentalAlertService.Rule rule(MentalAlertService.Kind kind, int threshold, int days) {
+    return new MentalAlertService.Rule(1, kind, threshold, days, true);
+  }
+  private static String today(int score) {
+    return MentalAlertService.put(EMPTY, WINDOW - 1, score);
+  }
+  /**
+   * 当日の直前から count 日分に score を入れる。
+   */
+  private static String withPast(String scores, int score, int count) {
+    for (int i = 0; i < count; i++) scores = MentalAlertService.put(scores, WINDOW - 2 - i, score);
+    return scores;
+  }
+}
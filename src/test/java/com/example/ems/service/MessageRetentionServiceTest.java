@@ -0,0 +1,144 @@
+package com.example.ems.service;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import static org.assertj.core.api.Assertions.assertThat;
+class MessageRetentionServiceTest {
+  private static final LocalDateTime CUTOFF = LocalDateTime.of(2025, 4, 1, 0, 0);
+  @TempDir
+  Path tmp;
+  private SingleConnectionDataSource ds;
+  private JdbcTemplate jdbc;
+  private Path archiveDir;
+  private long alice;
+  private long bob;
+  @BeforeEach
+  void setUp() throws IOException {
+    ds = TestDatabase.open(tmp);
+    jdbc = new JdbcTemplate(ds);
+    archiveDir = tmp.resolve("archive");
+    alice = user("alice");
+    bob = user("bob");
+  }
+  @AfterEach
+  void tearDown() {
+    ds.destroy();
+  }
+  @Test
+  void archivesOldReadMessagesFileByFileThenDeletesThem() throws IOException {
+    long bc = jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO message_broadcasts (sender_id, target, body, recipients, sent_at) " +
+        "VALUES (?, 'ALL', 'お知らせ', 1, ?))", Long.class, alice, Timestamp.valueOf(CUTOFF.minusDays(3)));
+    Map<Long, String> archivedBodies = new LinkedHashMap<>();
+    for (int i = 0; i < 4; i++) {
+      String body = "old " + i + "\tタブ\n改行\\";
+      archivedBodies.put(message(alice, bob, null, body, CUTOFF.minusDays(10 - i), true), body);
+    }
+    archivedBodies.put(message(alice, bob, bc, "お知らせ", CUTOFF.minusDays(3), true), "お知らせ");
+    long unread = message(bob, alice, null, "unread", CUTOFF.minusDays(5), false);
+    long recent = message(bob, alice, null, "recent", CUTOFF.plusDays(1), true);
+    MessageRetentionService.Progress p = service(2, 1).run(CUTOFF);
+    assertThat(p.phase()).isEqualTo("DONE");
+    assertThat(p.error()).isNull();
+    assertThat(p.archived()).isEqualTo(5);
+    assertThat(p.deleted()).isEqualTo(5);
+    assertThat(p.files()).isEqualTo(3);
+    assertThat(p.broadcastsDeleted()).isEqualTo(1);
+    List<Long> ids = new ArrayList<>(archivedBodies.keySet());
+    assertThat(archiveFiles()).containsExactly(
+        MessageRetentionService.fileName(ids.get(0), ids.get(1)),
+        MessageRetentionService.fileName(ids.get(2), ids.get(3)),
+        MessageRetentionService.fileName(ids.get(4), ids.get(4)));
+    Map<Long, String> read = readArchive();
+    assertThat(read).isEqualTo(archivedBodies);
+    assertThat(jdbc.queryForList("SELECT id FROM messages ORDER BY id", Long.class)).containsExactly(unread, recent);
+    assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM message_broadcasts", Long.class)).isZero();
+    MessageRetentionService.Progress again = service(2, 1).run(CUTOFF);
+    assertThat(again.archived()).isZero();
+    assertThat(again.files()).isZero();
+    assertThat(archiveFiles()).hasSize(3);
+  }
+  @Test
+  void rerunAfterStopBeforeDeleteOverwritesSameFile() throws IOException {
+    List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      long id = message(alice, bob, null, "m" + i, CUTOFF.minusDays(5 - i), true);
+      rows.add(jdbc.queryForObject("SELECT id, sender_id, receiver_id, body, sent_at, read_at FROM messages WHERE id=?",
+          (rs, rn) -> new Object[] { rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getString(4), rs.getTimestamp(5), rs.getTimestamp(6) },
+          id));
+    }
+    assertThat(service(10, 2).run(CUTOFF).archived()).isEqualTo(3);
+    List<String> first = archiveFiles();
+    // ファイル確定後・削除前に止まった状態を、削除された行を戻して再現する
+    jdbc.batchUpdate("INSERT INTO messages (id, sender_id, receiver_id, body, sent_at, read_at) VALUES (?,?,?,?,?,?)", rows);
+    MessageRetentionService.Progress p = service(10, 2).run(CUTOFF);
+    assertThat(p.archived()).isEqualTo(3);
+    assertThat(p.deleted()).isEqualTo(3);
+    assertThat(archiveFiles()).isEqualTo(first).hasSize(1);
+    assertThat(readArchive()).hasSize(3);
+    assertThat(readArchiveLines()).hasSize(3);
+  }
+  private MessageRetentionService service(int fileRows, int deleteChunk) {
+    return new MessageRetentionService(jdbc, archiveDir.toString(), 365, fileRows, deleteChunk, 0);
+  }
+  private long user(String username) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    return jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO users (username, password_hash, role, enabled, created_at, updated_at) " +
+        "VALUES (?, 'x', 'EMPLOYEE', TRUE, ?, ?))", Long.class, username, now, now);
+  }
+  private long message(long sender, long receiver, Long broadcastId, String body, LocalDateTime sentAt, boolean read) {
+    return jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO messages (sender_id, receiver_id, broadcast_id, body, sent_at, read_at) " +
+        "VALUES (?,?,?,?,?,?))", Long.class,
+        sender, receiver, broadcastId, body, Timestamp.valueOf(sentAt), read ? Timestamp.valueOf(sentAt.plusHours(1)) : null);
+  }
+  private List<String> archiveFiles() throws IOException {
+    try (Stream<Path> files = Files.list(archiveDir)) {
+      return files.map(f -> f.getFileName().toString()).sorted().toList();
+    }
+  }
+  /**
+   * 全ファイルのデータ行（ヘッダを除く）。
+   */
+  private List<String[]> readArchiveLines() throws IOException {
+    List<String[]> lines = new ArrayList<>();
+    for (String name : archiveFiles()) {
+      try (BufferedReader r = new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(Files.newInputStream(archiveDir.resolve(name))), StandardCharsets.UTF_8))) {
+        assertThat(r.readLine()).isEqualTo("id\tsender_id\treceiver_id\tbroadcast_id\tsent_at\tread_at\tbody");
+        String line;
+        while ((line = r.readLine()) != null) lines.add(line.split("\t", -1));
+      }
+    }
+    return lines;
+  }
+  /**
+   * id → 本文。
+   */
+  private Map<Long, String> readArchive() throws IOException {
+    Map<Long, String> bodies = new LinkedHashMap<>();
+    for (String[] f : readArchiveLines()) {
+      assertThat(f).hasSize(7);
+      bodies.put(Long.parseLong(f[0]), TsvCodec.unescape(f[6]));
+    }
+    return bodies;
+  }
+}
@@ -0,0 +1,19 @@
+package com.example.ems.service;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+class MessageSearchServiceTest {
+  @Test
+  void japaneseTextIsSplitIntoBigrams() {
+    assertThat(MessageSearchService.terms("有給申請")).containsExactly("有給", "給申", "申請");
+  }
+  @Test
+  void wordsAreNormalizedAndSplitOnWhitespace() {
+    assertThat(MessageSearchService.words("  ＡＢＣ　シフト\n変更 ")).containsExactly("abc", "シフト", "変更");
+    assertThat(MessageSearchService.terms("ＡＢ ab")).containsExactly("ab");
+  }
+  @Test
+  void singleCharacterWordsHaveNoTerms() {
+    assertThat(MessageSearchService.terms("a 休")).isEmpty();
+    assertThat(MessageSearchService.bigrams("𠮷野")).containsExactly("𠮷野");
+  }
+}
@@ -0,0 +1,32 @@
+package com.example.ems.service;
+import org.junit.jupiter.api.Test;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import static org.assertj.core.api.Assertions.assertThat;
+class PunchImportServiceTest {
+  @Test
+  void parsesInAndOutPunches() {
+    PunchImportService.Punch in = PunchImportService.parseLine("1001,2025-04-01 08:58:12,IN");
+    assertThat(in).isNotNull();
+    assertThat(in.username()).isEqualTo("1001");
+    assertThat(in.in()).isTrue();
+    assertThat(in.at()).isEqualTo(LocalDateTime.of(2025, 4, 1, 8, 58, 12));
+    assertThat(in.workDate()).isEqualTo(LocalDate.of(2025, 4, 1));
+    PunchImportService.Punch out = PunchImportService.parseLine("1001,2025-04-01T18:05,out");
+    assertThat(out).isNotNull();
+    assertThat(out.in()).isFalse();
+  }
+  @Test
+  void explicitWorkDateOverridesTimestampDate() {
+    PunchImportService.Punch p = PunchImportService.parseLine("1001,2025-04-02 00:15,OUT,2025-04-01");
+    assertThat(p).isNotNull();
+    assertThat(p.workDate()).isEqualTo(LocalDate.of(2025, 4, 1));
+  }
+  @Test
+  void malformedLinesAreRejected() {
+    assertThat(PunchImportService.parseLine("1001,2025-04-01 08:58")).isNull();
+    assertThat(PunchImportService.parseLine("1001,not-a-time,IN")).isNull();
+    assertThat(PunchImportService.parseLine("1001,2025-04-01 08:58,BREAK")).isNull();
+    assertThat(PunchImportService.parseLine(",2025-04-01 08:58,IN")).isNull();
+  }
+}
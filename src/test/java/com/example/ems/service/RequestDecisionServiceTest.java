@@ -0,0 +1,86 @@
+package com.example.ems.service;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+class RequestDecisionServiceTest {
+  private static final LocalDate DAY = LocalDate.of(2030, 5, 7);
+  private static final Timestamp FILED = Timestamp.valueOf(LocalDateTime.of(2030, 4, 1, 10, 0));
+  @TempDir
+  Path tmp;
+  private SingleConnectionDataSource ds;
+  private JdbcTemplate jdbc;
+  private LeaveLedgerService ledger;
+  private RequestDecisionService decisions;
+  private long admin;
+  private long employee;
+  @BeforeEach
+  void setUp() throws IOException {
+    ds = TestDatabase.open(tmp);
+    jdbc = new JdbcTemplate(ds);
+    ledger = new LeaveLedgerService(jdbc);
+    decisions = new RequestDecisionService(jdbc, ledger);
+    admin = user("admin2", "ADMIN");
+    employee = user("1001", "EMPLOYEE");
+  }
+  @AfterEach
+  void tearDown() {
+    ds.destroy();
+  }
+  @Test
+  void leaveRevertedForBalanceDoesNotBlockOverlappingLaterLeave() {
+    ledger.grant(employee, 1, null, "test", admin);
+    long paid = leave(DAY, DAY.plusDays(2), "PAID");
+    long special = leave(DAY.plusDays(1), DAY.plusDays(1), "SPECIAL_OTHER");
+    RequestDecisionService.BatchResult r = decisions.decideIds(admin, List.of(paid, special), true, null);
+    assertThat(r.decided()).containsExactly(special);
+    assertThat(r.skipped()).containsExactly(
+        new RequestDecisionService.Skipped(paid, RequestDecisionService.SkipReason.INSUFFICIENT_LEAVE, "PENDING"));
+    assertThat(ledger.balance(employee)).isEqualTo(1);
+  }
+  @Test
+  void overlappingLeavesInOneBatchKeepTheLowerId() {
+    long first = leave(DAY, DAY.plusDays(1), "SPECIAL_OTHER");
+    long second = leave(DAY.plusDays(1), DAY.plusDays(3), "SPECIAL_OTHER");
+    RequestDecisionService.BatchResult r = decisions.decideIds(admin, List.of(second, first), true, null);
+    assertThat(r.decided()).containsExactly(first);
+    assertThat(r.skipped()).containsExactly(
+        new RequestDecisionService.Skipped(second, RequestDecisionService.SkipReason.OVERLAP, "PENDING"));
+  }
+  @Test
+  void revertedRequestLooksUntouched() {
+    long paid = leave(DAY, DAY, "PAID");
+    RequestDecisionService.BatchResult r = decisions.decideIds(admin, List.of(paid), true, "ok");
+    assertThat(r.decided()).isEmpty();
+    assertThat(jdbc.queryForMap(
+        "SELECT status, decided_by_id, decided_at, decision_note, updated_at FROM application_requests WHERE id=?", paid))
+        .containsEntry("STATUS", "PENDING")
+        .containsEntry("DECIDED_BY_ID", null)
+        .containsEntry("DECIDED_AT", null)
+        .containsEntry("DECISION_NOTE", null)
+        .containsEntry("UPDATED_AT", FILED);
+  }
+  private long user(String username, String role) {
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    return jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO users (username, password_hash, role, enabled, created_at, updated_at) " +
+        "VALUES (?, 'x', ?, TRUE, ?, ?))", Long.class, username, role, now, now);
+  }
+  private long leave(LocalDate start, LocalDate end, String category) {
+    return jdbc.queryForObject(
+        "SELECT id FROM FINAL TABLE (INSERT INTO application_requests " +
+        "(type, requester_id, status, start_date, end_date, leave_category, created_at, updated_at) " +
+        "VALUES ('LEAVE', ?, 'PENDING', ?, ?, ?, ?, ?))",
+        Long.class, employee, Date.valueOf(start), Date.valueOf(end), category, FILED, FILED);
+  }
+}
@@ -0,0 +1,27 @@
+package com.example.ems.service;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Properties;
+/**
+ * dir にH2ファイルDBを作り、application.properties の spring.sql.init.schema-locations を順に流す。
+ * 接続は1本（close しない）。テストの最後に destroy する。
+ */
+final class TestDatabase {
+  private TestDatabase() {}
+  static SingleConnectionDataSource open(Path dir) throws IOException {
+    SingleConnectionDataSource ds = new SingleConnectionDataSource(
+        "jdbc:h2:file:" + dir.resolve("ems").toAbsolutePath() + ";MODE=PostgreSQL", "sa", "", true);
+    Properties props = PropertiesLoaderUtils.loadProperties(new ClassPathResource("application.properties"));
+    ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+    for (String location : props.getProperty("spring.sql.init.schema-locations").split(",")) {
+      populator.addScript(new ClassPathResource(location.trim().replace("classpath:", "")));
+    }
+    populator.setSqlScriptEncoding("UTF-8");
+    populator.execute(ds);
+    return ds;
+  }
+}
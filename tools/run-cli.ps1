@@ -5,7 +5,9 @@
     [ValidateSet("UTF8", "CP932")]
     [string]$ConsoleEncoding = "UTF8",
     # 既に target\classes がある場合に高速起動したいなら付ける
-    [switch]$NoRebuild
+    [switch]$NoRebuild,
+    # Class Data Sharing（CDS）アーカイブを使って起動を速くする（初回はアーカイブ作成のため1回余分に起動する）
+    [switch]$Cds
 )
 Set-StrictMode -Version 3.0
 $ErrorActionPreference = "Stop"
@@ -49,9 +51,28 @@ try {
     }
     # Windowsのクラスパス区切りは ;（セミコロン）
     $cp = "$targetClasses;$deps"
+    $cdsArgs = @()
+    if ($Cds) {
+        # CDS はディレクトリ上のクラスを共有できないので、target\classes を jar にまとめる
+        $appJar = Join-Path $root "target\ems-cli.jar"
+        $jsa = Join-Path $root "target\ems-cli.jsa"
+        if (-not $NoRebuild -or -not (Test-Path $appJar)) {
+            if (Test-Path $appJar) { Remove-Item $appJar }
+            & jar --create --file $appJar -C $targetClasses .
+            if ($LASTEXITCODE -ne 0) { Fail "jar の作成に失敗しました" }
+        }
+        $cp = "$appJar;$deps"
+        # jar やクラスパスが変わるとアーカイブは使えなくなるので作り直す
+        if (-not (Test-Path $jsa) -or (Get-Item $jsa).LastWriteTime -lt (Get-Item $appJar).LastWriteTime) {
+            # コンテキスト起動直後に終了する学習用の起動で、読み込んだクラスを記録する
+            & java "-XX:ArchiveClassesAtExit=$jsa" "-Dspring.context.exit=onRefresh" -cp $cp com.example.ems.cli.EmsConsoleCli
+            if (-not (Test-Path $jsa)) { Fail "CDSアーカイブが作成されていません: $jsa" }
+        }
+        $cdsArgs = @("-XX:SharedArchiveFile=$jsa")
+    }
     # 4) Java起動（重要：引数は配列で渡して分割事故を防ぐ）
     $fileEnc = if ($ConsoleEncoding -eq "CP932") { "MS932" } else { "UTF-8" }
-    $javaArgs = @(
+    $javaArgs = $cdsArgs + @(
         "-Dfile.encoding=$fileEnc",
         "-cp", $cp,
         "com.example.ems.cli.EmsConsoleCli",